@@ -0,0 +1,209 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.benchmarks;
+
+import io.selendroid.server.common.BaseRequestHandler;
+import io.selendroid.server.common.BaseServlet;
+import io.selendroid.server.common.Response;
+import io.selendroid.server.common.SelendroidResponse;
+import io.selendroid.server.common.http.HttpRequest;
+import io.selendroid.server.common.http.HttpResponse;
+
+import org.json.JSONException;
+
+import java.util.Map;
+
+/**
+ * A servlet with the route table of the device's AndroidServlet. selendroid-server is an Android
+ * application and can't be used on the JVM, so the mapped URIs are copied here; keep them in sync
+ * when routes are added there. Every handler answers with a fixed value.
+ */
+public class AndroidRouteServlet extends BaseServlet {
+  static final String[][] ROUTES = {
+      {"POST", "/wd/hub/session"},
+      {"GET", "/wd/hub/sessions"},
+      {"GET", "/wd/hub/session/:sessionId"},
+      {"DELETE", "/wd/hub/session/:sessionId"},
+      {"GET", "/wd/hub/session/:sessionId/alert_text"},
+      {"POST", "/wd/hub/session/:sessionId/alert_text"},
+      {"POST", "/wd/hub/session/:sessionId/accept_alert"},
+      {"POST", "/wd/hub/session/:sessionId/back"},
+      {"GET", "/wd/hub/session/:sessionId/cookie"},
+      {"POST", "/wd/hub/session/:sessionId/cookie"},
+      {"DELETE", "/wd/hub/session/:sessionId/cookie"},
+      {"DELETE", "/wd/hub/session/:sessionId/cookie/:name"},
+      {"POST", "/wd/hub/session/:sessionId/dismiss_alert"},
+      {"POST", "/wd/hub/session/:sessionId/element"},
+      {"POST", "/wd/hub/session/:sessionId/elements"},
+      {"GET", "/wd/hub/session/:sessionId/element/:id/attribute/:name"},
+      {"POST", "/wd/hub/session/:sessionId/element/:id/clear"},
+      {"POST", "/wd/hub/session/:sessionId/element/:id/click"},
+      {"GET", "/wd/hub/session/:sessionId/element/:id/displayed"},
+      {"POST", "/wd/hub/session/:sessionId/element/:id/element"},
+      {"POST", "/wd/hub/session/:sessionId/element/:id/elements"},
+      {"GET", "/wd/hub/session/:sessionId/element/:id/enabled"},
+      {"GET", "/wd/hub/session/:sessionId/element/:id/location"},
+      {"GET", "/wd/hub/session/:sessionId/element/:id/location_in_view"},
+      {"GET", "/wd/hub/session/:sessionId/element/:id/name"},
+      {"GET", "/wd/hub/session/:sessionId/element/:id/selected"},
+      {"GET", "/wd/hub/session/:sessionId/element/:id/source"},
+      {"POST", "/wd/hub/session/:sessionId/element/:id/submit"},
+      {"GET", "/wd/hub/session/:sessionId/element/:id/text"},
+      {"POST", "/wd/hub/session/:sessionId/element/:id/value"},
+      {"GET", "/wd/hub/session/:sessionId/element/:id/size"},
+      {"POST", "/wd/hub/session/:sessionId/execute"},
+      {"POST", "/wd/hub/session/:sessionId/execute_async"},
+      {"POST", "/wd/hub/session/:sessionId/forward"},
+      {"POST", "/wd/hub/session/:sessionId/frame"},
+      {"POST", "/wd/hub/session/:sessionId/keys"},
+      {"POST", "/wd/hub/session/:sessionId/refresh"},
+      {"GET", "/wd/hub/session/:sessionId/screenshot"},
+      {"GET", "/wd/hub/session/:sessionId/source"},
+      {"POST", "/wd/hub/session/:sessionId/timeouts"},
+      {"POST", "/wd/hub/session/:sessionId/timeouts/async_script"},
+      {"POST", "/wd/hub/session/:sessionId/timeouts/implicit_wait"},
+      {"GET", "/wd/hub/session/:sessionId/title"},
+      {"GET", "/wd/hub/session/:sessionId/url"},
+      {"POST", "/wd/hub/session/:sessionId/url"},
+      {"POST", "/wd/hub/session/:sessionId/window"},
+      {"GET", "/wd/hub/session/:sessionId/window/:windowHandle/size"},
+      {"GET", "/wd/hub/session/:sessionId/window_handle"},
+      {"GET", "/wd/hub/session/:sessionId/window_handles"},
+      {"GET", "/wd/hub/session/:sessionId/orientation"},
+      {"POST", "/wd/hub/session/:sessionId/orientation"},
+      {"POST", "/wd/hub/session/:sessionId/touch/click"},
+      {"POST", "/wd/hub/session/:sessionId/touch/down"},
+      {"POST", "/wd/hub/session/:sessionId/touch/up"},
+      {"POST", "/wd/hub/session/:sessionId/touch/move"},
+      {"POST", "/wd/hub/session/:sessionId/touch/scroll"},
+      {"POST", "/wd/hub/session/:sessionId/touch/doubleclick"},
+      {"POST", "/wd/hub/session/:sessionId/touch/longclick"},
+      {"POST", "/wd/hub/session/:sessionId/touch/flick"},
+      {"POST", "/wd/hub/session/:sessionId/trackball/roll"},
+      {"GET", "/wd/hub/session/:sessionId/network_connection"},
+      {"GET", "/wd/hub/session/:sessionId/context"},
+      {"GET", "/wd/hub/session/:sessionId/contexts"},
+      {"POST", "/wd/hub/session/:sessionId/context"},
+      {"GET", "/wd/hub/session/:sessionId/selendroid/screen/brightness"},
+      {"POST", "/wd/hub/session/:sessionId/selendroid/screen/brightness"},
+      {"POST", "/wd/hub/session/:sessionId/tap/2"},
+      {"GET", "/wd/hub/session/:sessionId/selendroid/configure/command/:command"},
+      {"POST", "/wd/hub/session/:sessionId/selendroid/configure/command/:command"},
+      {"POST", "/wd/hub/session/:sessionId/selendroid/gc"},
+      {"POST", "/wd/hub/session/:sessionId/selendroid/systemProperty"},
+      {"POST", "/wd/hub/session/:sessionId/selendroid/background"},
+      {"POST", "/wd/hub/session/:sessionId/selendroid/resume"},
+      {"POST", "/wd/hub/session/:sessionId/selendroid/addCallLog"},
+      {"POST", "/wd/hub/session/:sessionId/selendroid/readCallLog"},
+      {"POST", "/wd/hub/session/:sessionId/selendroid/extension"},
+      {"POST", "/wd/hub/session/:sessionId/actions"},
+      {"GET", "/wd/hub/session/:sessionId/ime/available_engines"},
+      {"GET", "/wd/hub/session/:sessionId/ime/active_engine"},
+      {"GET", "/wd/hub/session/:sessionId/ime/activated"},
+      {"POST", "/wd/hub/session/:sessionId/ime/deactivate"},
+      {"POST", "/wd/hub/session/:sessionId/ime/activate"},
+      {"DELETE", "/wd/hub/session/:sessionId/window"},
+      {"POST", "/wd/hub/session/:sessionId/window/:windowHandle/size"},
+      {"POST", "/wd/hub/session/:sessionId/window/:windowHandle/position"},
+      {"GET", "/wd/hub/session/:sessionId/window/:windowHandle/position"},
+      {"POST", "/wd/hub/session/:sessionId/window/:windowHandle/maximize"},
+      {"GET", "/wd/hub/session/:sessionId/element/:id"},
+      {"POST", "/wd/hub/session/:sessionId/element/active"},
+      {"GET", "/wd/hub/session/:sessionId/element/:id/equals/:other"},
+      {"GET", "/wd/hub/session/:sessionId/element/:id/css/:propertyName"},
+      {"POST", "/wd/hub/session/:sessionId/moveto"},
+      {"POST", "/wd/hub/session/:sessionId/buttondown"},
+      {"POST", "/wd/hub/session/:sessionId/buttonup"},
+      {"POST", "/wd/hub/session/:sessionId/doubleclick"},
+      {"GET", "/wd/hub/session/:sessionId/location"},
+      {"POST", "/wd/hub/session/:sessionId/location"},
+      {"GET", "/wd/hub/session/:sessionId/local_storage"},
+      {"POST", "/wd/hub/session/:sessionId/local_storage"},
+      {"DELETE", "/wd/hub/session/:sessionId/local_storage"},
+      {"GET", "/wd/hub/session/:sessionId/local_storage/key/:key"},
+      {"DELETE", "/wd/hub/session/:sessionId/local_storage/key/:key"},
+      {"GET", "/wd/hub/session/:sessionId/local_storage/size"},
+      {"GET", "/wd/hub/session/:sessionId/location"},
+      {"POST", "/wd/hub/session/:sessionId/location"},
+      {"GET", "/wd/hub/session/:sessionId/local_storage"},
+      {"POST", "/wd/hub/session/:sessionId/local_storage"},
+      {"DELETE", "/wd/hub/session/:sessionId/local_storage"},
+      {"GET", "/wd/hub/session/:sessionId/local_storage/key/:key"},
+      {"DELETE", "/wd/hub/session/:sessionId/local_storage/key/:key"},
+      {"GET", "/wd/hub/session/:sessionId/local_storage/size"},
+      {"GET", "/wd/hub/session/:sessionId/session_storage"},
+      {"POST", "/wd/hub/session/:sessionId/session_storage"},
+      {"DELETE", "/wd/hub/session/:sessionId/session_storage"},
+      {"GET", "/wd/hub/session/:sessionId/session_storage/key/:key"},
+      {"DELETE", "/wd/hub/session/:sessionId/session_storage/key/:key"},
+      {"GET", "/wd/hub/session/:sessionId/session_storage/size"},
+      {"POST", "/wd/hub/session/:sessionId/log"},
+      {"GET", "/wd/hub/session/:sessionId/log/types"},
+  };
+
+  private final Object value;
+
+  public AndroidRouteServlet(Object value) {
+    this.value = value;
+    init();
+  }
+
+  @Override
+  protected void init() {
+    for (String[] route : ROUTES) {
+      register(registryOf(route[0]), new FixedResponseHandler(route[1]));
+    }
+  }
+
+  private Map<String, BaseRequestHandler> registryOf(String method) {
+    if ("GET".equals(method)) {
+      return getHandler;
+    } else if ("POST".equals(method)) {
+      return postHandler;
+    }
+    return deleteHandler;
+  }
+
+  /**
+   * @return the handler of the request, like {@link #handleHttpRequest} finds it
+   */
+  public BaseRequestHandler match(HttpRequest request) {
+    return findMatcher(request, registryOf(request.method()));
+  }
+
+  @Override
+  public void handleRequest(HttpRequest request, HttpResponse response,
+      BaseRequestHandler handler) {
+    if (handler == null) {
+      response.setStatus(404).end();
+      return;
+    }
+    try {
+      handleResponse(request, response, (SelendroidResponse) handler.handle(request));
+    } catch (JSONException e) {
+      replyWithServerError(response);
+    }
+  }
+
+  private class FixedResponseHandler extends BaseRequestHandler {
+    FixedResponseHandler(String mappedUri) {
+      super(mappedUri);
+    }
+
+    @Override
+    public Response handle(HttpRequest request) throws JSONException {
+      return new SelendroidResponse(getSessionId(request), value);
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.benchmarks;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Response values of typical sizes: a command result, an element tree and a screenshot.
+ */
+public final class Payloads {
+  private Payloads() {}
+
+  /**
+   * @param size "small", "medium" or "large"
+   */
+  public static Object value(String size) throws JSONException {
+    if ("small".equals(size)) {
+      return "a5d3c2f0-element-id";
+    } else if ("medium".equals(size)) {
+      return elementTree(3, 6);
+    } else if ("large".equals(size)) {
+      return screenshot(3 * 1024 * 1024);
+    }
+    throw new IllegalArgumentException("Unknown payload size: " + size);
+  }
+
+  /**
+   * @return a view hierarchy like the inspector's tree, {@code breadth^depth} nodes
+   */
+  static JSONObject elementTree(int depth, int breadth) throws JSONException {
+    JSONObject node = new JSONObject();
+    node.put("type", "android.widget.LinearLayout");
+    node.put("id", "id/container_" + depth);
+    node.put("name", "");
+    node.put("value", "Some label text äöü");
+    node.put("shown", true);
+    JSONObject rect = new JSONObject();
+    rect.put("x", 12);
+    rect.put("y", 480);
+    rect.put("width", 1080);
+    rect.put("height", 96);
+    node.put("rect", rect);
+    JSONArray children = new JSONArray();
+    if (depth > 0) {
+      for (int i = 0; i < breadth; i++) {
+        children.put(elementTree(depth - 1, breadth));
+      }
+    }
+    node.put("children", children);
+    return node;
+  }
+
+  /**
+   * @return a base64-like string of the given length
+   */
+  static String screenshot(int length) {
+    String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+    StringBuilder builder = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      builder.append(alphabet.charAt((i * 31 + i / 7) % alphabet.length()));
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.benchmarks;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+import io.selendroid.server.common.http.impl.NettyHttpRequest;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of request bodies by {@link NettyHttpRequest#body()}, e.g. sendKeys and execute
+ * payloads.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBodyBenchmark {
+  @Param({"256", "65536", "1048576"})
+  public int bodySize;
+
+  private FullHttpRequest request;
+
+  @Setup
+  public void setUp() throws Exception {
+    JSONObject payload = new JSONObject();
+    payload.put("script", "");
+    int overhead = payload.toString().length();
+    payload.put("script", Payloads.screenshot(Math.max(0, bodySize - overhead)));
+    request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST,
+        "/wd/hub/session/9b7e4a52/execute",
+        Unpooled.copiedBuffer(payload.toString(), CharsetUtil.UTF_8));
+  }
+
+  @Benchmark
+  public String body() {
+    return new NettyHttpRequest(request).body();
+  }
+}
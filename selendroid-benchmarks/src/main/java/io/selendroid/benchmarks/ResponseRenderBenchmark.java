@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.CharsetUtil;
+import io.selendroid.server.common.SelendroidResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of a {@link SelendroidResponse}: the String based {@code render()} followed by
+ * the UTF-8 encoding it needs before it can be sent, compared to rendering straight into a
+ * pooled buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseRenderBenchmark {
+  @Param({"small", "medium", "large"})
+  public String size;
+
+  private SelendroidResponse response;
+
+  @Setup
+  public void setUp() throws Exception {
+    response = new SelendroidResponse("9b7e4a52-6f11-4a57-bd8c-3e0f0c7c1a2b", Payloads.value(size));
+  }
+
+  @Benchmark
+  public byte[] renderToString() {
+    return response.render().getBytes(CharsetUtil.UTF_8);
+  }
+
+  @Benchmark
+  public int renderToBuffer() {
+    ByteBuf buffer = PooledByteBufAllocator.DEFAULT.heapBuffer();
+    try {
+      response.render(buffer);
+      return buffer.readableBytes();
+    } finally {
+      buffer.release();
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.benchmarks;
+
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.selendroid.server.common.BaseRequestHandler;
+import io.selendroid.server.common.http.impl.NettyHttpRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Route lookup of {@code BaseServlet.findMatcher} against the full AndroidServlet route table.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteMatchingBenchmark {
+  @Param({"POST /wd/hub/session/9b7e4a52/element",
+      "GET /wd/hub/session/9b7e4a52/element/17/attribute/value",
+      "POST /wd/hub/session/9b7e4a52/selendroid/configure/command/click",
+      "GET /wd/hub/session/9b7e4a52/unknown/command"})
+  public String request;
+
+  private AndroidRouteServlet servlet;
+  private NettyHttpRequest httpRequest;
+
+  @Setup
+  public void setUp() throws Exception {
+    servlet = new AndroidRouteServlet(Boolean.TRUE);
+    String[] methodAndUri = request.split(" ");
+    httpRequest = new NettyHttpRequest(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1,
+        HttpMethod.valueOf(methodAndUri[0]), methodAndUri[1]));
+  }
+
+  @Benchmark
+  public BaseRequestHandler findMatcher() {
+    httpRequest.data().clear();
+    return servlet.match(httpRequest);
+  }
+}
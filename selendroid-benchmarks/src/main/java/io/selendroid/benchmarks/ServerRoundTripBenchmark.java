@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+import io.selendroid.server.common.http.HttpServerConfig;
+import io.selendroid.server.common.http.HttpServlet;
+import io.selendroid.server.common.http.ServerHandler;
+import io.selendroid.server.common.http.TrafficMetrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One command through {@link ServerHandler} on a keep-alive connection: route lookup, payload
+ * access, handler, response rendering and metrics, without the socket.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServerRoundTripBenchmark {
+  @Param({"small", "medium"})
+  public String size;
+
+  private EmbeddedChannel channel;
+  private ByteBuf body;
+
+  @Setup
+  public void setUp() throws Exception {
+    List<HttpServlet> servlets = new ArrayList<HttpServlet>();
+    servlets.add(new AndroidRouteServlet(Payloads.value(size)));
+    HttpServerConfig config = new HttpServerConfig().setMaxRequestsPerConnection(0);
+    channel = new EmbeddedChannel(new ServerHandler(servlets, config, null, new TrafficMetrics()));
+    body = Unpooled.copiedBuffer("{\"using\":\"id\",\"value\":\"io.selendroid.testapp:id/button\"}",
+        CharsetUtil.UTF_8);
+  }
+
+  @TearDown
+  public void tearDown() {
+    channel.finish();
+    body.release();
+  }
+
+  @Benchmark
+  public int findElement() {
+    channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST,
+        "/wd/hub/session/9b7e4a52/element", body.duplicate().retain()));
+    FullHttpResponse response = (FullHttpResponse) channel.readOutbound();
+    int length = response.content().readableBytes();
+    response.release();
+    return length;
+  }
+}
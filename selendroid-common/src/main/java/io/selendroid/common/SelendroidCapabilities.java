@@ -67,6 +67,9 @@ public class SelendroidCapabilities extends DesiredCapabilities {
 
   public static final String USE_RANDOM_LOCAL_PORT = "useRandomLocalPort";
 
+  // session requests waiting for a device with a higher priority get one first
+  public static final String DEVICE_WAIT_PRIORITY = "deviceWaitPriority";
+
   public static SelendroidCapabilities empty() {
     return new SelendroidCapabilities(new HashMap<String, Object>());
   }
@@ -128,6 +131,16 @@ public class SelendroidCapabilities extends DesiredCapabilities {
     return useRandomLocalPort != null ? useRandomLocalPort : false;
   }
 
+  public int getDeviceWaitPriority() {
+    Object o = getRawCapabilities().get(DEVICE_WAIT_PRIORITY);
+    if (o == null || JSONObject.NULL.equals(o)) {
+      return 0;
+    } else if (o instanceof Number) {
+      return ((Number) o).intValue();
+    }
+    return Integer.parseInt(o.toString());
+  }
+
   public String getPlatformName() {
     return (String) getRawCapabilities().get(PLATFORM_NAME);
   }
@@ -267,6 +280,10 @@ public class SelendroidCapabilities extends DesiredCapabilities {
     setCapability(USE_RANDOM_LOCAL_PORT, useRandomLocalPort);
   }
 
+  public void setDeviceWaitPriority(int priority) {
+    setCapability(DEVICE_WAIT_PRIORITY, priority);
+  }
+
   public void setLocale(String locale) {
     setCapability(LOCALE, locale);
   }
@@ -57,14 +57,28 @@ public abstract class BaseRequestHandler {
     return null;
   }
 
+  /**
+   * Returns the JSON payload of the request. The body is parsed on the first call only, the
+   * result is kept in the request data and shared by all callers of the same request.
+   */
   public JSONObject getPayload(HttpRequest request) throws JSONException {
+    Object payload = request.data().get(BaseServlet.PAYLOAD_KEY);
+    if (payload instanceof JSONObject) {
+      return (JSONObject) payload;
+    }
+    JSONObject parsed = parsePayload(request);
+    request.data().put(BaseServlet.PAYLOAD_KEY, parsed);
+    return parsed;
+  }
+
+  protected JSONObject parsePayload(HttpRequest request) throws JSONException {
     String json = request.body();
     if (json != null && !json.isEmpty()) {
       return new JSONObject(json);
     }
     return new JSONObject();
   }
-  
+
   public abstract Response handle(HttpRequest request) throws JSONException;
 
   public boolean commandAllowedWithAlertPresentInWebViewMode() {
@@ -16,9 +16,10 @@ package io.selendroid.server.common;
 import io.selendroid.server.common.http.HttpRequest;
 import io.selendroid.server.common.http.HttpResponse;
 import io.selendroid.server.common.http.HttpServlet;
+import io.selendroid.server.common.http.TrafficMetrics;
 
-import java.nio.charset.Charset;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
 public abstract class BaseServlet implements HttpServlet {
@@ -27,6 +28,7 @@ public abstract class BaseServlet implements HttpServlet {
   public static final String COMMAND_NAME_KEY = "COMMAND_KEY";
   public static final String NAME_ID_KEY = "NAME_ID_KEY";
   public static final String DRIVER_KEY = "DRIVER_KEY";
+  public static final String PAYLOAD_KEY = "PAYLOAD_KEY";
   public static final int INTERNAL_SERVER_ERROR = 500;
 
   protected Map<String, BaseRequestHandler> getHandler = new HashMap<String, BaseRequestHandler>();
@@ -34,18 +36,28 @@ public abstract class BaseServlet implements HttpServlet {
   protected Map<String, BaseRequestHandler> deleteHandler =
       new HashMap<String, BaseRequestHandler>();
 
-  private Map<String, String[]> mapperUrlSectionsCache = new HashMap<String, String[]>();
+  /**
+   * The routes of each handler registry, filled by {@link #register(Map, BaseRequestHandler)}.
+   */
+  private final Map<Map<String, BaseRequestHandler>, RouteTrie> routes =
+      new IdentityHashMap<Map<String, BaseRequestHandler>, RouteTrie>();
 
+  /**
+   * Finds the handler registered for the request URI and stores the URI parameters
+   * ({@link #SESSION_ID_KEY}, {@link #ELEMENT_ID_KEY}, {@link #NAME_ID_KEY},
+   * {@link #COMMAND_NAME_KEY}) of the matching route in the request data.
+   */
   protected BaseRequestHandler findMatcher(HttpRequest request,
       Map<String, BaseRequestHandler> handler) {
-    String[] urlToMatchSections = getRequestUrlSections(request.uri());
-    for (Map.Entry<String, ? extends BaseRequestHandler> entry : handler.entrySet()) {
-      String[] mapperUrlSections = getMapperUrlSectionsCached(entry.getKey());
-      if (isFor(mapperUrlSections, urlToMatchSections)) {
-        return entry.getValue();
-      }
+    RouteTrie trie = routes.get(handler);
+    if (trie == null) {
+      return null;
     }
-    return null;
+    BaseRequestHandler matched = trie.match(request.uri(), request.data());
+    if (matched != null) {
+      request.data().put(TrafficMetrics.ROUTE_KEY, matched.getMappedUri());
+    }
+    return matched;
   }
 
   /**
@@ -67,8 +79,18 @@ public abstract class BaseServlet implements HttpServlet {
     handleRequest(request, response, handler);
   }
 
+  /**
+   * Handlers must be added through this method, it also builds the route lookup used by
+   * {@link #findMatcher(HttpRequest, Map)}.
+   */
   protected void register(Map<String, BaseRequestHandler> registerOn, BaseRequestHandler handler) {
     registerOn.put(handler.getMappedUri(), handler);
+    RouteTrie trie = routes.get(registerOn);
+    if (trie == null) {
+      trie = new RouteTrie();
+      routes.put(registerOn, trie);
+    }
+    trie.add(handler.getMappedUri(), handler);
   }
 
   public abstract void handleRequest(HttpRequest request, HttpResponse response,
@@ -100,22 +122,6 @@ public abstract class BaseServlet implements HttpServlet {
     response.end();
   }
 
-  protected boolean isFor(String[] mapperUrlSections, String[] urlToMatchSections) {
-    if (urlToMatchSections == null) {
-      return mapperUrlSections.length == 0;
-    }
-    if (mapperUrlSections.length != urlToMatchSections.length) {
-      return false;
-    }
-    for (int i = 0; i < mapperUrlSections.length; i++) {
-      if (!(mapperUrlSections[i].startsWith(":") || mapperUrlSections[i]
-          .equals(urlToMatchSections[i]))) {
-        return false;
-      }
-    }
-    return true;
-  }
-
   protected boolean isNewSessionRequest(HttpRequest request) {
     return "POST".equals(request.method()) && "/wd/hub/session".equals(request.uri());
   }
@@ -123,10 +129,8 @@ public abstract class BaseServlet implements HttpServlet {
   protected void handleResponse(HttpRequest request, HttpResponse response,
       SelendroidResponse result) {
     if (result != null) {
-      String resultString = result.render();
       response.setContentType("application/json");
-      response.setEncoding(Charset.forName("UTF-8"));
-      response.setContent(resultString);
+      result.render(response.content());
       response.setStatus(200);
     } else {
       replyWithServerError(response);
@@ -134,32 +138,4 @@ public abstract class BaseServlet implements HttpServlet {
 
     response.end();
   }
-
-  private String[] getRequestUrlSections(String urlToMatch) {
-    if (urlToMatch == null) {
-      return null;
-    }
-    int qPos = urlToMatch.indexOf('?');
-    if (qPos != -1) {
-      urlToMatch = urlToMatch.substring(0, urlToMatch.indexOf("?"));
-    }
-    return urlToMatch.split("/");
-  }
-
-  private String[] getMapperUrlSectionsCached(String mapperUrl) {
-    String[] sections = mapperUrlSectionsCache.get(mapperUrl);
-    if (sections == null) {
-      sections = mapperUrl.split("/");
-      for (int i = 0; i < sections.length; i++) {
-        String section = sections[i];
-        // To work around a but in Selenium Grid 2.31.0.
-        int qPos = section.indexOf('?');
-        if (qPos != -1) {
-          sections[i] = section.substring(0, qPos);
-        }
-      }
-      mapperUrlSectionsCache.put(mapperUrl, sections);
-    }
-    return sections;
-  }
 }
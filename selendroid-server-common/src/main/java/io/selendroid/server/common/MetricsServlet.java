@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.server.common;
+
+import io.selendroid.server.common.http.HttpRequest;
+import io.selendroid.server.common.http.HttpResponse;
+import io.selendroid.server.common.http.HttpServlet;
+import io.selendroid.server.common.http.TrafficMetrics;
+
+import org.json.JSONObject;
+
+/**
+ * Serves the {@link TrafficMetrics} of the server at {@code GET /wd/hub/metrics}.
+ */
+public class MetricsServlet implements HttpServlet {
+  private static final String METRICS_URI = "/wd/hub/metrics";
+  private final TrafficMetrics metrics;
+
+  public MetricsServlet(TrafficMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void handleHttpRequest(HttpRequest httpRequest, HttpResponse httpResponse)
+      throws Exception {
+    if (!METRICS_URI.equals(httpRequest.uri())) {
+      return;
+    }
+    httpRequest.data().put(TrafficMetrics.ROUTE_KEY, METRICS_URI);
+    if (!"GET".equalsIgnoreCase(httpRequest.method())) {
+      httpResponse.setStatus(404).end();
+      return;
+    }
+
+    JSONObject result = new JSONObject();
+    result.put("status", 0);
+    result.put("value", metrics.toJson());
+    httpResponse.setContentType("application/json").setStatus(200).setContent(result.toString())
+        .end();
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2012-2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.server.common;
+
+import java.util.Map;
+
+/**
+ * Segment trie of the mapped URIs of one HTTP method. Built once when the servlet registers its
+ * handlers, afterwards it is only read.
+ * <p>
+ * Matching walks the request URI segment by segment without splitting it. Literal segments take
+ * precedence over parameter segments like {@code :sessionId}. Parameter values of a successful
+ * match are written to the request data using the keys defined in {@link BaseServlet}.
+ */
+class RouteTrie {
+  private final Node root = new Node(null);
+
+  void add(String mappedUri, BaseRequestHandler handler) {
+    String[] sections = mappedUri.split("/");
+    String[] parameterKeys = new String[sections.length];
+    Node node = root;
+    for (int i = 0; i < sections.length; i++) {
+      String section = sections[i];
+      // To work around a bug in Selenium Grid 2.31.0.
+      int qPos = section.indexOf('?');
+      if (qPos != -1) {
+        section = section.substring(0, qPos);
+      }
+      if (section.startsWith(":")) {
+        parameterKeys[i] = dataKeyOf(section);
+      }
+      node = node.child(section);
+    }
+    node.handler = handler;
+    node.parameterKeys = parameterKeys;
+  }
+
+  /**
+   * Finds the handler of the given request URI.
+   *
+   * @param data if not {@code null}, the parameters of the matching route are stored in it
+   * @return the handler or {@code null} if no route matches
+   */
+  BaseRequestHandler match(String uri, Map<String, Object> data) {
+    if (uri == null) {
+      return null;
+    }
+    int end = uri.indexOf('?');
+    if (end == -1) {
+      end = uri.length();
+    }
+    // Trailing slashes are ignored, just like String.split() drops trailing empty sections.
+    while (end > 0 && uri.charAt(end - 1) == '/') {
+      end--;
+    }
+    if (end == 0) {
+      return null;
+    }
+    Node route = match(root, uri, 0, end, 0, data);
+    return route == null ? null : route.handler;
+  }
+
+  /**
+   * @return the node of the matching route, or {@code null}
+   */
+  private Node match(Node node, String uri, int start, int end, int depth,
+      Map<String, Object> data) {
+    if (start > end) {
+      return node.handler == null ? null : node;
+    }
+    int segmentEnd = uri.indexOf('/', start);
+    if (segmentEnd == -1 || segmentEnd > end) {
+      segmentEnd = end;
+    }
+
+    Node literal = node.literalChild(uri, start, segmentEnd);
+    if (literal != null) {
+      Node route = match(literal, uri, segmentEnd + 1, end, depth + 1, data);
+      if (route != null) {
+        return route;
+      }
+    }
+    if (node.parameterChild != null) {
+      Node route = match(node.parameterChild, uri, segmentEnd + 1, end, depth + 1, data);
+      if (route != null) {
+        String key = route.parameterKeys[depth];
+        if (data != null && key != null) {
+          data.put(key, uri.substring(start, segmentEnd));
+        }
+        return route;
+      }
+    }
+    return null;
+  }
+
+  private static String dataKeyOf(String parameter) {
+    if (":sessionId".equals(parameter)) {
+      return BaseServlet.SESSION_ID_KEY;
+    } else if (":id".equals(parameter)) {
+      return BaseServlet.ELEMENT_ID_KEY;
+    } else if (":name".equals(parameter)) {
+      return BaseServlet.NAME_ID_KEY;
+    } else if (":command".equals(parameter)) {
+      return BaseServlet.COMMAND_NAME_KEY;
+    }
+    return null;
+  }
+
+  private static class Node {
+    private final String segment;
+    private Node[] literalChildren = new Node[0];
+    private Node parameterChild;
+    private BaseRequestHandler handler;
+    /**
+     * Request data key of each parameter section of the route ending here, indexed by position.
+     */
+    private String[] parameterKeys;
+
+    Node(String segment) {
+      this.segment = segment;
+    }
+
+    Node child(String section) {
+      if (section.startsWith(":")) {
+        if (parameterChild == null) {
+          parameterChild = new Node(section);
+        }
+        return parameterChild;
+      }
+      for (Node child : literalChildren) {
+        if (child.segment.equals(section)) {
+          return child;
+        }
+      }
+      Node[] children = new Node[literalChildren.length + 1];
+      System.arraycopy(literalChildren, 0, children, 0, literalChildren.length);
+      Node child = new Node(section);
+      children[literalChildren.length] = child;
+      literalChildren = children;
+      return child;
+    }
+
+    Node literalChild(String uri, int start, int end) {
+      int length = end - start;
+      for (Node child : literalChildren) {
+        if (child.segment.length() == length && uri.regionMatches(start, child.segment, 0, length)) {
+          return child;
+        }
+      }
+      return null;
+    }
+  }
+}
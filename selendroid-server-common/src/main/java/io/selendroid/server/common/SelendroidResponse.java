@@ -13,6 +13,10 @@
  */
 package io.selendroid.server.common;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.util.CharsetUtil;
+import io.selendroid.server.common.http.ByteBufJsonWriter;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -111,6 +115,29 @@ public class SelendroidResponse implements Response {
     return o.toString();
   }
 
+  /**
+   * Renders the same JSON as {@link #render()}, but writes it as UTF-8 directly into the given
+   * buffer instead of building a String first.
+   */
+  public void render(ByteBuf out) {
+    int start = out.writerIndex();
+    try {
+      ByteBufJsonWriter writer = new ByteBufJsonWriter(out).beginObject();
+      if (sessionId != null) {
+        writer.member("sessionId", sessionId);
+      }
+      writer.member("status", status);
+      if (value != null) {
+        writer.member("value", value);
+      }
+      writer.endObject();
+    } catch (JSONException e) {
+      // e.g. a non-finite number, let render() produce its best effort output.
+      out.writerIndex(start);
+      out.writeBytes(render().getBytes(CharsetUtil.UTF_8));
+    }
+  }
+
   private JSONObject buildErrorValue(Throwable e, int status) throws JSONException {
     return buildErrorValue(e, status, null);
   }
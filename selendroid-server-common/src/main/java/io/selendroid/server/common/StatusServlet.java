@@ -16,6 +16,7 @@ package io.selendroid.server.common;
 import io.selendroid.server.common.http.HttpRequest;
 import io.selendroid.server.common.http.HttpResponse;
 import io.selendroid.server.common.http.HttpServlet;
+import io.selendroid.server.common.http.TrafficMetrics;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -36,6 +37,7 @@ public class StatusServlet implements HttpServlet {
     if (!"/wd/hub/status".equals(httpRequest.uri())) {
       return;
     }
+    httpRequest.data().put(TrafficMetrics.ROUTE_KEY, "/wd/hub/status");
     if (!"GET".equalsIgnoreCase(httpRequest.method())) {
       httpResponse.setStatus(404).end();
       return;
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.server.common.http;
+
+import io.netty.buffer.ByteBuf;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Serializes JSON values as UTF-8 straight into a {@link ByteBuf}, without building the
+ * intermediate String and byte array {@link JSONObject#toString()} would need. Large values like
+ * page sources and base64 screenshots are only copied once this way.
+ * <p>
+ * Only uses org.json API that is also available on Android.
+ */
+public class ByteBufJsonWriter {
+  private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+  private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+  private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+  private static final byte[] HEX = {
+      '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+  private final ByteBuf out;
+  private boolean firstMember = true;
+
+  public ByteBufJsonWriter(ByteBuf out) {
+    this.out = out;
+  }
+
+  public ByteBufJsonWriter beginObject() {
+    out.writeByte('{');
+    firstMember = true;
+    return this;
+  }
+
+  /**
+   * Writes one member of the object started with {@link #beginObject()}. Nested values must not
+   * be written with {@link #beginObject()}, pass them as the value instead.
+   */
+  public ByteBufJsonWriter member(String name, Object value) throws JSONException {
+    if (!firstMember) {
+      out.writeByte(',');
+    }
+    firstMember = false;
+    writeString(name);
+    out.writeByte(':');
+    writeValue(value);
+    return this;
+  }
+
+  public ByteBufJsonWriter endObject() {
+    out.writeByte('}');
+    return this;
+  }
+
+  public void writeValue(Object value) throws JSONException {
+    if (value == null || value == JSONObject.NULL) {
+      out.writeBytes(NULL);
+    } else if (value instanceof String) {
+      writeString((String) value);
+    } else if (value instanceof Boolean) {
+      out.writeBytes((Boolean) value ? TRUE : FALSE);
+    } else if (value instanceof Number) {
+      writeAscii(JSONObject.numberToString((Number) value));
+    } else if (value instanceof JSONObject) {
+      writeObject((JSONObject) value);
+    } else if (value instanceof JSONArray) {
+      writeArray((JSONArray) value);
+    } else if (value instanceof Map) {
+      writeMap((Map<?, ?>) value);
+    } else if (value instanceof Collection) {
+      writeIterator(((Collection<?>) value).iterator());
+    } else if (value instanceof Object[]) {
+      Object[] array = (Object[]) value;
+      out.writeByte('[');
+      for (int i = 0; i < array.length; i++) {
+        if (i > 0) {
+          out.writeByte(',');
+        }
+        writeValue(array[i]);
+      }
+      out.writeByte(']');
+    } else {
+      writeString(value.toString());
+    }
+  }
+
+  private void writeObject(JSONObject object) throws JSONException {
+    out.writeByte('{');
+    boolean first = true;
+    Iterator<?> keys = object.keys();
+    while (keys.hasNext()) {
+      String key = keys.next().toString();
+      if (!first) {
+        out.writeByte(',');
+      }
+      first = false;
+      writeString(key);
+      out.writeByte(':');
+      writeValue(object.opt(key));
+    }
+    out.writeByte('}');
+  }
+
+  private void writeArray(JSONArray array) throws JSONException {
+    out.writeByte('[');
+    for (int i = 0; i < array.length(); i++) {
+      if (i > 0) {
+        out.writeByte(',');
+      }
+      writeValue(array.opt(i));
+    }
+    out.writeByte(']');
+  }
+
+  private void writeMap(Map<?, ?> map) throws JSONException {
+    out.writeByte('{');
+    boolean first = true;
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      if (!first) {
+        out.writeByte(',');
+      }
+      first = false;
+      writeString(String.valueOf(entry.getKey()));
+      out.writeByte(':');
+      writeValue(entry.getValue());
+    }
+    out.writeByte('}');
+  }
+
+  private void writeIterator(Iterator<?> values) throws JSONException {
+    out.writeByte('[');
+    boolean first = true;
+    while (values.hasNext()) {
+      if (!first) {
+        out.writeByte(',');
+      }
+      first = false;
+      writeValue(values.next());
+    }
+    out.writeByte(']');
+  }
+
+  private void writeAscii(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      out.writeByte(value.charAt(i));
+    }
+  }
+
+  private void writeString(String value) {
+    int length = value.length();
+    // Most values are plain ASCII, reserve the space for them up front.
+    out.ensureWritable(length + 2);
+    out.writeByte('"');
+    char previous = 0;
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+        case '\\':
+          out.writeByte('\\');
+          out.writeByte(c);
+          break;
+        case '/':
+          // Escape "</" so the JSON can be embedded in HTML script tags, like JSONObject.quote().
+          if (previous == '<') {
+            out.writeByte('\\');
+          }
+          out.writeByte(c);
+          break;
+        case '\b':
+          out.writeByte('\\');
+          out.writeByte('b');
+          break;
+        case '\t':
+          out.writeByte('\\');
+          out.writeByte('t');
+          break;
+        case '\n':
+          out.writeByte('\\');
+          out.writeByte('n');
+          break;
+        case '\f':
+          out.writeByte('\\');
+          out.writeByte('f');
+          break;
+        case '\r':
+          out.writeByte('\\');
+          out.writeByte('r');
+          break;
+        default:
+          if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+            writeUnicodeEscape(c);
+          } else if (c < 0x80) {
+            out.writeByte(c);
+          } else if (c < 0x800) {
+            out.writeByte(0xc0 | (c >> 6));
+            out.writeByte(0x80 | (c & 0x3f));
+          } else if (Character.isHighSurrogate(c) && i + 1 < length
+              && Character.isLowSurrogate(value.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(++i));
+            out.writeByte(0xf0 | (codePoint >> 18));
+            out.writeByte(0x80 | ((codePoint >> 12) & 0x3f));
+            out.writeByte(0x80 | ((codePoint >> 6) & 0x3f));
+            out.writeByte(0x80 | (codePoint & 0x3f));
+          } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+            // Unpaired surrogates can't be encoded, String.getBytes() replaces them the same way.
+            out.writeByte('?');
+          } else {
+            out.writeByte(0xe0 | (c >> 12));
+            out.writeByte(0x80 | ((c >> 6) & 0x3f));
+            out.writeByte(0x80 | (c & 0x3f));
+          }
+      }
+      previous = c;
+    }
+    out.writeByte('"');
+  }
+
+  private void writeUnicodeEscape(char c) {
+    out.writeByte('\\');
+    out.writeByte('u');
+    out.writeByte(HEX[(c >> 12) & 0xf]);
+    out.writeByte(HEX[(c >> 8) & 0xf]);
+    out.writeByte(HEX[(c >> 4) & 0xf]);
+    out.writeByte(HEX[c & 0xf]);
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.server.common.http;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.util.internal.PlatformDependent;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps all references to Netty's native epoll transport, so this class is only loaded when the
+ * transport was asked for. The selendroid-server on the device never touches it.
+ */
+final class EpollSupport {
+  private static final Logger LOGGER = Logger.getLogger(EpollSupport.class.getName());
+
+  private EpollSupport() {}
+
+  /**
+   * @return whether the native library could be loaded, i.e. we run on Linux with the
+   *         netty-transport-native-epoll jar on the class path. The transport also needs the
+   *         memory address of direct buffers, which newer JVMs don't expose to this Netty version.
+   */
+  static boolean isAvailable() {
+    try {
+      return Epoll.isAvailable() && PlatformDependent.hasUnsafe();
+    } catch (Throwable e) {
+      LOGGER.log(Level.FINE, "Native epoll transport is not available", e);
+      return false;
+    }
+  }
+
+  static EventLoopGroup newEventLoopGroup(int threads) {
+    return new EpollEventLoopGroup(threads);
+  }
+
+  static void configure(ServerBootstrap bootstrap, boolean reusePort) {
+    bootstrap.channel(EpollServerSocketChannel.class);
+    if (reusePort) {
+      bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+    }
+  }
+
+  static void configure(Bootstrap bootstrap) {
+    bootstrap.channel(EpollSocketChannel.class);
+  }
+}
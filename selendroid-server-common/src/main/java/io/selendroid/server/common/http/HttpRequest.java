@@ -13,6 +13,9 @@
  */
 package io.selendroid.server.common.http;
 
+import io.netty.buffer.ByteBuf;
+
+import java.io.InputStream;
 import java.util.Map;
 
 public interface HttpRequest {
@@ -27,10 +30,22 @@ public interface HttpRequest {
   String uri();
 
   /**
-   * Returns the full request body.
+   * Returns the full request body. The body is decoded on the first call only.
    */
   String body();
 
+  /**
+   * Returns the request body as bytes, without decoding it into a String first. Each call returns
+   * a new stream starting at the beginning of the body.
+   */
+  InputStream bodyStream();
+
+  /**
+   * @return the buffer holding the request body, for proxies that forward it as is. It stays
+   *         valid until the response has been ended.
+   */
+  ByteBuf content();
+
   /**
    * Gets the value of a given header.
    */
@@ -13,6 +13,8 @@
  */
 package io.selendroid.server.common.http;
 
+import io.netty.buffer.ByteBuf;
+
 import java.nio.charset.Charset;
 
 public interface HttpResponse {
@@ -25,6 +27,11 @@ public interface HttpResponse {
 
   HttpResponse setContent(String message);
 
+  /**
+   * @return the buffer holding the response body, for serializers that write into it directly
+   */
+  ByteBuf content();
+
   HttpResponse setEncoding(Charset charset);
 
   HttpResponse sendRedirect(String to);
@@ -33,5 +40,12 @@ public interface HttpResponse {
 
   void end();
 
+  /**
+   * Keeps the response open after the servlet returned. It is sent once {@link #end()} has been
+   * called, which may happen later on any thread, so servlets waiting for other servers don't
+   * block a server thread meanwhile.
+   */
+  void suspend();
+
   boolean isClosed();
 }
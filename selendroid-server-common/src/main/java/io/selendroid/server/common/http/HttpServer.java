@@ -13,26 +13,40 @@
  */
 package io.selendroid.server.common.http;
 
+import io.netty.bootstrap.Bootstrap;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
 
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 
 public class HttpServer {
+  private static final Logger LOGGER = Logger.getLogger(HttpServer.class.getName());
   private int port;
   private Thread serverThread;
   private final List<HttpServlet> handlers = new ArrayList<HttpServlet>();
+  private final HttpServerConfig config;
+  private final TrafficMetrics metrics = new TrafficMetrics();
+  private volatile EventLoopGroup workerGroup;
+  private volatile boolean nativeTransport;
 
   public HttpServer(int port) {
+    this(port, new HttpServerConfig());
+  }
+
+  public HttpServer(int port, HttpServerConfig config) {
     this.port = port;
+    this.config = config;
   }
 
   public void addHandler(HttpServlet handler) {
@@ -47,14 +61,41 @@ public class HttpServer {
     serverThread = new Thread() {
       @Override
       public void run() {
-        EventLoopGroup bossGroup = new NioEventLoopGroup(1);
-        EventLoopGroup workerGroup = new NioEventLoopGroup();
+        boolean epoll = config.isNativeTransport() && EpollSupport.isAvailable();
+        if (config.isNativeTransport() && !epoll) {
+          LOGGER.info("Native epoll transport is not available, using NIO");
+        }
+        EventLoopGroup bossGroup;
+        EventLoopGroup workerGroup;
+        nativeTransport = epoll;
+        if (epoll) {
+          bossGroup = EpollSupport.newEventLoopGroup(config.getBossThreads());
+          workerGroup = EpollSupport.newEventLoopGroup(config.getWorkerThreads());
+        } else {
+          bossGroup = new NioEventLoopGroup(config.getBossThreads());
+          workerGroup = new NioEventLoopGroup(config.getWorkerThreads());
+        }
+        HttpServer.this.workerGroup = workerGroup;
+        RequestDispatcher dispatcher = null;
+        if (config.getCommandThreads() > 0) {
+          dispatcher =
+              new RequestDispatcher(config.getCommandThreads(), config.getMaxQueuedRequests());
+        }
         try {
           ServerBootstrap bootstrap = new ServerBootstrap();
-          bootstrap.option(ChannelOption.SO_BACKLOG, 1024);
+          bootstrap.option(ChannelOption.SO_BACKLOG, config.getBacklog());
           bootstrap.group(bossGroup, workerGroup)
-              .channel(NioServerSocketChannel.class)
-              .childHandler(new ServerInitializer(handlers));
+              .childOption(ChannelOption.TCP_NODELAY, config.isTcpNoDelay())
+              .childHandler(new ServerInitializer(handlers, config, dispatcher, metrics));
+          if (epoll) {
+            EpollSupport.configure(bootstrap, config.isReusePort());
+          } else {
+            bootstrap.channel(NioServerSocketChannel.class);
+          }
+          if (config.isPooledBuffers()) {
+            bootstrap.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+          }
 
           Channel ch = bootstrap.bind(port).sync().channel();
 
@@ -68,9 +109,12 @@ public class HttpServer {
           ch.closeFuture().sync();
         } catch (InterruptedException ignored) {
         } finally {
+          HttpServer.this.workerGroup = null;
           bossGroup.shutdownGracefully();
           workerGroup.shutdownGracefully();
-          TrafficCounter.shutdown();
+          if (dispatcher != null) {
+            dispatcher.shutdown();
+          }
         }
       }
     };
@@ -99,4 +143,37 @@ public class HttpServer {
     return port;
   }
 
+  public HttpServerConfig getConfig() {
+    return config;
+  }
+
+  public TrafficMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Creates a bootstrap for client connections running on the worker event loops of this server,
+   * so servlets can talk to other servers without blocking or starting threads of their own. The
+   * connections use the same transport and allocator as the server.
+   *
+   * @throws IllegalStateException if the server is not running
+   */
+  public Bootstrap newClientBootstrap() {
+    EventLoopGroup group = workerGroup;
+    if (group == null) {
+      throw new IllegalStateException("Server is not running");
+    }
+    Bootstrap bootstrap = new Bootstrap().group(group)
+        .option(ChannelOption.TCP_NODELAY, config.isTcpNoDelay());
+    if (nativeTransport) {
+      EpollSupport.configure(bootstrap);
+    } else {
+      bootstrap.channel(NioSocketChannel.class);
+    }
+    if (config.isPooledBuffers()) {
+      bootstrap.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+    }
+    return bootstrap;
+  }
+
 }
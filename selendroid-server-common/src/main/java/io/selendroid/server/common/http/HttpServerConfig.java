@@ -0,0 +1,241 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.server.common.http;
+
+import java.io.File;
+
+/**
+ * Tuning options of the {@link HttpServer}. The defaults are used by the selendroid-server on the
+ * device, the standalone server fills them from its command line configuration.
+ */
+public class HttpServerConfig {
+  /**
+   * Seconds a persistent connection may stay idle before it is closed, 0 disables the timeout.
+   */
+  private int keepAliveTimeoutSeconds = 60;
+  /**
+   * Maximum number of requests served on one connection before it is closed, 0 means unlimited.
+   */
+  private int maxRequestsPerConnection = 1000;
+  /**
+   * Number of threads servlets are dispatched on, 0 dispatches on the Netty I/O threads.
+   */
+  private int commandThreads = 0;
+  /**
+   * Maximum number of requests waiting for a command thread before new requests are rejected with
+   * 503, 0 means unlimited.
+   */
+  private int maxQueuedRequests = 0;
+  /**
+   * Value of the Retry-After header sent with 503 responses when the queue limit is reached.
+   */
+  private int retryAfterSeconds = 1;
+  /**
+   * Deflate level (1-9) of gzip/deflate encoded responses, 0 disables response compression.
+   */
+  private int compressionLevel = 6;
+  /**
+   * Responses with a smaller body are sent uncompressed, compressing them isn't worth the CPU.
+   */
+  private int compressionMinSize = 1024;
+  /**
+   * Largest request body accepted, bigger requests are answered with 413. The default is small
+   * enough for the device, whose handlers decode the whole body into a String on its heap.
+   */
+  private int maxContentLength = 1024 * 1024;
+  /**
+   * Request bodies larger than this are spooled to a temporary file instead of the heap.
+   */
+  private int requestSpoolThreshold = 1024 * 1024;
+  /**
+   * Directory of the spooled request bodies, {@code null} uses java.io.tmpdir.
+   */
+  private File spoolDirectory;
+  /**
+   * Use Netty's native epoll transport when it is available, falls back to NIO otherwise.
+   */
+  private boolean nativeTransport = false;
+  /**
+   * Number of threads accepting connections.
+   */
+  private int bossThreads = 1;
+  /**
+   * Number of I/O threads, 0 uses Netty's default of twice the number of cores.
+   */
+  private int workerThreads = 0;
+  private int backlog = 1024;
+  private boolean tcpNoDelay = true;
+  /**
+   * Lets several server processes bind the same port, only supported by the epoll transport.
+   */
+  private boolean reusePort = false;
+  /**
+   * Allocate buffers from Netty's pooled (direct) allocator instead of the unpooled default. Not
+   * for the device, where the pool arenas would take a big part of the heap.
+   */
+  private boolean pooledBuffers = false;
+
+  public int getKeepAliveTimeoutSeconds() {
+    return keepAliveTimeoutSeconds;
+  }
+
+  public HttpServerConfig setKeepAliveTimeoutSeconds(int keepAliveTimeoutSeconds) {
+    this.keepAliveTimeoutSeconds = keepAliveTimeoutSeconds;
+    return this;
+  }
+
+  public int getMaxRequestsPerConnection() {
+    return maxRequestsPerConnection;
+  }
+
+  public HttpServerConfig setMaxRequestsPerConnection(int maxRequestsPerConnection) {
+    this.maxRequestsPerConnection = maxRequestsPerConnection;
+    return this;
+  }
+
+  public int getCommandThreads() {
+    return commandThreads;
+  }
+
+  public HttpServerConfig setCommandThreads(int commandThreads) {
+    this.commandThreads = commandThreads;
+    return this;
+  }
+
+  public int getMaxQueuedRequests() {
+    return maxQueuedRequests;
+  }
+
+  public HttpServerConfig setMaxQueuedRequests(int maxQueuedRequests) {
+    this.maxQueuedRequests = maxQueuedRequests;
+    return this;
+  }
+
+  public int getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+  public HttpServerConfig setRetryAfterSeconds(int retryAfterSeconds) {
+    this.retryAfterSeconds = retryAfterSeconds;
+    return this;
+  }
+
+  public int getCompressionLevel() {
+    return compressionLevel;
+  }
+
+  public HttpServerConfig setCompressionLevel(int compressionLevel) {
+    this.compressionLevel = compressionLevel;
+    return this;
+  }
+
+  public int getCompressionMinSize() {
+    return compressionMinSize;
+  }
+
+  public HttpServerConfig setCompressionMinSize(int compressionMinSize) {
+    this.compressionMinSize = compressionMinSize;
+    return this;
+  }
+
+  public int getMaxContentLength() {
+    return maxContentLength;
+  }
+
+  public HttpServerConfig setMaxContentLength(int maxContentLength) {
+    this.maxContentLength = maxContentLength;
+    return this;
+  }
+
+  public int getRequestSpoolThreshold() {
+    return requestSpoolThreshold;
+  }
+
+  public HttpServerConfig setRequestSpoolThreshold(int requestSpoolThreshold) {
+    this.requestSpoolThreshold = requestSpoolThreshold;
+    return this;
+  }
+
+  public File getSpoolDirectory() {
+    return spoolDirectory;
+  }
+
+  public HttpServerConfig setSpoolDirectory(File spoolDirectory) {
+    this.spoolDirectory = spoolDirectory;
+    return this;
+  }
+
+  public boolean isNativeTransport() {
+    return nativeTransport;
+  }
+
+  public HttpServerConfig setNativeTransport(boolean nativeTransport) {
+    this.nativeTransport = nativeTransport;
+    return this;
+  }
+
+  public int getBossThreads() {
+    return bossThreads;
+  }
+
+  public HttpServerConfig setBossThreads(int bossThreads) {
+    this.bossThreads = bossThreads;
+    return this;
+  }
+
+  public int getWorkerThreads() {
+    return workerThreads;
+  }
+
+  public HttpServerConfig setWorkerThreads(int workerThreads) {
+    this.workerThreads = workerThreads;
+    return this;
+  }
+
+  public int getBacklog() {
+    return backlog;
+  }
+
+  public HttpServerConfig setBacklog(int backlog) {
+    this.backlog = backlog;
+    return this;
+  }
+
+  public boolean isTcpNoDelay() {
+    return tcpNoDelay;
+  }
+
+  public HttpServerConfig setTcpNoDelay(boolean tcpNoDelay) {
+    this.tcpNoDelay = tcpNoDelay;
+    return this;
+  }
+
+  public boolean isReusePort() {
+    return reusePort;
+  }
+
+  public HttpServerConfig setReusePort(boolean reusePort) {
+    this.reusePort = reusePort;
+    return this;
+  }
+
+  public boolean isPooledBuffers() {
+    return pooledBuffers;
+  }
+
+  public HttpServerConfig setPooledBuffers(boolean pooledBuffers) {
+    this.pooledBuffers = pooledBuffers;
+    return this;
+  }
+}
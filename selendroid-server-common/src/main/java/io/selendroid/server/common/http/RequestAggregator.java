@@ -0,0 +1,228 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.server.common.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+
+/**
+ * Aggregates a request and its content chunks into a {@link FullHttpRequest}, like Netty's
+ * HttpObjectAggregator, but with a configurable body limit that is large enough for big script
+ * and extension payloads.
+ * <p>
+ * Bodies up to the spool threshold are collected in memory. Larger bodies are written to a
+ * temporary file while they arrive, and the full request gets a read-only memory mapping of that
+ * file as content, so the device's limited Java heap never holds them. Requests declaring or
+ * sending more than the maximum are answered with 413 and the connection is closed.
+ */
+class RequestAggregator extends ChannelInboundHandlerAdapter {
+  private static final Logger LOGGER = Logger.getLogger(RequestAggregator.class.getName());
+  private static final int MAX_COMPOSITE_COMPONENTS = 1024;
+
+  private final long maxContentLength;
+  private final long spoolThreshold;
+  private final File spoolDirectory;
+
+  private HttpRequest request;
+  private CompositeByteBuf content;
+  private long contentLength;
+  private File spoolFile;
+  private RandomAccessFile spool;
+  private boolean rejected;
+
+  RequestAggregator(long maxContentLength, long spoolThreshold, File spoolDirectory) {
+    this.maxContentLength = maxContentLength;
+    this.spoolThreshold = spoolThreshold;
+    this.spoolDirectory = spoolDirectory;
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+    if (rejected) {
+      // Everything after a rejected request is dropped, the connection is being closed.
+      ReferenceCountUtil.release(msg);
+    } else if (msg instanceof HttpRequest) {
+      startRequest(ctx, (HttpRequest) msg);
+    } else if (msg instanceof HttpContent && request != null) {
+      HttpContent chunk = (HttpContent) msg;
+      try {
+        if (contentLength + chunk.content().readableBytes() > maxContentLength) {
+          reject(ctx);
+          return;
+        }
+        append(chunk.content());
+      } catch (IOException e) {
+        discard();
+        throw e;
+      } finally {
+        chunk.release();
+      }
+      if (chunk instanceof LastHttpContent) {
+        ctx.fireChannelRead(finishRequest((LastHttpContent) chunk));
+      }
+    } else {
+      ReferenceCountUtil.release(msg);
+    }
+  }
+
+  private void startRequest(ChannelHandlerContext ctx, HttpRequest start) {
+    discard();
+    if (HttpHeaders.getContentLength(start, -1) > maxContentLength) {
+      ReferenceCountUtil.release(start);
+      reject(ctx);
+      return;
+    }
+    if (start instanceof FullHttpRequest) {
+      if (((FullHttpRequest) start).content().readableBytes() > maxContentLength) {
+        ReferenceCountUtil.release(start);
+        reject(ctx);
+      } else {
+        ctx.fireChannelRead(start);
+      }
+      return;
+    }
+    if (HttpHeaders.is100ContinueExpected(start)) {
+      ctx.writeAndFlush(new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.CONTINUE));
+    }
+    request = start;
+    content = ctx.alloc().compositeBuffer(MAX_COMPOSITE_COMPONENTS);
+    contentLength = 0;
+  }
+
+  private void append(ByteBuf chunk) throws IOException {
+    int readable = chunk.readableBytes();
+    if (readable == 0) {
+      return;
+    }
+    if (spool == null && contentLength + readable > spoolThreshold) {
+      startSpooling();
+    }
+    if (spool != null) {
+      writeToSpool(chunk);
+    } else {
+      content.addComponent(chunk.retain());
+      content.writerIndex(content.writerIndex() + readable);
+    }
+    contentLength += readable;
+  }
+
+  private void startSpooling() throws IOException {
+    spoolFile = File.createTempFile("selendroid-request", ".body", spoolDirectory);
+    spool = new RandomAccessFile(spoolFile, "rw");
+    writeToSpool(content);
+    content.release();
+    content = null;
+  }
+
+  private void writeToSpool(ByteBuf buffer) throws IOException {
+    FileChannel channel = spool.getChannel();
+    while (buffer.isReadable()) {
+      buffer.readBytes(channel, buffer.readableBytes());
+    }
+  }
+
+  private FullHttpRequest finishRequest(LastHttpContent last) throws IOException {
+    ByteBuf body;
+    if (spool != null) {
+      // The mapping stays valid after the file is closed and deleted.
+      body = Unpooled.wrappedBuffer(
+          spool.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, contentLength));
+      closeSpool();
+    } else {
+      body = content;
+      content = null;
+    }
+
+    FullHttpRequest full = new DefaultFullHttpRequest(request.getProtocolVersion(),
+        request.getMethod(), request.getUri(), body);
+    full.headers().set(request.headers());
+    full.trailingHeaders().set(last.trailingHeaders());
+    HttpHeaders.removeTransferEncodingChunked(full);
+    HttpHeaders.setContentLength(full, contentLength);
+    full.setDecoderResult(request.getDecoderResult());
+    request = null;
+    return full;
+  }
+
+  private void reject(ChannelHandlerContext ctx) {
+    discard();
+    rejected = true;
+    FullHttpResponse response =
+        new DefaultFullHttpResponse(HTTP_1_1, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE);
+    HttpHeaders.setContentLength(response, 0);
+    response.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.CLOSE);
+    ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+  }
+
+  private void discard() {
+    request = null;
+    if (content != null) {
+      content.release();
+      content = null;
+    }
+    closeSpool();
+  }
+
+  private void closeSpool() {
+    if (spool != null) {
+      try {
+        spool.close();
+      } catch (IOException e) {
+        LOGGER.log(Level.FINE, "Could not close request spool file", e);
+      }
+      spool = null;
+    }
+    if (spoolFile != null) {
+      if (!spoolFile.delete()) {
+        spoolFile.deleteOnExit();
+      }
+      spoolFile = null;
+    }
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    discard();
+    super.channelInactive(ctx);
+  }
+
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+    discard();
+    super.handlerRemoved(ctx);
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.server.common.http;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs servlet dispatch off the Netty I/O threads. Commands of the same session are executed one
+ * after the other in arrival order, commands of different sessions run in parallel. Requests
+ * without a session (status, new session, ...) are not serialized.
+ */
+public class RequestDispatcher {
+  private static final String SESSION_SEGMENT = "/session/";
+
+  private final ThreadPoolExecutor executor;
+  private final int maxQueuedRequests;
+  private final AtomicInteger queuedRequests = new AtomicInteger();
+  private final Map<String, SessionLane> lanes = new HashMap<String, SessionLane>();
+
+  public RequestDispatcher(int threads, int maxQueuedRequests) {
+    this.maxQueuedRequests = maxQueuedRequests;
+    this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new DispatcherThreadFactory());
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Schedules the command for execution.
+   *
+   * @return {@code false} if the queue limit is reached and the command was not accepted.
+   */
+  public boolean dispatch(String uri, final Runnable command) {
+    int queued = queuedRequests.incrementAndGet();
+    if (maxQueuedRequests > 0 && queued > maxQueuedRequests) {
+      queuedRequests.decrementAndGet();
+      return false;
+    }
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        queuedRequests.decrementAndGet();
+        command.run();
+      }
+    };
+
+    String sessionId = extractSessionId(uri);
+    if (sessionId == null) {
+      executor.execute(task);
+      return true;
+    }
+    synchronized (lanes) {
+      SessionLane lane = lanes.get(sessionId);
+      if (lane == null) {
+        lane = new SessionLane(sessionId);
+        lanes.put(sessionId, lane);
+      }
+      lane.tasks.add(task);
+      if (!lane.scheduled) {
+        lane.scheduled = true;
+        executor.execute(lane);
+      }
+    }
+    return true;
+  }
+
+  public int getQueuedRequests() {
+    return queuedRequests.get();
+  }
+
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Returns the session id of WebDriver style URIs, e.g. {@code /wd/hub/session/:sessionId/...}.
+   */
+  static String extractSessionId(String uri) {
+    if (uri == null) {
+      return null;
+    }
+    int index = uri.indexOf(SESSION_SEGMENT);
+    if (index == -1) {
+      return null;
+    }
+    int start = index + SESSION_SEGMENT.length();
+    int end = start;
+    while (end < uri.length() && uri.charAt(end) != '/' && uri.charAt(end) != '?') {
+      end++;
+    }
+    return end > start ? uri.substring(start, end) : null;
+  }
+
+  /**
+   * Runs one command of a session per scheduling, so a busy session does not hog a worker.
+   */
+  private class SessionLane implements Runnable {
+    private final String sessionId;
+    private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+    private boolean scheduled = false;
+
+    SessionLane(String sessionId) {
+      this.sessionId = sessionId;
+    }
+
+    @Override
+    public void run() {
+      Runnable task;
+      synchronized (lanes) {
+        task = tasks.poll();
+      }
+      try {
+        if (task != null) {
+          task.run();
+        }
+      } finally {
+        synchronized (lanes) {
+          if (tasks.isEmpty()) {
+            scheduled = false;
+            lanes.remove(sessionId);
+          } else {
+            executor.execute(this);
+          }
+        }
+      }
+    }
+  }
+
+  private static class DispatcherThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "selendroid-command-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.server.common.http;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.JdkZlibDecoder;
+import io.netty.handler.codec.compression.ZlibWrapper;
+import io.netty.handler.codec.http.HttpContentDecompressor;
+
+/**
+ * Inflates gzip and deflate encoded request bodies. Netty's HttpContentDecompressor needs the
+ * JZlib library, which neither server ships, so this one uses the JDK's zlib instead.
+ */
+class RequestInflater extends HttpContentDecompressor {
+  @Override
+  protected EmbeddedChannel newContentDecoder(String contentEncoding) throws Exception {
+    if ("gzip".equalsIgnoreCase(contentEncoding) || "x-gzip".equalsIgnoreCase(contentEncoding)) {
+      return new EmbeddedChannel(new JdkZlibDecoder(ZlibWrapper.GZIP));
+    }
+    if ("deflate".equalsIgnoreCase(contentEncoding)
+        || "x-deflate".equalsIgnoreCase(contentEncoding)) {
+      return new EmbeddedChannel(new JdkZlibDecoder(ZlibWrapper.ZLIB));
+    }
+    // Any other encoding is passed on unchanged.
+    return null;
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.server.common.http;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.JdkZlibEncoder;
+import io.netty.handler.codec.compression.ZlibWrapper;
+import io.netty.handler.codec.http.HttpContentCompressor;
+import io.netty.handler.codec.http.HttpHeaders;
+
+/**
+ * Compresses responses with gzip or deflate, depending on the Accept-Encoding of the request.
+ * Small responses like command status replies are sent as they are.
+ *
+ * Netty's HttpContentCompressor picks the JZlib encoder on Java 6 and Android, and neither server
+ * ships JZlib, so the JDK's zlib is used instead.
+ */
+class ResponseCompressor extends HttpContentCompressor {
+  private final int compressionLevel;
+  private final int minSize;
+
+  ResponseCompressor(int compressionLevel, int minSize) {
+    super(compressionLevel);
+    this.compressionLevel = compressionLevel;
+    this.minSize = minSize;
+  }
+
+  @Override
+  protected Result beginEncode(io.netty.handler.codec.http.HttpResponse headers,
+      String acceptEncoding) throws Exception {
+    long contentLength = HttpHeaders.getContentLength(headers, -1);
+    if (contentLength >= 0 && contentLength < minSize) {
+      return null;
+    }
+    String contentEncoding = headers.headers().get(HttpHeaders.Names.CONTENT_ENCODING);
+    if (contentEncoding != null
+        && !HttpHeaders.Values.IDENTITY.equalsIgnoreCase(contentEncoding)) {
+      // already encoded
+      return null;
+    }
+    ZlibWrapper wrapper = determineWrapper(acceptEncoding);
+    if (wrapper == null) {
+      return null;
+    }
+    String targetContentEncoding =
+        wrapper == ZlibWrapper.GZIP ? HttpHeaders.Values.GZIP : HttpHeaders.Values.DEFLATE;
+    return new Result(targetContentEncoding,
+        new EmbeddedChannel(new JdkZlibEncoder(wrapper, compressionLevel)));
+  }
+}
@@ -14,6 +14,7 @@
 package io.selendroid.server.common.http;
 
 import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpResponseStatus.SERVICE_UNAVAILABLE;
 import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
@@ -21,19 +22,61 @@ import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.ReferenceCountUtil;
 import io.selendroid.server.common.http.impl.NettyHttpRequest;
 import io.selendroid.server.common.http.impl.NettyHttpResponse;
 
+import java.util.ArrayDeque;
 import java.util.List;
+import java.util.Queue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Dispatches requests to the registered servlets. One instance is created per connection, so the
+ * keep-alive bookkeeping below is per connection.
+ * <p>
+ * Without a {@link RequestDispatcher} requests are handled on the channel's event loop. With a
+ * dispatcher the servlets run on its command threads. Servlets may also suspend the response and
+ * end it later from another thread. A connection has at most one request in flight and further
+ * pipelined requests wait in {@link #pendingRequests}, which keeps the responses in request
+ * order.
+ */
 public class ServerHandler extends ChannelInboundHandlerAdapter {
   private final static Logger LOGGER = Logger.getLogger(ServerHandler.class.getName());
   private List<HttpServlet> httpHandlers;
+  private final HttpServerConfig config;
+  private final RequestDispatcher dispatcher;
+  private final TrafficMetrics metrics;
+  private final Queue<FullHttpRequest> pendingRequests = new ArrayDeque<FullHttpRequest>();
+  private int handledRequests = 0;
+  private boolean closing = false;
+  private boolean requestInFlight = false;
 
   public ServerHandler(List<HttpServlet> handlers) {
+    this(handlers, new HttpServerConfig());
+  }
+
+  public ServerHandler(List<HttpServlet> handlers, HttpServerConfig config) {
+    this(handlers, config, null);
+  }
+
+  public ServerHandler(List<HttpServlet> handlers, HttpServerConfig config,
+      RequestDispatcher dispatcher) {
+    this(handlers, config, dispatcher, null);
+  }
+
+  /**
+   * @param metrics records the traffic and latency of every request, may be {@code null}
+   */
+  public ServerHandler(List<HttpServlet> handlers, HttpServerConfig config,
+      RequestDispatcher dispatcher, TrafficMetrics metrics) {
     this.httpHandlers = handlers;
+    this.config = config;
+    this.dispatcher = dispatcher;
+    this.metrics = metrics;
   }
 
   @Override
@@ -41,28 +84,169 @@ public class ServerHandler extends ChannelInboundHandlerAdapter {
     if (!(msg instanceof FullHttpRequest)) {
       return;
     }
+    if (closing) {
+      // A pipelined request arrived after we decided to close the connection, drop it.
+      ReferenceCountUtil.release(msg);
+      return;
+    }
 
     FullHttpRequest request = (FullHttpRequest) msg;
-    FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, OK);
-    response.headers().add("Connection", "close");
+    if (requestInFlight) {
+      pendingRequests.add(request);
+    } else {
+      handle(ctx, request);
+    }
+  }
+
+  private void handle(final ChannelHandlerContext ctx, final FullHttpRequest request) {
+    requestInFlight = true;
+    final boolean keepAlive = HttpHeaders.isKeepAlive(request);
+    if (dispatcher == null) {
+      service(ctx, request, keepAlive);
+      return;
+    }
+
+    ctx.channel().config().setAutoRead(false);
+    boolean accepted = dispatcher.dispatch(request.getUri(), new Runnable() {
+      @Override
+      public void run() {
+        service(ctx, request, keepAlive);
+      }
+    });
+
+    if (!accepted) {
+      ReferenceCountUtil.release(request);
+      FullHttpResponse busy = new DefaultFullHttpResponse(HTTP_1_1, SERVICE_UNAVAILABLE);
+      busy.headers().set(HttpHeaders.Names.RETRY_AFTER, config.getRetryAfterSeconds());
+      writeResponse(ctx, busy, keepAlive);
+      ctx.flush();
+      requestCompleted(ctx);
+    }
+  }
+
+  /**
+   * Runs the servlets and writes the response once it has been ended, which is right after the
+   * servlets returned unless one of them suspended it. The request is released then as well.
+   */
+  private void service(final ChannelHandlerContext ctx, final FullHttpRequest request,
+      final boolean keepAlive) {
+    // The body is written straight into a buffer of the channel's (pooled) allocator, it is
+    // released once the response has been written to the socket.
+    final FullHttpResponse response =
+        new DefaultFullHttpResponse(HTTP_1_1, OK, ctx.alloc().buffer());
 
-    HttpRequest httpRequest = new NettyHttpRequest(request);
-    HttpResponse httpResponse = new NettyHttpResponse(response);
+    final HttpRequest httpRequest = new NettyHttpRequest(request);
+    final NettyHttpResponse httpResponse = new NettyHttpResponse(response);
+    final long start = System.nanoTime();
 
-    for (HttpServlet handler : httpHandlers) {
-      handler.handleHttpRequest(httpRequest, httpResponse);
-      if (httpResponse.isClosed()) {
-        break;
+    try {
+      for (HttpServlet handler : httpHandlers) {
+        handler.handleHttpRequest(httpRequest, httpResponse);
+        if (httpResponse.isClosed() || httpResponse.isSuspended()) {
+          break;
+        }
       }
+    } catch (Throwable e) {
+      LOGGER.log(Level.SEVERE, "Error handling request", e);
+      response.release();
+      record(httpRequest, request, 0, start, 500);
+      ReferenceCountUtil.release(request);
+      complete(ctx, null, keepAlive);
+      return;
     }
 
-    if (!httpResponse.isClosed()) {
+    if (httpResponse.isSuspended()) {
+      // Don't read further requests of this connection while the response is outstanding.
+      ctx.channel().config().setAutoRead(false);
+    } else if (!httpResponse.isClosed()) {
       httpResponse.setStatus(404);
       httpResponse.end();
     }
+    httpResponse.onEnd(new Runnable() {
+      @Override
+      public void run() {
+        record(httpRequest, request, response.content().readableBytes(), start,
+            response.getStatus().code());
+        ReferenceCountUtil.release(request);
+        complete(ctx, response, keepAlive);
+      }
+    });
+  }
 
-    ctx.write(response).addListener(ChannelFutureListener.CLOSE);
-    super.channelRead(ctx, msg);
+  private void record(HttpRequest httpRequest, FullHttpRequest request, long bytesOut, long start,
+      int status) {
+    if (metrics == null) {
+      return;
+    }
+    metrics.record(request.getMethod().name(),
+        (String) httpRequest.data().get(TrafficMetrics.ROUTE_KEY),
+        RequestDispatcher.extractSessionId(request.getUri()),
+        request.content().readableBytes(), bytesOut, System.nanoTime() - start, status);
+  }
+
+  /**
+   * Writes the response on the channel's event loop, a {@code null} response closes the
+   * connection.
+   */
+  private void complete(final ChannelHandlerContext ctx, final FullHttpResponse response,
+      final boolean keepAlive) {
+    if (!ctx.executor().inEventLoop()) {
+      ctx.executor().execute(new Runnable() {
+        @Override
+        public void run() {
+          complete(ctx, response, keepAlive);
+        }
+      });
+      return;
+    }
+    if (response == null) {
+      ctx.close();
+    } else {
+      writeResponse(ctx, response, keepAlive);
+      ctx.flush();
+    }
+    requestCompleted(ctx);
+  }
+
+  private void requestCompleted(ChannelHandlerContext ctx) {
+    requestInFlight = false;
+    FullHttpRequest next = closing ? null : pendingRequests.poll();
+    if (next != null) {
+      handle(ctx, next);
+    } else {
+      releasePendingRequests();
+      ctx.channel().config().setAutoRead(true);
+    }
+  }
+
+  private void releasePendingRequests() {
+    FullHttpRequest pending;
+    while ((pending = pendingRequests.poll()) != null) {
+      ReferenceCountUtil.release(pending);
+    }
+  }
+
+  private void writeResponse(ChannelHandlerContext ctx, FullHttpResponse response,
+      boolean clientKeepAlive) {
+    handledRequests++;
+    boolean keepAlive = clientKeepAlive && !maxRequestsReached();
+    HttpHeaders.setContentLength(response, response.content().readableBytes());
+    if (keepAlive) {
+      response.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+      if (config.getKeepAliveTimeoutSeconds() > 0) {
+        response.headers().set("Keep-Alive", "timeout=" + config.getKeepAliveTimeoutSeconds());
+      }
+      ctx.write(response);
+    } else {
+      closing = true;
+      response.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.CLOSE);
+      ctx.write(response).addListener(ChannelFutureListener.CLOSE);
+    }
+  }
+
+  private boolean maxRequestsReached() {
+    return config.getMaxRequestsPerConnection() > 0
+        && handledRequests >= config.getMaxRequestsPerConnection();
   }
 
   @Override
@@ -71,6 +255,25 @@ public class ServerHandler extends ChannelInboundHandlerAdapter {
     ctx.fireChannelReadComplete();
   }
 
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+    releasePendingRequests();
+    super.channelInactive(ctx);
+  }
+
+  @Override
+  public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+    if (evt instanceof IdleStateEvent) {
+      // Slow commands like session creation must not be cut off by the keep-alive timeout.
+      if (!requestInFlight) {
+        LOGGER.fine("Closing idle connection " + ctx.channel());
+        ctx.close();
+      }
+      return;
+    }
+    super.userEventTriggered(ctx, evt);
+  }
+
   @Override
   public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
     LOGGER.log(Level.SEVERE, "Error handling request", cause);
@@ -16,25 +16,46 @@ package io.selendroid.server.common.http;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.timeout.IdleStateHandler;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class ServerInitializer extends ChannelInitializer<SocketChannel> {
 
   private final List<HttpServlet> handlers;
+  private final HttpServerConfig config;
+  private final RequestDispatcher dispatcher;
+  private final TrafficMetrics metrics;
 
   public ServerInitializer(List<HttpServlet> handlers) {
+    this(handlers, new HttpServerConfig(), null, null);
+  }
+
+  public ServerInitializer(List<HttpServlet> handlers, HttpServerConfig config,
+      RequestDispatcher dispatcher, TrafficMetrics metrics) {
     this.handlers = handlers;
+    this.config = config;
+    this.dispatcher = dispatcher;
+    this.metrics = metrics;
   }
 
   @Override
   public void initChannel(SocketChannel ch) throws Exception {
     ChannelPipeline pipeline = ch.pipeline();
+    if (config.getKeepAliveTimeoutSeconds() > 0) {
+      pipeline.addLast("idle",
+          new IdleStateHandler(0, 0, config.getKeepAliveTimeoutSeconds(), TimeUnit.SECONDS));
+    }
     pipeline.addLast("codec", new HttpServerCodec());
-    pipeline.addLast("aggregator", new HttpObjectAggregator(65536));
-    pipeline.addLast("shaper", TrafficCounter.getShaper());
-    pipeline.addLast("handler", new ServerHandler(handlers));
+    pipeline.addLast("inflater", new RequestInflater());
+    pipeline.addLast("aggregator", new RequestAggregator(config.getMaxContentLength(),
+        config.getRequestSpoolThreshold(), config.getSpoolDirectory()));
+    if (config.getCompressionLevel() > 0) {
+      pipeline.addLast("compressor",
+          new ResponseCompressor(config.getCompressionLevel(), config.getCompressionMinSize()));
+    }
+    pipeline.addLast("handler", new ServerHandler(handlers, config, dispatcher, metrics));
   }
 }
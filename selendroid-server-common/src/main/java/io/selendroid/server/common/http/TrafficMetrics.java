@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.server.common.http;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Traffic and latency statistics of an {@link HttpServer}, per route template (e.g.
+ * {@code POST /wd/hub/session/:sessionId/element}) and per session, plus named counters the
+ * servlets may add. Recording a request only updates counters, nothing is logged or formatted
+ * until the statistics are queried.
+ */
+public class TrafficMetrics {
+  /**
+   * Request data key under which servlets store the template of the route that handled the
+   * request. Requests without it are accounted as {@link #UNROUTED}.
+   */
+  public static final String ROUTE_KEY = "ROUTE_KEY";
+  static final String UNROUTED = "(unrouted)";
+  /**
+   * Statistics of the oldest sessions are dropped beyond this, so long running servers don't
+   * accumulate them forever.
+   */
+  private static final int MAX_SESSIONS = 500;
+
+  private final ConcurrentHashMap<String, TrafficStats> routes =
+      new ConcurrentHashMap<String, TrafficStats>();
+  private final ConcurrentHashMap<String, TrafficStats> sessions =
+      new ConcurrentHashMap<String, TrafficStats>();
+  private final Queue<String> sessionOrder = new ConcurrentLinkedQueue<String>();
+  private final TrafficStats total = new TrafficStats();
+  private final ConcurrentHashMap<String, AtomicLong> counters =
+      new ConcurrentHashMap<String, AtomicLong>();
+
+  /**
+   * @param route the route template, or {@code null} if no route matched
+   * @param sessionId the session the request belongs to, or {@code null}
+   */
+  public void record(String method, String route, String sessionId, long bytesIn, long bytesOut,
+      long latencyNanos, int status) {
+    String key = method + " " + (route == null ? UNROUTED : route);
+    statsOf(routes, key).record(bytesIn, bytesOut, latencyNanos, status);
+    if (sessionId != null) {
+      TrafficStats stats = sessions.get(sessionId);
+      if (stats == null) {
+        stats = newSession(sessionId);
+      }
+      stats.record(bytesIn, bytesOut, latencyNanos, status);
+    }
+    total.record(bytesIn, bytesOut, latencyNanos, status);
+  }
+
+  private static TrafficStats statsOf(ConcurrentHashMap<String, TrafficStats> map, String key) {
+    TrafficStats stats = map.get(key);
+    if (stats == null) {
+      TrafficStats created = new TrafficStats();
+      stats = map.putIfAbsent(key, created);
+      if (stats == null) {
+        stats = created;
+      }
+    }
+    return stats;
+  }
+
+  private TrafficStats newSession(String sessionId) {
+    TrafficStats created = new TrafficStats();
+    TrafficStats stats = sessions.putIfAbsent(sessionId, created);
+    if (stats != null) {
+      return stats;
+    }
+    sessionOrder.add(sessionId);
+    while (sessions.size() > MAX_SESSIONS) {
+      String oldest = sessionOrder.poll();
+      if (oldest == null) {
+        break;
+      }
+      sessions.remove(oldest);
+    }
+    return created;
+  }
+
+  /**
+   * Returns the counter of the given name, creating it at 0 if needed. The counters are served
+   * along with the traffic statistics.
+   */
+  public AtomicLong counter(String name) {
+    AtomicLong counter = counters.get(name);
+    if (counter == null) {
+      AtomicLong created = new AtomicLong();
+      counter = counters.putIfAbsent(name, created);
+      if (counter == null) {
+        counter = created;
+      }
+    }
+    return counter;
+  }
+
+  public Map<String, TrafficStats> getRouteStats() {
+    return Collections.unmodifiableMap(routes);
+  }
+
+  public Map<String, TrafficStats> getSessionStats() {
+    return Collections.unmodifiableMap(sessions);
+  }
+
+  public TrafficStats getTotal() {
+    return total;
+  }
+
+  public JSONObject toJson() throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("total", total.toJson());
+    json.put("routes", toJson(routes));
+    json.put("sessions", toJson(sessions));
+    JSONObject values = new JSONObject();
+    for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+      values.put(entry.getKey(), entry.getValue().get());
+    }
+    json.put("counters", values);
+    return json;
+  }
+
+  private static JSONObject toJson(Map<String, TrafficStats> stats) throws JSONException {
+    JSONObject json = new JSONObject();
+    for (Map.Entry<String, TrafficStats> entry : stats.entrySet()) {
+      json.put(entry.getKey(), entry.getValue().toJson());
+    }
+    return json;
+  }
+}
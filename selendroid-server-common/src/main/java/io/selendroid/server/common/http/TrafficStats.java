@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.server.common.http;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Request count, body bytes and handler latency of one route or session. Updates are lock-free,
+ * reads are not atomic across fields, which is fine for monitoring.
+ */
+public class TrafficStats {
+  /**
+   * Upper bounds of the latency histogram buckets in milliseconds, the last bucket is unbounded.
+   */
+  static final long[] LATENCY_BUCKETS_MS =
+      {1, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000};
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong errors = new AtomicLong();
+  private final AtomicLong bytesIn = new AtomicLong();
+  private final AtomicLong bytesOut = new AtomicLong();
+  private final AtomicLong totalLatencyNanos = new AtomicLong();
+  private final AtomicLong maxLatencyNanos = new AtomicLong();
+  private final AtomicLongArray latencyBuckets =
+      new AtomicLongArray(LATENCY_BUCKETS_MS.length + 1);
+
+  void record(long requestBytes, long responseBytes, long latencyNanos, int status) {
+    requests.incrementAndGet();
+    if (status >= 500) {
+      errors.incrementAndGet();
+    }
+    bytesIn.addAndGet(requestBytes);
+    bytesOut.addAndGet(responseBytes);
+    totalLatencyNanos.addAndGet(latencyNanos);
+    long max;
+    while (latencyNanos > (max = maxLatencyNanos.get())
+        && !maxLatencyNanos.compareAndSet(max, latencyNanos)) {
+      // retry, another thread recorded a new maximum
+    }
+    latencyBuckets.incrementAndGet(bucketOf(TimeUnit.NANOSECONDS.toMillis(latencyNanos)));
+  }
+
+  static int bucketOf(long latencyMs) {
+    for (int i = 0; i < LATENCY_BUCKETS_MS.length; i++) {
+      if (latencyMs <= LATENCY_BUCKETS_MS[i]) {
+        return i;
+      }
+    }
+    return LATENCY_BUCKETS_MS.length;
+  }
+
+  public long getRequests() {
+    return requests.get();
+  }
+
+  public long getErrors() {
+    return errors.get();
+  }
+
+  public long getBytesIn() {
+    return bytesIn.get();
+  }
+
+  public long getBytesOut() {
+    return bytesOut.get();
+  }
+
+  public long getTotalLatencyNanos() {
+    return totalLatencyNanos.get();
+  }
+
+  public long getMaxLatencyNanos() {
+    return maxLatencyNanos.get();
+  }
+
+  /**
+   * @return the number of requests per latency bucket, see {@link #LATENCY_BUCKETS_MS}
+   */
+  public long[] getLatencyBuckets() {
+    long[] buckets = new long[latencyBuckets.length()];
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = latencyBuckets.get(i);
+    }
+    return buckets;
+  }
+
+  public JSONObject toJson() throws JSONException {
+    long count = getRequests();
+    JSONObject json = new JSONObject();
+    json.put("requests", count);
+    json.put("errors", getErrors());
+    json.put("bytesIn", getBytesIn());
+    json.put("bytesOut", getBytesOut());
+    json.put("averageLatencyMs",
+        count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(getTotalLatencyNanos() / count));
+    json.put("maxLatencyMs", TimeUnit.NANOSECONDS.toMillis(getMaxLatencyNanos()));
+
+    JSONArray histogram = new JSONArray();
+    long[] buckets = getLatencyBuckets();
+    for (int i = 0; i < buckets.length; i++) {
+      JSONObject bucket = new JSONObject();
+      bucket.put("le", i < LATENCY_BUCKETS_MS.length ? String.valueOf(LATENCY_BUCKETS_MS[i]) : "+Inf");
+      bucket.put("count", buckets[i]);
+      histogram.put(bucket);
+    }
+    json.put("latencyHistogramMs", histogram);
+    return json;
+  }
+}
@@ -13,16 +13,20 @@
  */
 package io.selendroid.server.common.http.impl;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.util.CharsetUtil;
 import io.selendroid.server.common.http.HttpRequest;
 
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 
 public class NettyHttpRequest implements HttpRequest {
   private FullHttpRequest request;
   private Map<String, Object> data;
+  private String body;
 
   public NettyHttpRequest(FullHttpRequest request) {
     this.request = request;
@@ -41,7 +45,20 @@ public class NettyHttpRequest implements HttpRequest {
 
   @Override
   public String body() {
-    return request.content().toString(CharsetUtil.UTF_8);
+    if (body == null) {
+      body = request.content().toString(CharsetUtil.UTF_8);
+    }
+    return body;
+  }
+
+  @Override
+  public InputStream bodyStream() {
+    return new ByteBufInputStream(request.content().duplicate());
+  }
+
+  @Override
+  public ByteBuf content() {
+    return request.content();
   }
 
   @Override
@@ -13,6 +13,7 @@
  */
 package io.selendroid.server.common.http.impl;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.util.CharsetUtil;
@@ -23,12 +24,13 @@ import java.nio.charset.Charset;
 public class NettyHttpResponse implements HttpResponse {
 
   private final FullHttpResponse response;
-  private boolean closed = false;
+  private volatile boolean closed = false;
+  private volatile boolean suspended = false;
+  private Runnable endListener;
   private Charset charset = CharsetUtil.UTF_8;
 
   public NettyHttpResponse(FullHttpResponse response) {
     this.response = response;
-    response.headers().add("Content-Encoding", "identity");
   }
 
   public HttpResponse setStatus(int status) {
@@ -42,7 +44,6 @@ public class NettyHttpResponse implements HttpResponse {
   }
 
   public HttpResponse setContent(byte[] data) {
-    response.headers().add("Content-Length", data.length);
     response.content().writeBytes(data);
     return this;
   }
@@ -52,6 +53,11 @@ public class NettyHttpResponse implements HttpResponse {
     return this;
   }
 
+  @Override
+  public ByteBuf content() {
+    return response.content();
+  }
+
   public HttpResponse sendRedirect(String to) {
     setStatus(301);
     response.headers().add("location", to);
@@ -66,13 +72,44 @@ public class NettyHttpResponse implements HttpResponse {
 
   @Override
   public void end() {
-    closed = true;
+    Runnable listener;
+    synchronized (this) {
+      closed = true;
+      listener = endListener;
+      endListener = null;
+    }
+    if (listener != null) {
+      listener.run();
+    }
   }
 
   public boolean isClosed() {
     return closed;
   }
 
+  @Override
+  public void suspend() {
+    suspended = true;
+  }
+
+  public boolean isSuspended() {
+    return suspended;
+  }
+
+  /**
+   * Runs the listener on the thread ending the response, or right away if it has already been
+   * ended.
+   */
+  public void onEnd(Runnable listener) {
+    synchronized (this) {
+      if (!closed) {
+        endListener = listener;
+        return;
+      }
+    }
+    listener.run();
+  }
+
   @Override
   public HttpResponse setEncoding(Charset charset) {
     this.charset = charset;
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2012-2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.server.common;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+import io.selendroid.server.common.http.HttpRequest;
+import io.selendroid.server.common.http.impl.NettyHttpRequest;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class BaseRequestHandlerTest {
+  private final BaseRequestHandler handler = new BaseRequestHandler("/wd/hub/session/:sessionId/url") {
+    @Override
+    public Response handle(HttpRequest request) throws JSONException {
+      return null;
+    }
+  };
+
+  private static HttpRequest post(String body) {
+    return new NettyHttpRequest(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST,
+        "/wd/hub/session/123/url", Unpooled.copiedBuffer(body, CharsetUtil.UTF_8)));
+  }
+
+  @Test
+  public void parsesPayloadOnlyOnce() throws Exception {
+    HttpRequest request = post("{\"url\": \"http://selendroid.io\"}");
+
+    JSONObject payload = handler.getPayload(request);
+    assertEquals("http://selendroid.io", payload.getString("url"));
+    assertSame(payload, handler.getPayload(request));
+    assertSame(payload, request.data().get(BaseServlet.PAYLOAD_KEY));
+  }
+
+  @Test
+  public void returnsEmptyPayloadForEmptyBody() throws Exception {
+    assertEquals(0, handler.getPayload(post("")).length());
+  }
+
+  @Test
+  public void bodyStreamCanBeReadRepeatedly() throws Exception {
+    HttpRequest request = post("{\"value\": [\"ä\"]}");
+    assertEquals("{\"value\": [\"ä\"]}", read(request.bodyStream()));
+    assertEquals("{\"value\": [\"ä\"]}", read(request.bodyStream()));
+    assertSame(request.body(), request.body());
+  }
+
+  private static String read(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[256];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return new String(out.toByteArray(), "UTF-8");
+  }
+}
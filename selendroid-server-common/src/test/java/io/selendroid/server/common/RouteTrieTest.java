@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012-2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.server.common;
+
+import io.selendroid.server.common.http.HttpRequest;
+
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RouteTrieTest {
+  private RouteTrie trie;
+  private BaseRequestHandler session;
+  private BaseRequestHandler element;
+  private BaseRequestHandler activeElement;
+  private BaseRequestHandler attribute;
+  private BaseRequestHandler command;
+
+  private static BaseRequestHandler handler(String mappedUri) {
+    return new BaseRequestHandler(mappedUri) {
+      @Override
+      public Response handle(HttpRequest request) throws JSONException {
+        return null;
+      }
+    };
+  }
+
+  @Before
+  public void setUp() {
+    trie = new RouteTrie();
+    session = add("/wd/hub/session/:sessionId");
+    element = add("/wd/hub/session/:sessionId/element/:id");
+    activeElement = add("/wd/hub/session/:sessionId/element/active");
+    attribute = add("/wd/hub/session/:sessionId/element/:id/attribute/:name");
+    command = add("/wd/hub/session/:sessionId/selendroid/configure/command/:command");
+  }
+
+  private BaseRequestHandler add(String mappedUri) {
+    BaseRequestHandler handler = handler(mappedUri);
+    trie.add(mappedUri, handler);
+    return handler;
+  }
+
+  @Test
+  public void capturesParameters() {
+    Map<String, Object> data = new HashMap<String, Object>();
+    assertSame(attribute, trie.match("/wd/hub/session/s1/element/e1/attribute/value", data));
+    assertEquals("s1", data.get(BaseServlet.SESSION_ID_KEY));
+    assertEquals("e1", data.get(BaseServlet.ELEMENT_ID_KEY));
+    assertEquals("value", data.get(BaseServlet.NAME_ID_KEY));
+
+    data.clear();
+    assertSame(command, trie.match("/wd/hub/session/s1/selendroid/configure/command/click", data));
+    assertEquals("click", data.get(BaseServlet.COMMAND_NAME_KEY));
+  }
+
+  @Test
+  public void prefersLiteralSegments() {
+    Map<String, Object> data = new HashMap<String, Object>();
+    assertSame(activeElement, trie.match("/wd/hub/session/s1/element/active", data));
+    assertEquals("s1", data.get(BaseServlet.SESSION_ID_KEY));
+    assertTrue(!data.containsKey(BaseServlet.ELEMENT_ID_KEY));
+
+    assertSame(element, trie.match("/wd/hub/session/s1/element/e1", null));
+  }
+
+  @Test
+  public void backtracksFromLiteralToParameter() {
+    // "active" is a literal child, but only the parameter route continues with /attribute/:name
+    Map<String, Object> data = new HashMap<String, Object>();
+    assertSame(attribute, trie.match("/wd/hub/session/s1/element/active/attribute/x", data));
+    assertEquals("active", data.get(BaseServlet.ELEMENT_ID_KEY));
+  }
+
+  @Test
+  public void ignoresQueryAndTrailingSlash() {
+    assertSame(session, trie.match("/wd/hub/session/s1/", null));
+    assertSame(session, trie.match("/wd/hub/session/s1?foo=bar/baz", null));
+  }
+
+  @Test
+  public void returnsNullIfNothingMatches() {
+    Map<String, Object> data = new HashMap<String, Object>();
+    assertNull(trie.match("/wd/hub/session", data));
+    assertNull(trie.match("/wd/hub/session/s1/unknown", data));
+    assertNull(trie.match("/wd/hub/session/s1/element/e1/attribute", data));
+    assertNull(trie.match("/", data));
+    assertNull(trie.match(null, data));
+    assertTrue(data.isEmpty());
+  }
+}
@@ -13,12 +13,23 @@
  */
 package io.selendroid.server.common;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class SelendroidResponseTest {
 
@@ -58,4 +69,45 @@ public class SelendroidResponseTest {
     Assert.assertTrue(rendered.getJSONObject("value").getString("message").startsWith(
             String.format("CATCH_ALL: java.lang.RuntimeException%n\tat io.selendroid.server.common.SelendroidResponseTest")));
   }
+
+  @Test
+  public void testRenderToBuffer() throws JSONException {
+    JSONObject value = new JSONObject();
+    value.put("text", "quote \" slash \\ </script> tab\t newline\n \u0001 \u00e4\u20ac\ud83d\ude00");
+    value.put("number", 42);
+    value.put("double", 1.5);
+    value.put("flag", true);
+    value.put("nothing", JSONObject.NULL);
+    value.put("array", new JSONArray().put(1).put("two").put(new JSONObject().put("three", 3)));
+    Map<String, Object> map = new HashMap<String, Object>();
+    map.put("list", Arrays.asList("a", "b"));
+    value.put("map", map);
+    SelendroidResponse response = new SelendroidResponse("my-session", value);
+
+    ByteBuf buffer = Unpooled.buffer(1);
+    response.render(buffer);
+    JSONObject rendered = new JSONObject(buffer.toString(CharsetUtil.UTF_8));
+
+    assertEquals("my-session", rendered.getString("sessionId"));
+    assertEquals(0, rendered.getInt("status"));
+    JSONObject renderedValue = rendered.getJSONObject("value");
+    assertEquals(value.getString("text"), renderedValue.getString("text"));
+    assertEquals(42, renderedValue.getInt("number"));
+    assertEquals(1.5, renderedValue.getDouble("double"), 0);
+    assertTrue(renderedValue.getBoolean("flag"));
+    assertTrue(renderedValue.isNull("nothing"));
+    assertEquals("two", renderedValue.getJSONArray("array").getString(1));
+    assertEquals(3, renderedValue.getJSONArray("array").getJSONObject(2).getInt("three"));
+    assertEquals("b", renderedValue.getJSONObject("map").getJSONArray("list").getString(1));
+    assertFalse(buffer.toString(CharsetUtil.UTF_8).contains("</"));
+  }
+
+  @Test
+  public void testRenderToBufferWithoutSessionAndValue() throws JSONException {
+    ByteBuf buffer = Unpooled.buffer();
+    new SelendroidResponse(null, StatusCode.NO_SUCH_ELEMENT, (Object) null).render(buffer);
+
+    assertEquals("{\"status\":" + StatusCode.NO_SUCH_ELEMENT.getCode() + "}",
+        buffer.toString(CharsetUtil.UTF_8));
+  }
 }
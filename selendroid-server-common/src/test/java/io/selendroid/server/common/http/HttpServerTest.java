@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.server.common.http;
+
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Scanner;
+
+import static org.junit.Assert.assertEquals;
+
+public class HttpServerTest {
+
+  private static String get(HttpServer server, String path) throws Exception {
+    HttpURLConnection connection = (HttpURLConnection)
+        new URL("http://localhost:" + server.getPort() + path).openConnection();
+    assertEquals(200, connection.getResponseCode());
+    InputStream in = connection.getInputStream();
+    try {
+      return new Scanner(in, "UTF-8").useDelimiter("\\A").next();
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void servesRequestsWithTunedTransport() throws Exception {
+    // Falls back to NIO where the native transport is not available.
+    HttpServer server = new HttpServer(0, new HttpServerConfig()
+        .setNativeTransport(true)
+        .setWorkerThreads(2)
+        .setReusePort(true)
+        .setPooledBuffers(true));
+    server.addHandler(new HttpServlet() {
+      @Override
+      public void handleHttpRequest(HttpRequest httpRequest, HttpResponse httpResponse) {
+        httpResponse.setStatus(200).setContent("pong").end();
+      }
+    });
+    server.start();
+    try {
+      assertEquals("pong", get(server, "/ping"));
+    } finally {
+      server.stop();
+    }
+  }
+
+  @Test
+  public void sendsSuspendedResponsesOnceEnded() throws Exception {
+    HttpServer server = new HttpServer(0, new HttpServerConfig().setWorkerThreads(1));
+    server.addHandler(new HttpServlet() {
+      @Override
+      public void handleHttpRequest(HttpRequest httpRequest, final HttpResponse httpResponse) {
+        httpResponse.suspend();
+        new Thread() {
+          @Override
+          public void run() {
+            httpResponse.setStatus(200).setContent("later").end();
+          }
+        }.start();
+      }
+    });
+    server.start();
+    try {
+      assertEquals("later", get(server, "/async"));
+      assertEquals("later", get(server, "/async"));
+    } finally {
+      server.stop();
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.server.common.http;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class RequestAggregatorTest {
+  private File spoolDirectory;
+
+  @Before
+  public void createSpoolDirectory() throws IOException {
+    spoolDirectory = File.createTempFile("spool", "");
+    spoolDirectory.delete();
+    spoolDirectory.mkdir();
+  }
+
+  @After
+  public void deleteSpoolDirectory() {
+    File[] files = spoolDirectory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    spoolDirectory.delete();
+  }
+
+  private static HttpRequest post() {
+    HttpRequest request =
+        new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/wd/hub/session/1/execute");
+    HttpHeaders.setTransferEncodingChunked(request);
+    return request;
+  }
+
+  private static DefaultHttpContent chunk(String content) {
+    return new DefaultHttpContent(Unpooled.copiedBuffer(content, CharsetUtil.UTF_8));
+  }
+
+  private static DefaultLastHttpContent lastChunk(String content) {
+    return new DefaultLastHttpContent(Unpooled.copiedBuffer(content, CharsetUtil.UTF_8));
+  }
+
+  @Test
+  public void aggregatesSmallBodiesInMemory() {
+    EmbeddedChannel channel = new EmbeddedChannel(new RequestAggregator(1024, 100, spoolDirectory));
+    channel.writeInbound(post(), chunk("{\"script\":"), lastChunk("\"return 1\"}"));
+
+    FullHttpRequest request = (FullHttpRequest) channel.readInbound();
+    assertEquals("{\"script\":\"return 1\"}", request.content().toString(CharsetUtil.UTF_8));
+    assertEquals(21, HttpHeaders.getContentLength(request));
+    assertFalse(HttpHeaders.isTransferEncodingChunked(request));
+    assertEquals(0, spoolDirectory.list().length);
+    request.release();
+  }
+
+  @Test
+  public void spoolsLargeBodiesToDisk() {
+    EmbeddedChannel channel = new EmbeddedChannel(new RequestAggregator(1024, 16, spoolDirectory));
+    StringBuilder expected = new StringBuilder();
+    channel.writeInbound(post());
+    for (int i = 0; i < 10; i++) {
+      String part = "0123456789-" + i + ";";
+      expected.append(part);
+      channel.writeInbound(chunk(part));
+      if (i == 5) {
+        assertEquals(1, spoolDirectory.list().length);
+      }
+    }
+    channel.writeInbound(lastChunk("end"));
+    expected.append("end");
+
+    FullHttpRequest request = (FullHttpRequest) channel.readInbound();
+    assertEquals(expected.toString(), request.content().toString(CharsetUtil.UTF_8));
+    assertEquals(expected.length(), HttpHeaders.getContentLength(request));
+    assertEquals(0, spoolDirectory.list().length);
+    request.release();
+  }
+
+  @Test
+  public void rejectsRequestsDeclaringTooLargeBodies() {
+    EmbeddedChannel channel = new EmbeddedChannel(new RequestAggregator(10, 5, spoolDirectory));
+    HttpRequest request =
+        new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/wd/hub/session");
+    HttpHeaders.setContentLength(request, 11);
+    channel.writeInbound(request, lastChunk("01234567890"));
+
+    assertNull(channel.readInbound());
+    FullHttpResponse response = (FullHttpResponse) channel.readOutbound();
+    assertEquals(413, response.getStatus().code());
+    assertFalse(channel.isOpen());
+  }
+
+  @Test
+  public void rejectsChunkedBodiesGrowingTooLarge() {
+    EmbeddedChannel channel = new EmbeddedChannel(new RequestAggregator(10, 5, spoolDirectory));
+    channel.writeInbound(post(), chunk("012345"), chunk("678901"), lastChunk(""));
+
+    assertNull(channel.readInbound());
+    FullHttpResponse response = (FullHttpResponse) channel.readOutbound();
+    assertEquals(413, response.getStatus().code());
+    assertFalse(channel.isOpen());
+    assertEquals(0, spoolDirectory.list().length);
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.server.common.http;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RequestDispatcherTest {
+  private RequestDispatcher dispatcher;
+
+  @After
+  public void shutdown() {
+    if (dispatcher != null) {
+      dispatcher.shutdown();
+    }
+  }
+
+  @Test
+  public void extractsSessionIdFromUri() {
+    assertEquals("123", RequestDispatcher.extractSessionId("/wd/hub/session/123/element"));
+    assertEquals("123", RequestDispatcher.extractSessionId("/wd/hub/session/123"));
+    assertEquals("123", RequestDispatcher.extractSessionId("/inspector/session/123/tree"));
+    assertEquals("123", RequestDispatcher.extractSessionId("/wd/hub/session/123?x=y"));
+    assertNull(RequestDispatcher.extractSessionId("/wd/hub/session"));
+    assertNull(RequestDispatcher.extractSessionId("/wd/hub/sessions"));
+    assertNull(RequestDispatcher.extractSessionId("/wd/hub/status"));
+  }
+
+  @Test
+  public void runsCommandsOfOneSessionInOrder() throws Exception {
+    dispatcher = new RequestDispatcher(4, 0);
+    final List<Integer> executed = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch done = new CountDownLatch(50);
+    for (int i = 0; i < 50; i++) {
+      final int index = i;
+      dispatcher.dispatch("/wd/hub/session/a/click", new Runnable() {
+        @Override
+        public void run() {
+          executed.add(index);
+          done.countDown();
+        }
+      });
+    }
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    for (int i = 0; i < 50; i++) {
+      assertEquals(Integer.valueOf(i), executed.get(i));
+    }
+  }
+
+  @Test
+  public void slowSessionDoesNotBlockOtherSessions() throws Exception {
+    dispatcher = new RequestDispatcher(2, 0);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch otherDone = new CountDownLatch(1);
+    dispatcher.dispatch("/wd/hub/session/slow/url", new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    dispatcher.dispatch("/wd/hub/session/fast/url", new Runnable() {
+      @Override
+      public void run() {
+        otherDone.countDown();
+      }
+    });
+    assertTrue(otherDone.await(5, TimeUnit.SECONDS));
+    release.countDown();
+  }
+
+  @Test
+  public void rejectsCommandsWhenQueueIsFull() throws Exception {
+    dispatcher = new RequestDispatcher(1, 2);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger executed = new AtomicInteger();
+    Runnable blocking = new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    Runnable counting = new Runnable() {
+      @Override
+      public void run() {
+        executed.incrementAndGet();
+      }
+    };
+    assertTrue(dispatcher.dispatch("/wd/hub/status", blocking));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    assertTrue(dispatcher.dispatch("/wd/hub/status", counting));
+    assertTrue(dispatcher.dispatch("/wd/hub/status", counting));
+    assertFalse(dispatcher.dispatch("/wd/hub/status", counting));
+    assertEquals(2, dispatcher.getQueuedRequests());
+    release.countDown();
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.server.common.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class RequestInflaterTest {
+  private static final String PAYLOAD = "{\"script\":\"return document.title\",\"args\":[]}";
+
+  private static String inflate(String encoding, byte[] body) {
+    EmbeddedChannel channel = new EmbeddedChannel(new RequestInflater(),
+        new HttpObjectAggregator(1024));
+    // Split like the HttpServerCodec does.
+    HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST,
+        "/wd/hub/session/1/execute");
+    request.headers().set(HttpHeaders.Names.CONTENT_ENCODING, encoding);
+    HttpHeaders.setContentLength(request, body.length);
+    channel.writeInbound(request, new DefaultLastHttpContent(Unpooled.wrappedBuffer(body)));
+
+    FullHttpRequest inflated = (FullHttpRequest) channel.readInbound();
+    assertFalse(inflated.headers().contains(HttpHeaders.Names.CONTENT_ENCODING));
+    ByteBuf content = inflated.content();
+    try {
+      return content.toString(CharsetUtil.UTF_8);
+    } finally {
+      inflated.release();
+    }
+  }
+
+  @Test
+  public void inflatesGzipBodies() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    GZIPOutputStream out = new GZIPOutputStream(bytes);
+    out.write(PAYLOAD.getBytes("UTF-8"));
+    out.close();
+
+    assertEquals(PAYLOAD, inflate("gzip", bytes.toByteArray()));
+  }
+
+  @Test
+  public void inflatesDeflateBodies() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DeflaterOutputStream out = new DeflaterOutputStream(bytes);
+    out.write(PAYLOAD.getBytes("UTF-8"));
+    out.close();
+
+    assertEquals(PAYLOAD, inflate("deflate", bytes.toByteArray()));
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.server.common.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.JdkZlibEncoder;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpContentEncoder;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResponseCompressorTest {
+  private static final String PAGE_SOURCE;
+
+  static {
+    StringBuilder source = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      source.append("<android.widget.TextView id=\"text").append(i).append("\"/>");
+    }
+    PAGE_SOURCE = source.toString();
+  }
+
+  private static FullHttpRequest get(String acceptEncoding) {
+    FullHttpRequest request =
+        new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/wd/hub/session/1/source");
+    if (acceptEncoding != null) {
+      request.headers().set(HttpHeaders.Names.ACCEPT_ENCODING, acceptEncoding);
+    }
+    return request;
+  }
+
+  private static FullHttpResponse ok(String content) {
+    FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+        HttpResponseStatus.OK, Unpooled.copiedBuffer(content, CharsetUtil.UTF_8));
+    HttpHeaders.setContentLength(response, response.content().readableBytes());
+    return response;
+  }
+
+  @Test
+  public void compressesLargeResponsesWithGzip() throws IOException {
+    EmbeddedChannel channel = new EmbeddedChannel(new ResponseCompressor(6, 1024));
+    channel.writeInbound(get("gzip, deflate"));
+    channel.writeOutbound(ok(PAGE_SOURCE));
+
+    io.netty.handler.codec.http.HttpResponse response =
+        (io.netty.handler.codec.http.HttpResponse) channel.readOutbound();
+    assertEquals("gzip", response.headers().get(HttpHeaders.Names.CONTENT_ENCODING));
+
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    Object message;
+    while ((message = channel.readOutbound()) != null) {
+      ByteBuf content = ((HttpContent) message).content();
+      byte[] bytes = new byte[content.readableBytes()];
+      content.readBytes(bytes);
+      compressed.write(bytes);
+      ((HttpContent) message).release();
+    }
+    assertTrue(compressed.size() < PAGE_SOURCE.length() / 4);
+    assertEquals(PAGE_SOURCE, gunzip(compressed.toByteArray()));
+  }
+
+  @Test
+  public void sendsSmallResponsesUncompressed() {
+    EmbeddedChannel channel = new EmbeddedChannel(new ResponseCompressor(6, 1024));
+    channel.writeInbound(get("gzip"));
+    channel.writeOutbound(ok("{\"status\":0}"));
+
+    FullHttpResponse response = (FullHttpResponse) channel.readOutbound();
+    assertNull(response.headers().get(HttpHeaders.Names.CONTENT_ENCODING));
+    assertEquals("{\"status\":0}", response.content().toString(CharsetUtil.UTF_8));
+  }
+
+  @Test
+  public void sendsResponsesUncompressedIfClientDoesNotAcceptEncoding() {
+    EmbeddedChannel channel = new EmbeddedChannel(new ResponseCompressor(6, 1024));
+    channel.writeInbound(get(null));
+    channel.writeOutbound(ok(PAGE_SOURCE));
+
+    Object response = channel.readOutbound();
+    assertFalse(((io.netty.handler.codec.http.HttpResponse) response).headers()
+        .contains(HttpHeaders.Names.CONTENT_ENCODING));
+    Object next = channel.readOutbound();
+    assertTrue(next == null || next instanceof LastHttpContent);
+  }
+
+  @Test
+  public void compressesWithTheJdkZlib() throws Exception {
+    HttpContentEncoder.Result result =
+        new ResponseCompressor(6, 1024).beginEncode(ok(PAGE_SOURCE), "deflate");
+
+    assertEquals("deflate", result.targetContentEncoding());
+    assertTrue(result.contentEncoder().pipeline().first() instanceof JdkZlibEncoder);
+  }
+
+  private static String gunzip(byte[] compressed) throws IOException {
+    GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return new String(out.toByteArray(), "UTF-8");
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.server.common.http;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ServerHandlerTest {
+
+  private static List<HttpServlet> echoServlet() {
+    List<HttpServlet> servlets = new ArrayList<HttpServlet>();
+    servlets.add(new HttpServlet() {
+      @Override
+      public void handleHttpRequest(HttpRequest httpRequest, HttpResponse httpResponse) {
+        if (httpRequest.uri().startsWith("/echo")) {
+          httpResponse.setStatus(200).setContent(httpRequest.uri()).end();
+        }
+      }
+    });
+    return servlets;
+  }
+
+  private static FullHttpRequest get(String uri) {
+    return new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+  }
+
+  @Test
+  public void keepsConnectionOpenForHttp11Requests() {
+    EmbeddedChannel channel =
+        new EmbeddedChannel(new ServerHandler(echoServlet(), new HttpServerConfig()));
+    channel.writeInbound(get("/echo/1"));
+
+    FullHttpResponse response = (FullHttpResponse) channel.readOutbound();
+    assertEquals(200, response.getStatus().code());
+    assertEquals("keep-alive", response.headers().get(HttpHeaders.Names.CONNECTION));
+    assertEquals("7", response.headers().get(HttpHeaders.Names.CONTENT_LENGTH));
+    assertTrue(channel.isOpen());
+  }
+
+  @Test
+  public void answersPipelinedRequestsInOrder() {
+    EmbeddedChannel channel =
+        new EmbeddedChannel(new ServerHandler(echoServlet(), new HttpServerConfig()));
+    channel.writeInbound(get("/echo/1"), get("/echo/2"), get("/unknown"));
+
+    assertEquals("/echo/1", ((FullHttpResponse) channel.readOutbound()).content().toString(CharsetUtil.UTF_8));
+    assertEquals("/echo/2", ((FullHttpResponse) channel.readOutbound()).content().toString(CharsetUtil.UTF_8));
+    FullHttpResponse notFound = (FullHttpResponse) channel.readOutbound();
+    assertEquals(404, notFound.getStatus().code());
+    assertEquals("0", notFound.headers().get(HttpHeaders.Names.CONTENT_LENGTH));
+  }
+
+  @Test
+  public void closesConnectionWhenClientAsksForIt() {
+    EmbeddedChannel channel =
+        new EmbeddedChannel(new ServerHandler(echoServlet(), new HttpServerConfig()));
+    FullHttpRequest request = get("/echo/1");
+    HttpHeaders.setKeepAlive(request, false);
+    channel.writeInbound(request, get("/echo/2"));
+
+    FullHttpResponse response = (FullHttpResponse) channel.readOutbound();
+    assertEquals("close", response.headers().get(HttpHeaders.Names.CONNECTION));
+    assertNull(channel.readOutbound());
+    assertFalse(channel.isOpen());
+  }
+
+  @Test
+  public void closesConnectionAfterMaxRequests() {
+    EmbeddedChannel channel = new EmbeddedChannel(new ServerHandler(echoServlet(),
+        new HttpServerConfig().setMaxRequestsPerConnection(2)));
+    channel.writeInbound(get("/echo/1"), get("/echo/2"));
+
+    FullHttpResponse first = (FullHttpResponse) channel.readOutbound();
+    assertEquals("keep-alive", first.headers().get(HttpHeaders.Names.CONNECTION));
+    FullHttpResponse second = (FullHttpResponse) channel.readOutbound();
+    assertEquals("close", second.headers().get(HttpHeaders.Names.CONNECTION));
+    assertFalse(channel.isOpen());
+  }
+
+  @Test
+  public void answersPipelinedRequestsInOrderWhenDispatchedToCommandThreads() throws Exception {
+    RequestDispatcher dispatcher = new RequestDispatcher(4, 0);
+    try {
+      EmbeddedChannel channel = new EmbeddedChannel(
+          new ServerHandler(echoServlet(), new HttpServerConfig(), dispatcher));
+      channel.writeInbound(get("/echo/1"), get("/echo/2"), get("/echo/3"));
+
+      for (int i = 1; i <= 3; i++) {
+        FullHttpResponse response = awaitResponse(channel);
+        assertEquals("/echo/" + i, response.content().toString(CharsetUtil.UTF_8));
+      }
+      assertTrue(channel.isOpen());
+    } finally {
+      dispatcher.shutdown();
+    }
+  }
+
+  @Test
+  public void answersWithServiceUnavailableWhenQueueIsFull() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    RequestDispatcher dispatcher = new RequestDispatcher(1, 1);
+    try {
+      dispatcher.dispatch("/wd/hub/status", new Runnable() {
+        @Override
+        public void run() {
+          started.countDown();
+          try {
+            release.await(5, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+      assertTrue(started.await(5, TimeUnit.SECONDS));
+      dispatcher.dispatch("/wd/hub/status", new Runnable() {
+        @Override
+        public void run() {}
+      });
+
+      EmbeddedChannel channel = new EmbeddedChannel(new ServerHandler(echoServlet(),
+          new HttpServerConfig().setRetryAfterSeconds(3), dispatcher));
+      channel.writeInbound(get("/echo/1"));
+
+      FullHttpResponse response = (FullHttpResponse) channel.readOutbound();
+      assertEquals(503, response.getStatus().code());
+      assertEquals("3", response.headers().get(HttpHeaders.Names.RETRY_AFTER));
+      assertTrue(channel.isOpen());
+    } finally {
+      release.countDown();
+      dispatcher.shutdown();
+    }
+  }
+
+  private static FullHttpResponse awaitResponse(EmbeddedChannel channel) throws InterruptedException {
+    long end = System.currentTimeMillis() + 5000;
+    while (System.currentTimeMillis() < end) {
+      channel.runPendingTasks();
+      Object response = channel.readOutbound();
+      if (response != null) {
+        return (FullHttpResponse) response;
+      }
+      Thread.sleep(10);
+    }
+    throw new AssertionError("No response received");
+  }
+}
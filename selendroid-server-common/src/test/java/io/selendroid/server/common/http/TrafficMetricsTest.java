@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.server.common.http;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TrafficMetricsTest {
+  private static final String ELEMENT_ROUTE = "/wd/hub/session/:sessionId/element";
+
+  @Test
+  public void recordsPerRouteAndSession() throws JSONException {
+    TrafficMetrics metrics = new TrafficMetrics();
+    metrics.record("POST", ELEMENT_ROUTE, "a", 10, 100, TimeUnit.MILLISECONDS.toNanos(3), 200);
+    metrics.record("POST", ELEMENT_ROUTE, "b", 20, 200, TimeUnit.MILLISECONDS.toNanos(70), 500);
+    metrics.record("GET", null, null, 0, 5, 0, 404);
+
+    TrafficStats element = metrics.getRouteStats().get("POST " + ELEMENT_ROUTE);
+    assertEquals(2, element.getRequests());
+    assertEquals(1, element.getErrors());
+    assertEquals(30, element.getBytesIn());
+    assertEquals(300, element.getBytesOut());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(70), element.getMaxLatencyNanos());
+    assertEquals(1, element.getLatencyBuckets()[TrafficStats.bucketOf(3)]);
+    assertEquals(1, element.getLatencyBuckets()[TrafficStats.bucketOf(70)]);
+
+    assertEquals(1, metrics.getSessionStats().get("a").getRequests());
+    assertEquals(200, metrics.getSessionStats().get("b").getBytesOut());
+    assertEquals(1, metrics.getRouteStats().get("GET " + TrafficMetrics.UNROUTED).getRequests());
+    assertEquals(3, metrics.getTotal().getRequests());
+
+    JSONObject json = metrics.toJson();
+    assertEquals(3, json.getJSONObject("total").getLong("requests"));
+    assertEquals(300, json.getJSONObject("routes").getJSONObject("POST " + ELEMENT_ROUTE)
+        .getLong("bytesOut"));
+    assertEquals(TrafficStats.LATENCY_BUCKETS_MS.length + 1, json.getJSONObject("sessions")
+        .getJSONObject("a").getJSONArray("latencyHistogramMs").length());
+  }
+
+  @Test
+  public void assignsLatenciesToBuckets() {
+    assertEquals(0, TrafficStats.bucketOf(0));
+    assertEquals(0, TrafficStats.bucketOf(1));
+    assertEquals(1, TrafficStats.bucketOf(2));
+    assertEquals(TrafficStats.LATENCY_BUCKETS_MS.length, TrafficStats.bucketOf(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void servesNamedCounters() throws JSONException {
+    TrafficMetrics metrics = new TrafficMetrics();
+    metrics.counter("proxy.retries").incrementAndGet();
+    metrics.counter("proxy.retries").addAndGet(2);
+
+    assertEquals(3, metrics.toJson().getJSONObject("counters").getLong("proxy.retries"));
+  }
+
+  @Test
+  public void dropsOldestSessions() {
+    TrafficMetrics metrics = new TrafficMetrics();
+    for (int i = 0; i < 600; i++) {
+      metrics.record("GET", ELEMENT_ROUTE, "session-" + i, 0, 0, 0, 200);
+    }
+    assertEquals(500, metrics.getSessionStats().size());
+    assertNull(metrics.getSessionStats().get("session-0"));
+    assertEquals(1, metrics.getSessionStats().get("session-599").getRequests());
+  }
+
+  @Test
+  public void serverHandlerRecordsRequests() {
+    List<HttpServlet> servlets = new ArrayList<HttpServlet>();
+    servlets.add(new HttpServlet() {
+      @Override
+      public void handleHttpRequest(HttpRequest httpRequest, HttpResponse httpResponse) {
+        httpRequest.data().put(TrafficMetrics.ROUTE_KEY, ELEMENT_ROUTE);
+        httpResponse.setStatus(200).setContent("{\"status\":0}").end();
+      }
+    });
+    TrafficMetrics metrics = new TrafficMetrics();
+    EmbeddedChannel channel =
+        new EmbeddedChannel(new ServerHandler(servlets, new HttpServerConfig(), null, metrics));
+    channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST,
+        "/wd/hub/session/s1/element", Unpooled.copiedBuffer("{\"using\":\"id\"}", CharsetUtil.UTF_8)));
+
+    TrafficStats session = metrics.getSessionStats().get("s1");
+    assertEquals(1, session.getRequests());
+    assertEquals(14, session.getBytesIn());
+    assertEquals(12, session.getBytesOut());
+    assertEquals(1, metrics.getRouteStats().get("POST " + ELEMENT_ROUTE).getRequests());
+  }
+}
@@ -13,6 +13,7 @@
  */
 package io.selendroid.server;
 
+import io.selendroid.server.common.MetricsServlet;
 import io.selendroid.server.common.StatusServlet;
 import io.selendroid.server.common.http.HttpServer;
 import io.selendroid.server.inspector.InspectorServlet;
@@ -33,6 +34,7 @@ public class AndroidServer {
   protected void init(ServerInstrumentation androidInstrumentation) {
     SelendroidDriver driver = Factories.getSelendroidDriverFactory().createSelendroidDriver(androidInstrumentation);
     webServer.addHandler(new StatusServlet(androidInstrumentation));
+    webServer.addHandler(new MetricsServlet(webServer.getMetrics()));
     webServer.addHandler(new InspectorServlet(driver, androidInstrumentation));
     webServer.addHandler(new AndroidServlet(driver, androidInstrumentation.getExtensionLoader()));
   }
@@ -22,7 +22,6 @@ import io.selendroid.server.common.exceptions.AppCrashedException;
 import io.selendroid.server.common.exceptions.StaleElementReferenceException;
 import io.selendroid.server.common.http.HttpRequest;
 import io.selendroid.server.common.http.HttpResponse;
-import io.selendroid.server.common.http.TrafficCounter;
 import io.selendroid.server.extension.ExtensionLoader;
 import io.selendroid.server.handler.*;
 import io.selendroid.server.handler.alert.Alert;
@@ -142,6 +141,9 @@ public class AndroidServlet extends BaseServlet {
     register(postHandler, new BackgroundApp("/wd/hub/session/:sessionId/selendroid/background"));
     register(postHandler, new ResumeApp("/wd/hub/session/:sessionId/selendroid/resume"));
 
+    // Endpoint the standalone-server resets the app with to reuse the server for the next session
+    register(postHandler, new ResetApp("/wd/hub/session/:sessionId/selendroid/reset"));
+
     // Endpoints to add to and read call logs
     register(postHandler, new AddCallLog("/wd/hub/session/:sessionId/selendroid/addCallLog"));
     register(postHandler, new ReadCallLog("/wd/hub/session/:sessionId/selendroid/readCallLog"));
@@ -214,25 +216,12 @@ public class AndroidServlet extends BaseServlet {
     register(getHandler, new UnknownCommandHandler("/wd/hub/session/:sessionId/log/types"));
   }
 
-  private void addHandlerAttributesToRequest(HttpRequest request, String mappedUri) {
-    String sessionId = getParameter(mappedUri, request.uri(), ":sessionId");
-    if (sessionId != null) {
-      request.data().put(SESSION_ID_KEY, sessionId);
-    }
-
-    String command = getParameter(mappedUri, request.uri(), ":command");
-    if (command != null) {
-      request.data().put(COMMAND_NAME_KEY, command);
-    }
-
-    String id = getParameter(mappedUri, request.uri(), ":id");
+  private void addHandlerAttributesToRequest(HttpRequest request) {
+    // The URI parameters have been stored by findMatcher(), only the element id needs decoding.
+    String id = (String) request.data().get(ELEMENT_ID_KEY);
     if (id != null) {
       request.data().put(ELEMENT_ID_KEY, URLDecoder.decode(id));
     }
-    String name = getParameter(mappedUri, request.uri(), ":name");
-    if (name != null) {
-      request.data().put(NAME_ID_KEY, name);
-    }
 
     request.data().put(DRIVER_KEY, driver);
   }
@@ -248,7 +237,7 @@ public class AndroidServlet extends BaseServlet {
     }
     Response result;
     try {
-      addHandlerAttributesToRequest(request, handler.getMappedUri());
+      addHandlerAttributesToRequest(request);
       if (!handler.commandAllowedWithAlertPresentInWebViewMode()) {
         SelendroidDriver driver =
             (SelendroidDriver) request.data().get(AndroidServlet.DRIVER_KEY);
@@ -265,8 +254,8 @@ public class AndroidServlet extends BaseServlet {
     } catch (StaleElementReferenceException se) {
       try {
         SelendroidLogger.error("StaleElementReferenceException", se);
-        String sessionId = getParameter(handler.getMappedUri(), request.uri(), ":sessionId");
-        result = new SelendroidResponse(sessionId, StatusCode.STALE_ELEMENT_REFERENCE, se);
+        result = new SelendroidResponse(handler.getSessionId(request),
+            StatusCode.STALE_ELEMENT_REFERENCE, se);
       } catch (Exception e) {
         SelendroidLogger.error("Error responding to StaleElementReferenceException", e);
         replyWithServerError(response);
@@ -275,8 +264,8 @@ public class AndroidServlet extends BaseServlet {
     } catch (AppCrashedException ae) {
       try {
         SelendroidLogger.error("App crashed when handling request", ae);
-        String sessionId = getParameter(handler.getMappedUri(), request.uri(), ":sessionId");
-        result = new SelendroidResponse(sessionId, StatusCode.UNKNOWN_ERROR, ae);
+        result = new SelendroidResponse(handler.getSessionId(request),
+            StatusCode.UNKNOWN_ERROR, ae);
       } catch (Exception e) {
         SelendroidLogger.error("Error responding to app crash", e);
         replyWithServerError(response);
@@ -288,10 +277,5 @@ public class AndroidServlet extends BaseServlet {
       return;
     }
     handleResponse(request, response, (SelendroidResponse) result);
-    String trafficStatistics = String.format(
-        "traffic_stats: rx_bytes %d tx_bytes %d",
-        TrafficCounter.readBytes(),
-        TrafficCounter.writtenBytes());
-    SelendroidLogger.info(trafficStatistics);
   }
 }
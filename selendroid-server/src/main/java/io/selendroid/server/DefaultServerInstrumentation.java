@@ -38,6 +38,7 @@ import io.selendroid.server.util.SelendroidLogger;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -250,6 +251,73 @@ public class DefaultServerInstrumentation implements ServerInstrumentation {
         });
     }
 
+    /**
+     * Brings the app back to the state it has after the server started, without restarting the
+     * instrumentation: finishes all activities, deletes the app data if asked to and starts the
+     * main activity or service again.
+     */
+    @Override
+    public void resetApp(boolean clearData) {
+        SelendroidLogger.info("*** ServerInstrumentation#resetApp() ***");
+        finishAllActivities();
+        instrumentation.waitForIdleSync();
+        activitiesReporter.setBackgroundActivity(null);
+        if (clearData) {
+            clearAppData();
+        }
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                if (args.getServiceClassName() != null) {
+                    startService();
+                } else {
+                    startMainActivity();
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes what <code>pm clear</code> would, as far as the app process can: databases, shared
+     * preferences, files and cache.
+     */
+    private void clearAppData() {
+        Context context = instrumentation.getTargetContext();
+        for (String database : context.databaseList()) {
+            context.deleteDatabase(database);
+        }
+        File preferencesDir = new File(context.getApplicationInfo().dataDir, "shared_prefs");
+        String[] preferences = preferencesDir.list();
+        if (preferences != null) {
+            for (String preference : preferences) {
+                if (preference.endsWith(".xml")) {
+                    // Clear through the API as well, the app may hold the preferences in memory.
+                    context.getSharedPreferences(
+                            preference.substring(0, preference.length() - ".xml".length()),
+                            Context.MODE_PRIVATE).edit().clear().commit();
+                }
+            }
+        }
+        deleteContents(preferencesDir);
+        deleteContents(context.getFilesDir());
+        deleteContents(context.getCacheDir());
+    }
+
+    private static void deleteContents(File dir) {
+        File[] files = dir == null ? null : dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                deleteContents(file);
+            }
+            if (!file.delete()) {
+                SelendroidLogger.info("Could not delete " + file);
+            }
+        }
+    }
+
     @Override
     public AndroidWait getAndroidWait() {
         return androidWait;
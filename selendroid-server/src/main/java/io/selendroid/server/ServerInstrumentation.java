@@ -41,6 +41,7 @@ public interface ServerInstrumentation extends ServerDetails {
   Activity getCurrentActivity();
   void setImplicitWait(long millis);
   void finishAllActivities();
+  void resetApp(boolean clearData);
   AndroidWait getAndroidWait();
   void backgroundActivity();
   void resumeActivity();
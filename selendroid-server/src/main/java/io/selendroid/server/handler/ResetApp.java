@@ -0,0 +1,56 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.server.handler;
+
+import io.selendroid.server.ServerInstrumentationProvider;
+import io.selendroid.server.common.Response;
+import io.selendroid.server.common.SelendroidResponse;
+import io.selendroid.server.common.http.HttpRequest;
+import io.selendroid.server.model.SelendroidDriver;
+import io.selendroid.server.model.Session;
+import io.selendroid.server.util.SelendroidLogger;
+
+import org.json.JSONException;
+
+/**
+ * Ends the session and resets the app under test in the running instrumentation, so the
+ * standalone server can create the next session on this server. The app data is deleted unless
+ * the payload has {@code "clearData": false}.
+ */
+public class ResetApp extends SafeRequestHandler {
+
+  public ResetApp(String mappedUri) {
+    super(mappedUri);
+  }
+
+  @Override
+  public Response safeHandle(HttpRequest request) throws JSONException {
+    SelendroidLogger.info("reset app command");
+    SelendroidDriver driver = getSelendroidDriver(request);
+    Session session = driver.getSession();
+    if (session != null) {
+      session.getKnownElements().clear();
+      driver.stopSession();
+    }
+    boolean clearData = getPayload(request).optBoolean("clearData", true);
+    ServerInstrumentationProvider.getServerInstrumentationInstance().resetApp(clearData);
+    SelendroidLogger.info("\n\n\n---------Session RESET ---------------\n\n\n");
+    return new SelendroidResponse(getSessionId(request), "");
+  }
+
+  @Override
+  public boolean commandAllowedWithAlertPresentInWebViewMode() {
+    return true;
+  }
+}
@@ -142,7 +142,7 @@ public class SelendroidConfiguration {
   private boolean noClearData = false;
 
   @Parameter(
-      description = "maximum session duration in seconds. Session will be forcefully terminated if it takes longer.",
+      description = "maximum time in seconds a session may be idle between commands. Session will be forcefully terminated if it is idle longer.",
       names = "-sessionTimeout")
   private int sessionTimeoutSeconds = 30 * 60; // 30 minutes
 
@@ -199,6 +199,119 @@ public class SelendroidConfiguration {
   @Parameter(names ="-avdManager", description = "Absolute path to avdmanager command line utility")
   private String avdManagerHome = null;
 
+  @Parameter(names = "-keepAliveTimeout",
+             description = "Seconds an idle HTTP keep-alive connection to the standalone server is kept open. 0 disables the idle timeout.")
+  private int keepAliveTimeout = 60;
+
+  @Parameter(names = "-maxRequestsPerConnection",
+             description = "Maximum number of requests served on one HTTP keep-alive connection before it is closed. 0 means unlimited.")
+  private int maxRequestsPerConnection = 1000;
+
+  @Parameter(names = "-commandThreads",
+             description = "Number of threads handling WebDriver commands, so slow commands don't block the network threads. 0 handles commands on the network threads.")
+  private int commandThreads = 32;
+
+  @Parameter(names = "-maxQueuedCommands",
+             description = "Maximum number of commands waiting for a command thread. Further commands are answered with 503 and a Retry-After header. 0 means unlimited.")
+  private int maxQueuedCommands = 256;
+
+  @Parameter(names = "-compressionLevel",
+             description = "Deflate level (1-9) of gzip/deflate compressed responses for clients that accept them. 0 disables response compression.")
+  private int compressionLevel = 6;
+
+  @Parameter(names = "-compressionMinSize",
+             description = "Minimum size in bytes of a response body to be compressed.")
+  private int compressionMinSize = 1024;
+
+  @Parameter(names = "-maxRequestSize",
+             description = "Maximum size in bytes of a request body, larger requests are rejected with 413.")
+  private int maxRequestSize = 64 * 1024 * 1024;
+
+  @Parameter(names = "-requestSpoolThreshold",
+             description = "Request bodies larger than this number of bytes are buffered in a temporary file instead of memory.")
+  private int requestSpoolThreshold = 1024 * 1024;
+
+  @Parameter(names = "-requestSpoolDirectory",
+             description = "Directory of the temporary files of buffered request bodies. Defaults to java.io.tmpdir.")
+  private String requestSpoolDirectory = null;
+
+  @Parameter(names = "-epoll",
+             description = "Use Netty's native epoll transport for the HTTP server on Linux. Falls back to NIO if it is not available.")
+  private boolean epoll = false;
+
+  @Parameter(names = "-bossThreads",
+             description = "Number of threads accepting HTTP connections.")
+  private int bossThreads = 1;
+
+  @Parameter(names = "-workerThreads",
+             description = "Number of HTTP I/O threads. 0 uses twice the number of CPU cores.")
+  private int workerThreads = 0;
+
+  @Parameter(names = "-tcpNoDelay",
+             description = "Whether TCP_NODELAY is set on HTTP connections.",
+             arity = 1)
+  private boolean tcpNoDelay = true;
+
+  @Parameter(names = "-reusePort",
+             description = "Set SO_REUSEPORT on the server socket, requires -epoll.")
+  private boolean reusePort = false;
+
+  @Parameter(names = "-pooledBuffers",
+             description = "Use pooled direct buffers for HTTP traffic.")
+  private boolean pooledBuffers = false;
+
+  @Parameter(names = "-deviceConnectionPoolSize",
+             description = "Maximum number of HTTP connections kept to the selendroid-server of each device.")
+  private int deviceConnectionPoolSize = 4;
+
+  @Parameter(names = "-deviceConnectionIdleTimeout",
+             description = "Seconds an idle HTTP connection to the selendroid-server of a device is kept open.")
+  private int deviceConnectionIdleTimeout = 30;
+
+  @Parameter(names = "-proxyRetryInitialDelay",
+             description = "Delay in ms before a failed command is first sent to the device again, doubled for every further attempt.")
+  private long proxyRetryInitialDelay = 100;
+
+  @Parameter(names = "-proxyRetryMaxDelay",
+             description = "Maximum delay in ms between attempts to send a failed command to the device.")
+  private long proxyRetryMaxDelay = 2000;
+
+  @Parameter(names = "-proxyRetryTimeout",
+             description = "Time in ms after the first attempt after which a failed command is not sent to the device again.")
+  private long proxyRetryTimeout = 10000;
+
+  @Parameter(names = "-proxyRetryBudget",
+             description = "Maximum number of times in a row commands of a session are sent to the device again after failing.")
+  private int proxyRetryBudget = 50;
+
+  @Parameter(names = "-proxyRetryBudgetRefill",
+             description = "Time in ms after which a session may retry one more command, up to -proxyRetryBudget. 0 never refills the budget.")
+  private long proxyRetryBudgetRefill = 1000;
+
+  @Parameter(names = "-warmSessions",
+             description = "Number of selendroid-servers kept started on idle devices for new sessions, 0 disables them.")
+  private int warmSessions = 0;
+
+  @Parameter(names = "-warmSessionApps",
+             description = "Comma separated app ids the warm selendroid-servers are started for. By default the apps of the recent sessions are used.")
+  private List<String> warmSessionApps = new ArrayList<String>();
+
+  @Parameter(names = "-deviceWaitTimeout",
+             description = "Seconds a new session waits for a matching device to become free, 0 fails at once if none is free.")
+  private int deviceWaitTimeout = 0;
+
+  @Parameter(names = "-deviceWaitQueueSize",
+             description = "Maximum number of new sessions waiting for a device, further sessions fail at once.")
+  private int deviceWaitQueueSize = 20;
+
+  @Parameter(names = "-hotReset",
+             description = "Reset the app in the running selendroid-server when a session stops and reuse the server for the next session of the app, instead of clearing the app data with adb and starting a new server.")
+  private boolean hotReset = false;
+
+  @Parameter(names = "-shellOutputLimit",
+             description = "Number of characters of output kept per adb or other shell command, e.g. of the instrumentation running the selendroid-server. Older output is dropped.")
+  private int shellOutputLimit = 1024 * 1024;
+
   public String getAvdManager() {
     return avdManagerHome;
   }
@@ -561,4 +674,228 @@ public class SelendroidConfiguration {
   public void setBuildToolsVersion(String buildToolsVersion) {
     this.buildToolsVersion = buildToolsVersion;
   }
+
+  public int getKeepAliveTimeout() {
+    return keepAliveTimeout;
+  }
+
+  public void setKeepAliveTimeout(int keepAliveTimeout) {
+    this.keepAliveTimeout = keepAliveTimeout;
+  }
+
+  public int getMaxRequestsPerConnection() {
+    return maxRequestsPerConnection;
+  }
+
+  public void setMaxRequestsPerConnection(int maxRequestsPerConnection) {
+    this.maxRequestsPerConnection = maxRequestsPerConnection;
+  }
+
+  public int getCommandThreads() {
+    return commandThreads;
+  }
+
+  public void setCommandThreads(int commandThreads) {
+    this.commandThreads = commandThreads;
+  }
+
+  public int getMaxQueuedCommands() {
+    return maxQueuedCommands;
+  }
+
+  public void setMaxQueuedCommands(int maxQueuedCommands) {
+    this.maxQueuedCommands = maxQueuedCommands;
+  }
+
+  public int getCompressionLevel() {
+    return compressionLevel;
+  }
+
+  public void setCompressionLevel(int compressionLevel) {
+    this.compressionLevel = compressionLevel;
+  }
+
+  public int getCompressionMinSize() {
+    return compressionMinSize;
+  }
+
+  public void setCompressionMinSize(int compressionMinSize) {
+    this.compressionMinSize = compressionMinSize;
+  }
+
+  public int getMaxRequestSize() {
+    return maxRequestSize;
+  }
+
+  public void setMaxRequestSize(int maxRequestSize) {
+    this.maxRequestSize = maxRequestSize;
+  }
+
+  public int getRequestSpoolThreshold() {
+    return requestSpoolThreshold;
+  }
+
+  public void setRequestSpoolThreshold(int requestSpoolThreshold) {
+    this.requestSpoolThreshold = requestSpoolThreshold;
+  }
+
+  public String getRequestSpoolDirectory() {
+    return requestSpoolDirectory;
+  }
+
+  public void setRequestSpoolDirectory(String requestSpoolDirectory) {
+    this.requestSpoolDirectory = requestSpoolDirectory;
+  }
+
+  public boolean isEpoll() {
+    return epoll;
+  }
+
+  public void setEpoll(boolean epoll) {
+    this.epoll = epoll;
+  }
+
+  public int getBossThreads() {
+    return bossThreads;
+  }
+
+  public void setBossThreads(int bossThreads) {
+    this.bossThreads = bossThreads;
+  }
+
+  public int getWorkerThreads() {
+    return workerThreads;
+  }
+
+  public void setWorkerThreads(int workerThreads) {
+    this.workerThreads = workerThreads;
+  }
+
+  public boolean isTcpNoDelay() {
+    return tcpNoDelay;
+  }
+
+  public void setTcpNoDelay(boolean tcpNoDelay) {
+    this.tcpNoDelay = tcpNoDelay;
+  }
+
+  public boolean isReusePort() {
+    return reusePort;
+  }
+
+  public void setReusePort(boolean reusePort) {
+    this.reusePort = reusePort;
+  }
+
+  public boolean isPooledBuffers() {
+    return pooledBuffers;
+  }
+
+  public void setPooledBuffers(boolean pooledBuffers) {
+    this.pooledBuffers = pooledBuffers;
+  }
+
+  public int getDeviceConnectionPoolSize() {
+    return deviceConnectionPoolSize;
+  }
+
+  public void setDeviceConnectionPoolSize(int deviceConnectionPoolSize) {
+    this.deviceConnectionPoolSize = deviceConnectionPoolSize;
+  }
+
+  public int getDeviceConnectionIdleTimeout() {
+    return deviceConnectionIdleTimeout;
+  }
+
+  public void setDeviceConnectionIdleTimeout(int deviceConnectionIdleTimeout) {
+    this.deviceConnectionIdleTimeout = deviceConnectionIdleTimeout;
+  }
+
+  public long getProxyRetryInitialDelay() {
+    return proxyRetryInitialDelay;
+  }
+
+  public void setProxyRetryInitialDelay(long proxyRetryInitialDelay) {
+    this.proxyRetryInitialDelay = proxyRetryInitialDelay;
+  }
+
+  public long getProxyRetryMaxDelay() {
+    return proxyRetryMaxDelay;
+  }
+
+  public void setProxyRetryMaxDelay(long proxyRetryMaxDelay) {
+    this.proxyRetryMaxDelay = proxyRetryMaxDelay;
+  }
+
+  public long getProxyRetryTimeout() {
+    return proxyRetryTimeout;
+  }
+
+  public void setProxyRetryTimeout(long proxyRetryTimeout) {
+    this.proxyRetryTimeout = proxyRetryTimeout;
+  }
+
+  public int getProxyRetryBudget() {
+    return proxyRetryBudget;
+  }
+
+  public void setProxyRetryBudget(int proxyRetryBudget) {
+    this.proxyRetryBudget = proxyRetryBudget;
+  }
+
+  public long getProxyRetryBudgetRefill() {
+    return proxyRetryBudgetRefill;
+  }
+
+  public void setProxyRetryBudgetRefill(long proxyRetryBudgetRefill) {
+    this.proxyRetryBudgetRefill = proxyRetryBudgetRefill;
+  }
+
+  public int getWarmSessions() {
+    return warmSessions;
+  }
+
+  public void setWarmSessions(int warmSessions) {
+    this.warmSessions = warmSessions;
+  }
+
+  public List<String> getWarmSessionApps() {
+    return warmSessionApps;
+  }
+
+  public void setWarmSessionApps(List<String> warmSessionApps) {
+    this.warmSessionApps = warmSessionApps;
+  }
+
+  public boolean isHotReset() {
+    return hotReset;
+  }
+
+  public void setHotReset(boolean hotReset) {
+    this.hotReset = hotReset;
+  }
+
+  public int getDeviceWaitTimeout() {
+    return deviceWaitTimeout;
+  }
+
+  public void setDeviceWaitTimeout(int deviceWaitTimeout) {
+    this.deviceWaitTimeout = deviceWaitTimeout;
+  }
+
+  public int getDeviceWaitQueueSize() {
+    return deviceWaitQueueSize;
+  }
+
+  public void setDeviceWaitQueueSize(int deviceWaitQueueSize) {
+    this.deviceWaitQueueSize = deviceWaitQueueSize;
+  }
+
+  public int getShellOutputLimit() {
+    return shellOutputLimit;
+  }
+
+  public void setShellOutputLimit(int shellOutputLimit) {
+    this.shellOutputLimit = shellOutputLimit;
+  }
 }
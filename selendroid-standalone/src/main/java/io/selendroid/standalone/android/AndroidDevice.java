@@ -52,6 +52,13 @@ public interface AndroidDevice {
 
   public void kill(AndroidApp aut) throws AndroidDeviceException, AndroidSdkException;
 
+  /**
+   * Like {@link #kill(AndroidApp)}, but if requested the data of the app is cleared with the same
+   * shell call.
+   */
+  public void kill(AndroidApp aut, boolean clearUserData)
+      throws AndroidDeviceException, AndroidSdkException;
+
   public Dimension getScreenSize();
 
   public List<LogEntry> getLogs();
@@ -68,6 +75,13 @@ public interface AndroidDevice {
 
   public String runAdbCommand(String parameter);
 
+  /**
+   * Runs the shell commands of the batch one after the other with a single adb shell call.
+   *
+   * @return the result of every command of the batch, in order
+   */
+  public List<ShellBatch.Result> runShellBatch(ShellBatch batch);
+
   public byte[] takeScreenshot() throws AndroidDeviceException;
 
   public void setVerbose();
@@ -102,4 +116,7 @@ public interface AndroidDevice {
 
   public void addInstrumentationProcessListener(
     InstrumentationProcessListener listener);
+
+  public void removeInstrumentationProcessListener(
+    InstrumentationProcessListener listener);
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.standalone.android;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Shell commands that are run on the device one after the other with a single adb shell call, see
+ * {@link AndroidDevice#runShellBatch(ShellBatch)}. Every command runs in its own subshell, so a
+ * failing command does not stop the following ones.
+ */
+public class ShellBatch {
+  private static final String STEP_MARKER = "__selendroid_step__";
+  private static final Pattern STEP_END =
+      Pattern.compile("^" + STEP_MARKER + " ([0-9]+) ([0-9]+)$");
+
+  private final List<String> commands = new ArrayList<String>();
+
+  /**
+   * @param command the command line, as it would be passed to {@code adb shell}
+   */
+  public ShellBatch add(String command) {
+    commands.add(command);
+    return this;
+  }
+
+  public List<String> getCommands() {
+    return Collections.unmodifiableList(commands);
+  }
+
+  public boolean isEmpty() {
+    return commands.isEmpty();
+  }
+
+  public int size() {
+    return commands.size();
+  }
+
+  /**
+   * @return the script running all commands, every command's output is followed by a line with
+   *         its index and exit code
+   */
+  public String toScript() {
+    StringBuilder script = new StringBuilder();
+    for (int i = 0; i < commands.size(); i++) {
+      script.append(stepScript(i, commands.get(i)));
+    }
+    return script.toString();
+  }
+
+  /**
+   * Splits the batch into batches whose scripts are at most the given length, e.g. because the
+   * command line of adb is limited. A command that is too long on its own gets a batch of its own.
+   */
+  public List<ShellBatch> partition(int maxScriptLength) {
+    List<ShellBatch> batches = new ArrayList<ShellBatch>();
+    ShellBatch current = new ShellBatch();
+    int length = 0;
+    for (String command : commands) {
+      int stepLength = stepScript(current.size(), command).length();
+      if (!current.isEmpty() && length + stepLength > maxScriptLength) {
+        batches.add(current);
+        current = new ShellBatch();
+        stepLength = stepScript(0, command).length();
+        length = 0;
+      }
+      current.add(command);
+      length += stepLength;
+    }
+    if (!current.isEmpty()) {
+      batches.add(current);
+    }
+    return batches;
+  }
+
+  /**
+   * Reads the output and exit code of every command from the output of {@link #toScript()}.
+   * Commands without an exit code in the output, e.g. because the device could not be reached, get
+   * {@link Result#UNKNOWN_EXIT_CODE}.
+   */
+  public List<Result> parse(String output) {
+    List<Result> results = new ArrayList<Result>();
+    StringBuilder stepOutput = new StringBuilder();
+    String[] lines = output == null ? new String[0] : output.replace("\r", "").split("\n");
+    for (String line : lines) {
+      Matcher stepEnd = STEP_END.matcher(line);
+      if (stepEnd.matches() && Integer.parseInt(stepEnd.group(1)) == results.size()
+          && results.size() < commands.size()) {
+        results.add(new Result(commands.get(results.size()), stepOutput.toString().trim(),
+            Integer.parseInt(stepEnd.group(2))));
+        stepOutput.setLength(0);
+      } else {
+        stepOutput.append(line).append('\n');
+      }
+    }
+    // the output of an unfinished command belongs to the first one without an exit code
+    String unfinishedOutput = stepOutput.toString().trim();
+    while (results.size() < commands.size()) {
+      results.add(new Result(commands.get(results.size()), unfinishedOutput,
+          Result.UNKNOWN_EXIT_CODE));
+      unfinishedOutput = "";
+    }
+    return results;
+  }
+
+  private static String stepScript(int index, String command) {
+    return "(" + command + ") 2>&1; s=$?; echo; echo " + STEP_MARKER + " " + index + " $s; ";
+  }
+
+  /**
+   * The output and exit code of a command of the batch.
+   */
+  public static class Result {
+    public static final int UNKNOWN_EXIT_CODE = -1;
+
+    private final String command;
+    private final String output;
+    private final int exitCode;
+
+    public Result(String command, String output, int exitCode) {
+      this.command = command;
+      this.output = output;
+      this.exitCode = exitCode;
+    }
+
+    public String getCommand() {
+      return command;
+    }
+
+    public String getOutput() {
+      return output;
+    }
+
+    public int getExitCode() {
+      return exitCode;
+    }
+
+    public boolean isSuccess() {
+      return exitCode == 0;
+    }
+
+    @Override
+    public String toString() {
+      return command + " (exit code " + exitCode + "): " + output;
+    }
+  }
+}
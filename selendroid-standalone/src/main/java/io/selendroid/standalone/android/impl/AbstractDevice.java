@@ -20,6 +20,7 @@ import com.android.ddmlib.TimeoutException;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Lists;
 import com.google.common.collect.ObjectArrays;
+import io.netty.handler.codec.http.HttpMethod;
 import io.selendroid.common.SelendroidCapabilities;
 import io.selendroid.server.common.exceptions.SelendroidException;
 import io.selendroid.server.common.model.ExternalStorageFile;
@@ -28,17 +29,15 @@ import io.selendroid.standalone.android.AndroidApp;
 import io.selendroid.standalone.android.AndroidDevice;
 import io.selendroid.standalone.android.AndroidSdk;
 import io.selendroid.standalone.android.InstrumentationProcessListener;
+import io.selendroid.standalone.android.ShellBatch;
 import io.selendroid.standalone.exceptions.AndroidDeviceException;
 import io.selendroid.standalone.exceptions.AndroidSdkException;
 import io.selendroid.standalone.exceptions.ShellCommandException;
 import io.selendroid.standalone.io.ShellCommand;
+import io.selendroid.standalone.server.util.HttpClientUtil;
 import org.apache.commons.exec.*;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpRequestBase;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.openqa.selenium.Dimension;
 import org.openqa.selenium.logging.LogEntry;
 import org.json.JSONException;
@@ -49,8 +48,10 @@ import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -67,8 +68,12 @@ public abstract class AbstractDevice implements AndroidDevice {
   private ByteArrayOutputStream logoutput;
   private ExecuteWatchdog logcatWatchdog;
   private static final Integer COMMAND_TIMEOUT = 20000;
+  private static final int PACKAGE_STATE_TIMEOUT_MS = 5000;
+  private static final int PACKAGE_STATE_POLLING_INTERVAL_MS = 100;
   private boolean loggingEnabled = true;
-  private final List<InstrumentationProcessListener> instrumentationProcessListeners = new ArrayList();
+  private final List<InstrumentationProcessListener> instrumentationProcessListeners =
+      new CopyOnWriteArrayList<InstrumentationProcessListener>();
+  private final AdbTransport execTransport = new ExecAdbTransport(this);
 
   // Port that we forward locally to the device
   protected int localPort;
@@ -112,12 +117,28 @@ public abstract class AbstractDevice implements AndroidDevice {
     instrumentationProcessListeners.add(listener);
   }
 
+  public void removeInstrumentationProcessListener(
+    InstrumentationProcessListener listener) {
+    instrumentationProcessListeners.remove(listener);
+  }
+
+  /**
+   * The adb operations are sent over the connection of ddmlib once the device is online, until
+   * then adb is started for each of them.
+   */
+  AdbTransport adb() {
+    IDevice current = device;
+    if (current == null || !current.isOnline()) {
+      return execTransport;
+    }
+    return new DdmlibAdbTransport(current, execTransport);
+  }
+
   @Override
   public boolean isDeviceReady() {
-    CommandLine command = adbCommand("shell", "getprop init.svc.bootanim");
     String bootAnimDisplayed = null;
     try {
-      bootAnimDisplayed = ShellCommand.exec(command);
+      bootAnimDisplayed = adb().shell("getprop init.svc.bootanim", COMMAND_TIMEOUT);
     } catch (ShellCommandException e) {
       log.log(Level.INFO, "Could not get property init.svc.bootanim", e);
     }
@@ -126,12 +147,10 @@ public abstract class AbstractDevice implements AndroidDevice {
 
   @Override
   public boolean isInstalled(String appBasePackage) throws AndroidSdkException {
-    CommandLine command = adbCommand("shell", "pm", "list", "packages");
-
-    command.addArgument(appBasePackage, false);
     String result = null;
     try {
-      result = ShellCommand.exec(command);
+      result = adb().shell("pm list packages " + appBasePackage, COMMAND_TIMEOUT,
+          untilLineContains("package:" + appBasePackage));
     } catch (ShellCommandException e) {}
 
     return result != null && result.contains("package:" + appBasePackage);
@@ -148,20 +167,12 @@ public abstract class AbstractDevice implements AndroidDevice {
     if (isInstalled(app)) {
       uninstall(app);
     }
-    // -r: replace existing application
-    // -d: allow version code downgrade
-    CommandLine command = adbCommand("install", "-r", "-d", app.getAbsolutePath());
-
-    String out = executeCommandQuietly(command, COMMAND_TIMEOUT * 6);
     try {
-      // give it a second to recover from the install
-      Thread.sleep(1000);
-    } catch (InterruptedException ie) {
-      throw new RuntimeException(ie);
-    }
-    if (!out.contains("Success")) {
-      throw new AndroidSdkException("APK installation failed. Output:\n" + out);
+      adb().install(app.getAbsolutePath(), COMMAND_TIMEOUT * 6);
+    } catch (ShellCommandException e) {
+      throw new AndroidSdkException("APK installation failed. Output:\n" + e.getMessage());
     }
+    waitForPackage(app.getBasePackage(), true);
   }
 
   public boolean start(AndroidApp app) throws AndroidSdkException {
@@ -170,11 +181,8 @@ public abstract class AbstractDevice implements AndroidDevice {
     }
 
     String mainActivity = app.getMainActivity().replace(app.getBasePackage(), "");
-    CommandLine command =
-        adbCommand("shell", "am", "start", "-a", "android.intent.action.MAIN", "-n",
-            app.getBasePackage() + "/" + mainActivity);
-
-    String out = executeCommandQuietly(command);
+    String out = shellQuietly("am start -a android.intent.action.MAIN -n "
+        + app.getBasePackage() + "/" + mainActivity);
     try {
       // give it a second to recover from the activity start
       Thread.sleep(1000);
@@ -184,6 +192,63 @@ public abstract class AbstractDevice implements AndroidDevice {
     return out.contains("Starting: Intent");
   }
 
+  @Override
+  public List<ShellBatch.Result> runShellBatch(ShellBatch batch) {
+    List<ShellBatch.Result> results = new ArrayList<ShellBatch.Result>();
+    if (batch.isEmpty()) {
+      return results;
+    }
+    AdbTransport transport = adb();
+    // The command line of adb started as a process is limited.
+    List<ShellBatch> parts = transport == execTransport
+        ? batch.partition(MAX_ADB_COMMAND_LENGTH - adbCommand("shell").toString().length() - 2)
+        : Collections.singletonList(batch);
+    for (ShellBatch part : parts) {
+      String output = "";
+      try {
+        output = transport.shell(part.toScript(), (long) COMMAND_TIMEOUT * part.size());
+      } catch (ShellCommandException e) {
+        log.log(Level.WARNING, "Could not execute shell commands: " + part.getCommands(), e);
+      }
+      results.addAll(part.parse(output));
+    }
+    return results;
+  }
+
+  /**
+   * Runs the command with the shell of the device.
+   *
+   * @return the output of the command, or an empty string if it failed
+   */
+  protected String shellQuietly(String command) {
+    return shellQuietly(command, null);
+  }
+
+  /**
+   * Like {@link #shellQuietly(String)}, but the command is stopped once the consumer returns
+   * {@code false}.
+   */
+  protected String shellQuietly(String command, ShellCommand.LineConsumer consumer) {
+    try {
+      return adb().shell(command, COMMAND_TIMEOUT, consumer);
+    } catch (ShellCommandException e) {
+      log.log(Level.WARNING, String.format("Could not execute command: adb shell %s", command), e);
+      return "";
+    }
+  }
+
+  /**
+   * @return a consumer that stops a command once a line of its output contains the text
+   */
+  protected static ShellCommand.LineConsumer untilLineContains(final String text) {
+    return new ShellCommand.LineConsumer() {
+      @Override
+      public boolean onLine(String line) {
+        return !line.contains(text);
+      }
+    };
+  }
+
   protected String executeCommandQuietly(CommandLine command) {
     return executeCommandQuietly(command, COMMAND_TIMEOUT);
   }
@@ -200,30 +265,61 @@ public abstract class AbstractDevice implements AndroidDevice {
 
   @Override
   public void uninstall(AndroidApp app) throws AndroidSdkException {
-    CommandLine command = adbCommand("uninstall", app.getBasePackage());
-
-    executeCommandQuietly(command);
     try {
-      // give it a second to recover from the uninstall
-      Thread.sleep(1000);
-    } catch (InterruptedException ie) {
-      throw new RuntimeException(ie);
+      adb().uninstall(app.getBasePackage());
+    } catch (ShellCommandException e) {
+      log.log(Level.WARNING, "Could not uninstall " + app.getBasePackage(), e);
+    }
+    waitForPackage(app.getBasePackage(), false);
+  }
+
+  /**
+   * Waits until the package manager lists the package as installed, or no longer lists it, instead
+   * of giving it a fixed time to recover from the (un)install. Gives up silently after
+   * {@link #PACKAGE_STATE_TIMEOUT_MS}, like the fixed wait the next command may still fail.
+   */
+  private void waitForPackage(String basePackage, boolean installed) throws AndroidSdkException {
+    long deadline = System.currentTimeMillis() + PACKAGE_STATE_TIMEOUT_MS;
+    while (isInstalled(basePackage) != installed) {
+      if (System.currentTimeMillis() >= deadline) {
+        log.warning("Package " + basePackage + " is still " + (installed ? "not " : "")
+            + "installed after " + PACKAGE_STATE_TIMEOUT_MS + " ms");
+        return;
+      }
+      sleep(PACKAGE_STATE_POLLING_INTERVAL_MS);
     }
   }
 
   @Override
   public void clearUserData(AndroidApp app) throws AndroidSdkException {
-    CommandLine command = adbCommand("shell", "pm", "clear", app.getBasePackage());
-    executeCommandQuietly(command);
+    shellQuietly("pm clear " + app.getBasePackage());
   }
 
   @Override
   public void kill(AndroidApp aut) throws AndroidDeviceException, AndroidSdkException {
+    kill(aut, false);
+  }
+
+  @Override
+  public void kill(AndroidApp aut, boolean clearUserData)
+      throws AndroidDeviceException, AndroidSdkException {
+    String packageName = aut.getBasePackage();
+    // Processes of the package that survive the force-stop are killed one by one, as far as
+    // run-as is allowed to.
+    ShellBatch batch = new ShellBatch()
+        .add("am force-stop " + packageName)
+        .add("ps | while read user pid rest; do case \"$rest\" in *" + packageName + ") run-as "
+            + packageName + " kill $pid;; esac; done; true");
+    if (clearUserData) {
+      batch.add("pm clear " + packageName);
+    }
     try {
-      CommandLine command = adbCommand("shell", "am", "force-stop", aut.getBasePackage());
-      executeCommandQuietly(command);
+      for (ShellBatch.Result result : runShellBatch(batch)) {
+        if (!result.isSuccess()) {
+          log.warning("Could not stop " + packageName + ": " + result);
+        }
+      }
     } finally {
-      killProcesses(aut.getBasePackage());
       freeSelendroidPort();
     }
 
@@ -233,29 +329,9 @@ public abstract class AbstractDevice implements AndroidDevice {
     }
   }
 
-  private void killProcesses(String packageName) {
-    CommandLine command = adbCommand("shell", "ps");
-    String processes = "";
-    try {
-      processes = ShellCommand.exec(command);
-    } catch (ShellCommandException e) {
-      String logMessage = String.format("Could not execute command: %s", command);
-      log.log(Level.WARNING, logMessage, e);
-    }
-
-    for (String process: processes.split("\\r\\n|\\r|\\n")) {
-      if (process.endsWith(packageName)) {
-        String pid = process.split("\\s+")[1];
-        command = adbCommand("shell", "run-as", packageName, "kill", pid);
-        executeCommandQuietly(command);
-      }
-    }
-  }
-
   private void freeSelendroidPort() {
-  CommandLine command = adbCommand("forward", "--remove", "tcp:" + localPort);
     try {
-      ShellCommand.exec(command, 20000);
+      adb().removeForward(localPort, remotePort);
     } catch (ShellCommandException e) {
       log.log(Level.WARNING, "Could not free Selendroid port", e);
     }
@@ -324,10 +400,8 @@ public abstract class AbstractDevice implements AndroidDevice {
   }
 
   public int forwardPort(int local, int remote) {
-    CommandLine command = adbCommand("forward", "tcp:" + local, "tcp:" + remote);
     try {
-      String portStr = ShellCommand.exec(command);
-      return local == 0 ? Integer.parseInt(portStr) : local;
+      return adb().forward(local, remote);
     } catch (ShellCommandException forwardException) {
       String debugForwardList;
       try {
@@ -337,20 +411,19 @@ public abstract class AbstractDevice implements AndroidDevice {
       }
 
       throw new SelendroidException(
-          "Could not forward port: " + command + "\nList of forwarded ports:\n" + debugForwardList,
+          "Could not forward port: tcp:" + local + " tcp:" + remote
+              + "\nList of forwarded ports:\n" + debugForwardList,
           forwardException);
     }
   }
 
   @Override
   public boolean isSelendroidRunning() {
-    HttpClient httpClient = HttpClientBuilder.create().build();
     String url = WD_STATUS_ENDPOINT.replace("8080", String.valueOf(localPort));
     log.info("Checking if the Selendroid server is running: " + url);
-    HttpRequestBase request = new HttpGet(url);
     HttpResponse response;
     try {
-      response = httpClient.execute(request);
+      response = HttpClientUtil.executeDeviceRequest(localPort, "/wd/hub/status", HttpMethod.GET);
     } catch (Exception e) {
       log.log(
         Level.INFO,
@@ -430,8 +503,7 @@ public abstract class AbstractDevice implements AndroidDevice {
   }
 
   protected String getProp(String key) {
-    CommandLine command = adbCommand("shell", "getprop", key);
-    String prop = executeCommandQuietly(command);
+    String prop = shellQuietly("getprop " + key);
 
     return prop == null ? "" : prop.replace("\r", "").replace("\n", "");
   }
@@ -468,9 +540,20 @@ public abstract class AbstractDevice implements AndroidDevice {
       return null;
     }
     log.fine("running command: adb " + parameter);
-    CommandLine command = adbCommand();
-
     String[] params = parameter.split(" ");
+    if (params[0].equals("shell") && params.length > 1) {
+      return shellQuietly(parameter.substring("shell ".length()).trim());
+    }
+    if (params[0].equals("push") && params.length == 3) {
+      try {
+        adb().push(params[1], params[2]);
+        return "";
+      } catch (ShellCommandException e) {
+        log.log(Level.WARNING, "Could not execute command: adb " + parameter, e);
+        return "";
+      }
+    }
+    CommandLine command = adbCommand();
     for (String param : params) {
       command.addArgument(param, false);
     }
@@ -550,13 +633,13 @@ public abstract class AbstractDevice implements AndroidDevice {
    * @param value - Key to be sent to 'adb shell input keyevent'
    */
   public void inputKeyevent(int value) {
-    executeCommandQuietly(adbCommand("shell", "input", "keyevent", "" + value));
+    shellQuietly("input keyevent " + value);
     // need to wait a beat for the UI to respond
     sleep(500);
   }
 
   public void invokeActivity(String activity) {
-    executeCommandQuietly(adbCommand("shell", "am", "start", "-a", activity));
+    shellQuietly("am start -a " + activity);
     // need to wait a beat for the UI to respond
     sleep(500);
   }
@@ -577,7 +660,7 @@ public abstract class AbstractDevice implements AndroidDevice {
     return command;
   }
 
-  private CommandLine adbCommand(String... args) {
+  protected CommandLine adbCommand(String... args) {
     CommandLine command = adbCommand();
     for (String arg : args) {
       command.addArgument(arg, false);
@@ -602,9 +685,9 @@ public abstract class AbstractDevice implements AndroidDevice {
     if (!crashLogDirPath.endsWith("/")) {
       crashLogDirPath += "/";  // Make sure it ends with '/' so we're listing directory contents.
     }
-    String directoryList = executeCommandQuietly(adbCommand("shell", "ls", crashLogDirPath));
+    String directoryList = shellQuietly("ls " + crashLogDirPath);
     if (directoryList.contains(crashLogFileName)) {
-      return executeCommandQuietly(adbCommand("shell", "cat", crashLogDirPath + crashLogFileName));
+      return shellQuietly("cat " + crashLogDirPath + crashLogFileName);
     }
 
     return "";
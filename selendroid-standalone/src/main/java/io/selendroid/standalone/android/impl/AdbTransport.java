@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.standalone.android.impl;
+
+import io.selendroid.standalone.exceptions.ShellCommandException;
+import io.selendroid.standalone.io.ShellCommand;
+
+/**
+ * The adb operations a device needs, either sent over the connection of ddmlib to the adb server
+ * ({@link DdmlibAdbTransport}) or run by forking the adb executable ({@link ExecAdbTransport}).
+ */
+interface AdbTransport {
+  /**
+   * Runs the command with the shell of the device.
+   *
+   * @param command the command line, as it would be passed to {@code adb shell}
+   * @return the trimmed output of the command
+   * @throws ShellCommandException if the command could not be run or did not finish in time
+   */
+  String shell(String command, long timeoutMillis) throws ShellCommandException;
+
+  /**
+   * Like {@link #shell(String, long)}, but passes the output line by line to the consumer while
+   * the command runs. The command is stopped once the consumer returns {@code false}.
+   *
+   * @param consumer may be {@code null}
+   */
+  String shell(String command, long timeoutMillis, ShellCommand.LineConsumer consumer)
+      throws ShellCommandException;
+
+  /**
+   * Installs the apk, replacing an installed version and allowing version code downgrades.
+   *
+   * @throws ShellCommandException with the output of the installation if it failed
+   */
+  void install(String apkPath, long timeoutMillis) throws ShellCommandException;
+
+  void uninstall(String basePackage) throws ShellCommandException;
+
+  void push(String localPath, String remotePath) throws ShellCommandException;
+
+  /**
+   * Forwards the local port to the port on the device.
+   *
+   * @param local the local port, or 0 to let adb choose a free one
+   * @return the local port that is forwarded
+   */
+  int forward(int local, int remote) throws ShellCommandException;
+
+  void removeForward(int local, int remote) throws ShellCommandException;
+}
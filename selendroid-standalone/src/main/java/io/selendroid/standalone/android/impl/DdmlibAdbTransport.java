@@ -0,0 +1,229 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.standalone.android.impl;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.ddmlib.InstallException;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.SyncException;
+import com.android.ddmlib.TimeoutException;
+import io.selendroid.standalone.exceptions.ShellCommandException;
+import io.selendroid.standalone.io.OutputCapture;
+import io.selendroid.standalone.io.ShellCommand;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends the operations over the connection of ddmlib to the adb server, without starting a
+ * process. Operations the adb server could not be asked for are run by the fallback transport.
+ */
+class DdmlibAdbTransport implements AdbTransport {
+  private static final Logger log = Logger.getLogger(DdmlibAdbTransport.class.getName());
+
+  private final IDevice device;
+  private final AdbTransport fallback;
+
+  DdmlibAdbTransport(IDevice device, AdbTransport fallback) {
+    this.device = device;
+    this.fallback = fallback;
+  }
+
+  @Override
+  public String shell(String command, long timeoutMillis) throws ShellCommandException {
+    return shell(command, timeoutMillis, null);
+  }
+
+  @Override
+  public String shell(String command, long timeoutMillis, ShellCommand.LineConsumer consumer)
+      throws ShellCommandException {
+    OutputReceiver receiver = new OutputReceiver(timeoutMillis, consumer);
+    try {
+      device.executeShellCommand(command, receiver, timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (ShellCommandUnresponsiveException e) {
+      throw new ShellCommandException("Shell command timed out: " + command, e);
+    } catch (TimeoutException e) {
+      return fallbackShell(command, timeoutMillis, consumer, e);
+    } catch (AdbCommandRejectedException e) {
+      return fallbackShell(command, timeoutMillis, consumer, e);
+    } catch (IOException e) {
+      return fallbackShell(command, timeoutMillis, consumer, e);
+    }
+    if (receiver.timedOut) {
+      throw new ShellCommandException(
+          "Shell command did not finish within " + timeoutMillis + " ms: " + command);
+    }
+    String output = receiver.getOutput();
+    if (log.isLoggable(Level.FINE)) {
+      log.fine(String.format("Shell command executed: %s\n-->\n%s\n<--", command, output));
+    }
+    return output;
+  }
+
+  @Override
+  public void install(String apkPath, long timeoutMillis) throws ShellCommandException {
+    String error;
+    try {
+      error = device.installPackage(apkPath, true, "-d");
+    } catch (InstallException e) {
+      if (isAdbUnavailable(e.getCause())) {
+        logFallback("install " + apkPath, e);
+        fallback.install(apkPath, timeoutMillis);
+        return;
+      }
+      throw new ShellCommandException(e.getMessage(), e);
+    }
+    if (error != null) {
+      throw new ShellCommandException(error);
+    }
+  }
+
+  @Override
+  public void uninstall(String basePackage) throws ShellCommandException {
+    String error;
+    try {
+      error = device.uninstallPackage(basePackage);
+    } catch (InstallException e) {
+      if (isAdbUnavailable(e.getCause())) {
+        logFallback("uninstall " + basePackage, e);
+        fallback.uninstall(basePackage);
+        return;
+      }
+      throw new ShellCommandException(e.getMessage(), e);
+    }
+    if (error != null) {
+      throw new ShellCommandException(error);
+    }
+  }
+
+  @Override
+  public void push(String localPath, String remotePath) throws ShellCommandException {
+    try {
+      device.pushFile(localPath, remotePath);
+    } catch (SyncException e) {
+      throw new ShellCommandException("Could not push " + localPath + " to " + remotePath, e);
+    } catch (TimeoutException e) {
+      logFallback("push " + localPath, e);
+      fallback.push(localPath, remotePath);
+    } catch (AdbCommandRejectedException e) {
+      logFallback("push " + localPath, e);
+      fallback.push(localPath, remotePath);
+    } catch (IOException e) {
+      logFallback("push " + localPath, e);
+      fallback.push(localPath, remotePath);
+    }
+  }
+
+  @Override
+  public int forward(int local, int remote) throws ShellCommandException {
+    if (local == 0) {
+      // ddmlib does not tell which port the adb server chose
+      return fallback.forward(local, remote);
+    }
+    try {
+      device.createForward(local, remote);
+    } catch (TimeoutException e) {
+      logFallback("forward tcp:" + local, e);
+      return fallback.forward(local, remote);
+    } catch (AdbCommandRejectedException e) {
+      logFallback("forward tcp:" + local, e);
+      return fallback.forward(local, remote);
+    } catch (IOException e) {
+      logFallback("forward tcp:" + local, e);
+      return fallback.forward(local, remote);
+    }
+    return local;
+  }
+
+  @Override
+  public void removeForward(int local, int remote) throws ShellCommandException {
+    try {
+      device.removeForward(local, remote);
+    } catch (TimeoutException e) {
+      logFallback("forward --remove tcp:" + local, e);
+      fallback.removeForward(local, remote);
+    } catch (AdbCommandRejectedException e) {
+      logFallback("forward --remove tcp:" + local, e);
+      fallback.removeForward(local, remote);
+    } catch (IOException e) {
+      logFallback("forward --remove tcp:" + local, e);
+      fallback.removeForward(local, remote);
+    }
+  }
+
+  /**
+   * The command may have been sent already if the connection broke, like the callers of the adb
+   * executable the commands are expected to be safe to repeat.
+   */
+  private String fallbackShell(String command, long timeoutMillis,
+      ShellCommand.LineConsumer consumer, Exception cause) {
+    logFallback("shell " + command, cause);
+    return fallback.shell(command, timeoutMillis, consumer);
+  }
+
+  private static boolean isAdbUnavailable(Throwable cause) {
+    return cause instanceof TimeoutException || cause instanceof AdbCommandRejectedException
+        || cause instanceof IOException;
+  }
+
+  private void logFallback(String command, Exception cause) {
+    log.log(Level.INFO, "Could not send 'adb " + command + "' to the adb server of device "
+        + device.getSerialNumber() + ", starting adb instead", cause);
+  }
+
+  /**
+   * Collects the output streamed by the device, and stops reading it once the timeout passed or
+   * the consumer does not want more lines.
+   */
+  private static class OutputReceiver implements IShellOutputReceiver {
+    private final OutputCapture output;
+    private final long deadline;
+    private volatile boolean timedOut = false;
+
+    OutputReceiver(long timeoutMillis, ShellCommand.LineConsumer consumer) {
+      this.output = new OutputCapture(ShellCommand.getMaxOutputLength(), consumer);
+      this.deadline = System.nanoTime() + timeoutMillis * 1000000L;
+    }
+
+    @Override
+    public void addOutput(byte[] data, int offset, int length) {
+      try {
+        output.write(data, offset, length);
+      } catch (IOException e) {
+        // not thrown when writing to the capture
+      }
+    }
+
+    @Override
+    public void flush() {
+      output.flush();
+    }
+
+    @Override
+    public boolean isCancelled() {
+      if (!output.isStopped() && System.nanoTime() - deadline > 0) {
+        timedOut = true;
+      }
+      return timedOut || output.isStopped();
+    }
+
+    String getOutput() {
+      return output.getOutput();
+    }
+  }
+}
@@ -376,39 +376,26 @@ public class DefaultAndroidEmulator extends AbstractDevice implements AndroidEmu
 
   public void unlockScreen() throws AndroidDeviceException {
     // Send menu key event
-    CommandLine menuKeyCommand = getAdbCommand();
-    menuKeyCommand.addArgument("shell", false);
-    menuKeyCommand.addArgument("input", false);
-    menuKeyCommand.addArgument("keyevent", false);
-    menuKeyCommand.addArgument("82", false);
-
     try {
-      ShellCommand.exec(menuKeyCommand, 20000);
+      adb().shell("input keyevent 82", 20000);
     } catch (ShellCommandException e) {
       throw new AndroidDeviceException(e);
     }
 
     // Send back key event
-    CommandLine backKeyCommand = getAdbCommand();
-    backKeyCommand.addArgument("shell", false);
-    backKeyCommand.addArgument("input", false);
-    backKeyCommand.addArgument("keyevent", false);
-    backKeyCommand.addArgument("4", false);
     try {
-      ShellCommand.exec(backKeyCommand, 20000);
+      adb().shell("input keyevent 4", 20000);
     } catch (ShellCommandException e) {
       throw new AndroidDeviceException(e);
     }
   }
 
   private void waitForLauncherToComplete() throws AndroidDeviceException {
-    CommandLine processListCommand = getAdbCommand();
-    processListCommand.addArgument("shell", false);
-    processListCommand.addArgument("ps", false);
     String processList = null;
     do {
       try {
-        processList = ShellCommand.exec(processListCommand, 20000);
+        processList =
+            adb().shell("ps", 20000, untilLineContains("S com.android.launcher"));
       } catch (ShellCommandException e) {
         throw new AndroidDeviceException(e);
       }
@@ -422,15 +409,6 @@ public class DefaultAndroidEmulator extends AbstractDevice implements AndroidEmu
     } while (processList == null || !processList.contains("S com.android.launcher"));
   }
 
-  private CommandLine getAdbCommand() {
-    CommandLine processListCommand = new CommandLine(AndroidSdk.adb());
-    if (isSerialConfigured()) {
-      processListCommand.addArgument("-s", false);
-      processListCommand.addArgument(serial, false);
-    }
-    return processListCommand;
-  }
-
   private void allAppsGridView() throws AndroidDeviceException {
     int x = screenSize.width;
     int y = screenSize.height;
@@ -451,13 +429,8 @@ public class DefaultAndroidEmulator extends AbstractDevice implements AndroidEmu
     coordinates.add("0 0 0");
 
     for (String coordinate : coordinates) {
-      CommandLine event1 = getAdbCommand();
-      event1.addArgument("shell", false);
-      event1.addArgument("sendevent", false);
-      event1.addArgument("dev/input/event0", false);
-      event1.addArgument(coordinate, false);
       try {
-        ShellCommand.exec(event1);
+        adb().shell("sendevent dev/input/event0 " + coordinate, 20000);
       } catch (ShellCommandException e) {
         throw new AndroidDeviceException(e);
       }
@@ -119,8 +119,14 @@ public class DefaultDeviceManager extends Thread implements IDeviceChangeListene
   public void deviceChanged(IDevice device, int changeMask) {
     // Only fire events if the phone properties are available
     if (IDevice.CHANGE_BUILD_INFO == changeMask && !device.isEmulator()) {
+      DefaultHardwareDevice hardwareDevice = connectedDevices.get(device);
+      if (hardwareDevice == null) {
+        return;
+      }
+      // the cached properties are only read again when the build info changes
+      hardwareDevice.refreshProperties();
       for (HardwareDeviceListener listener : deviceListeners) {
-        listener.onDeviceChanged(connectedDevices.get(device));
+        listener.onDeviceChanged(hardwareDevice);
       }
     }
   }
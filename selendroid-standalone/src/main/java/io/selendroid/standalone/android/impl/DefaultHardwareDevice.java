@@ -27,41 +27,49 @@ import org.openqa.selenium.Dimension;
 
 public class DefaultHardwareDevice extends AbstractDevice {
   private static final Logger log = Logger.getLogger(DefaultHardwareDevice.class.getName());
-  private String model = null;
 
-  private Locale locale = null;
-  private DeviceTargetPlatform targetPlatform = null;
-  private Dimension screenSize = null;
+  private volatile DevicePropertySnapshot properties;
+  private volatile Dimension screenSize = null;
 
   public DefaultHardwareDevice(IDevice device) {
     super(device);
-    // today the only API we check for is Google APIs by looking for a maps jar which only exists if google apis are on
-    // the target
-    String output = runAdbCommand("shell ls /system/framework/*map*");
-    if (!output.contains("No such file")) {
-      this.apiTargetType = "google";
-    }
+    refreshProperties();
+  }
+
+  /**
+   * Reads the properties of the device again, they are cached until the build info of the device
+   * changes.
+   */
+  public void refreshProperties() {
+    DevicePropertySnapshot snapshot =
+        DevicePropertySnapshot.parse(shellQuietly(DevicePropertySnapshot.SHELL_COMMAND));
+    // today the only API we check for is Google APIs by looking for a maps jar which only exists if
+    // google apis are on the target
+    this.apiTargetType = snapshot.hasGoogleApis() ? "google" : "android";
+    this.screenSize = snapshot.getScreenSize();
+    this.properties = snapshot;
   }
 
   public String getModel() {
-    if (model == null) {
-      model = getProp("ro.product.model");
-    }
-    return model;
+    return properties.getProperty("ro.product.model");
   }
 
   @Override
   public DeviceTargetPlatform getTargetPlatform() {
-    if (targetPlatform == null) {
-      String version = getProp("ro.build.version.sdk");
-      targetPlatform = DeviceTargetPlatform.fromInt(version);
-    }
-    return targetPlatform;
+    return DeviceTargetPlatform.fromInt(properties.getProperty("ro.build.version.sdk"));
+  }
+
+  /**
+   * @return the screen density in dpi, or 0 if it is unknown
+   */
+  public int getDensity() {
+    return properties.getDensity();
   }
 
   @Override
   public Dimension getScreenSize() {
     if (this.screenSize == null) {
+      // wm is not available before Android 4.3, fall back to the size of a screenshot
       try {
         RawImage screenshot = device.getScreenshot();
         this.screenSize = new Dimension(screenshot.width, screenshot.height);
@@ -74,10 +82,8 @@ public class DefaultHardwareDevice extends AbstractDevice {
   }
 
   public Locale getLocale() {
-    if (this.locale == null) {
-      this.locale = new Locale(getProp("persist.sys.language"), getProp("persist.sys.country"));
-    }
-    return locale;
+    return new Locale(properties.getProperty("persist.sys.language"),
+        properties.getProperty("persist.sys.country"));
   }
 
   @Override
@@ -100,10 +106,13 @@ public class DefaultHardwareDevice extends AbstractDevice {
     // Get phone's android version and whether screen is off or not.
     // Different ways to detect if screen is off depending on version.
 
-    String output = runAdbCommand("shell dumpsys power");
+    boolean lollipop = Integer.parseInt(getTargetPlatform().getApi()) >= 20;
+    // dumpsys power is long, it is only read up to the line with the screen state
+    String output = shellQuietly("dumpsys power",
+        untilLineContains(lollipop ? "Display Power: state=" : "mScreenOn="));
 
     // Lollipop and up -- API >= 20
-    if (Integer.parseInt(this.targetPlatform.getApi()) >= 20) {
+    if (lollipop) {
       String value = extractValue("Display Power: state=(.*?)$", output);
       if (value.equals("OFF")) {
         // Wake screen
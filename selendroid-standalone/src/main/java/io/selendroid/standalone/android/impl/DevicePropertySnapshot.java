@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.standalone.android.impl;
+
+import org.openqa.selenium.Dimension;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable snapshot of the system properties, screen size and density of a hardware device, read
+ * with a single adb shell call.
+ */
+final class DevicePropertySnapshot {
+  private static final String SECTION = "--selendroid-section--";
+
+  /**
+   * Dumps all properties, the screen size and density, and whether the Google APIs (maps jar) are
+   * installed, separated by {@link #SECTION} lines.
+   */
+  static final String SHELL_COMMAND = "getprop; echo " + SECTION + "; wm size; echo " + SECTION
+      + "; wm density; echo " + SECTION + "; ls /system/framework/*map*";
+
+  private static final Pattern PROPERTY = Pattern.compile("^\\[(.*?)\\]: \\[(.*)\\]$");
+  private static final Pattern SIZE = Pattern.compile("Physical size: ([0-9]+)x([0-9]+)");
+  private static final Pattern DENSITY = Pattern.compile("Physical density: ([0-9]+)");
+
+  static final DevicePropertySnapshot EMPTY =
+      new DevicePropertySnapshot(Collections.<String, String>emptyMap(), null, 0, false);
+
+  private final Map<String, String> properties;
+  private final Dimension screenSize;
+  private final int density;
+  private final boolean googleApis;
+
+  private DevicePropertySnapshot(Map<String, String> properties, Dimension screenSize,
+      int density, boolean googleApis) {
+    this.properties = properties;
+    this.screenSize = screenSize;
+    this.density = density;
+    this.googleApis = googleApis;
+  }
+
+  /**
+   * Parses the output of {@link #SHELL_COMMAND}. Sections that are missing or could not be read,
+   * e.g. {@code wm} before Android 4.3, are left empty.
+   */
+  static DevicePropertySnapshot parse(String output) {
+    if (output == null || output.isEmpty()) {
+      return EMPTY;
+    }
+    String[] sections = output.replace("\r", "").split(Pattern.quote(SECTION) + "\n?", -1);
+
+    Map<String, String> properties = new HashMap<String, String>();
+    for (String line : sections[0].split("\n")) {
+      Matcher property = PROPERTY.matcher(line.trim());
+      if (property.matches()) {
+        properties.put(property.group(1), property.group(2));
+      }
+    }
+
+    Dimension screenSize = null;
+    if (sections.length > 1) {
+      Matcher size = SIZE.matcher(sections[1]);
+      if (size.find()) {
+        screenSize =
+            new Dimension(Integer.parseInt(size.group(1)), Integer.parseInt(size.group(2)));
+      }
+    }
+
+    int density = 0;
+    Matcher densityMatcher = sections.length > 2 ? DENSITY.matcher(sections[2]) : null;
+    if (densityMatcher != null && densityMatcher.find()) {
+      density = Integer.parseInt(densityMatcher.group(1));
+    } else if (properties.containsKey("ro.sf.lcd_density")) {
+      try {
+        density = Integer.parseInt(properties.get("ro.sf.lcd_density"));
+      } catch (NumberFormatException e) {
+        // leave the density unknown
+      }
+    }
+
+    boolean googleApis = sections.length > 3 && sections[3].trim().length() > 0
+        && !sections[3].contains("No such file");
+
+    return new DevicePropertySnapshot(Collections.unmodifiableMap(properties), screenSize,
+        density, googleApis);
+  }
+
+  /**
+   * @return the value of the property, or an empty string if it is not set
+   */
+  String getProperty(String key) {
+    String value = properties.get(key);
+    return value == null ? "" : value;
+  }
+
+  Map<String, String> getProperties() {
+    return properties;
+  }
+
+  /**
+   * @return the physical screen size, or null if it is unknown
+   */
+  Dimension getScreenSize() {
+    return screenSize;
+  }
+
+  /**
+   * @return the screen density in dpi, or 0 if it is unknown
+   */
+  int getDensity() {
+    return density;
+  }
+
+  boolean hasGoogleApis() {
+    return googleApis;
+  }
+}
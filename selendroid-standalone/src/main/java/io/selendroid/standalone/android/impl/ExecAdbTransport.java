@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.standalone.android.impl;
+
+import io.selendroid.standalone.exceptions.ShellCommandException;
+import io.selendroid.standalone.io.ShellCommand;
+
+/**
+ * Runs every operation as an adb process, used as long as ddmlib has no connection to the device.
+ */
+class ExecAdbTransport implements AdbTransport {
+  private static final long COMMAND_TIMEOUT = 20000;
+
+  private final AbstractDevice device;
+
+  ExecAdbTransport(AbstractDevice device) {
+    this.device = device;
+  }
+
+  @Override
+  public String shell(String command, long timeoutMillis) throws ShellCommandException {
+    return shell(command, timeoutMillis, null);
+  }
+
+  @Override
+  public String shell(String command, long timeoutMillis, ShellCommand.LineConsumer consumer)
+      throws ShellCommandException {
+    return ShellCommand.exec(device.adbCommand("shell", command), timeoutMillis, consumer);
+  }
+
+  @Override
+  public void install(String apkPath, long timeoutMillis) throws ShellCommandException {
+    // -r: replace existing application
+    // -d: allow version code downgrade
+    String output =
+        ShellCommand.exec(device.adbCommand("install", "-r", "-d", apkPath), timeoutMillis);
+    if (!output.contains("Success")) {
+      throw new ShellCommandException(output);
+    }
+  }
+
+  @Override
+  public void uninstall(String basePackage) throws ShellCommandException {
+    ShellCommand.exec(device.adbCommand("uninstall", basePackage), COMMAND_TIMEOUT);
+  }
+
+  @Override
+  public void push(String localPath, String remotePath) throws ShellCommandException {
+    ShellCommand.exec(device.adbCommand("push", localPath, remotePath), COMMAND_TIMEOUT);
+  }
+
+  @Override
+  public int forward(int local, int remote) throws ShellCommandException {
+    String port =
+        ShellCommand.exec(device.adbCommand("forward", "tcp:" + local, "tcp:" + remote));
+    return local == 0 ? Integer.parseInt(port) : local;
+  }
+
+  @Override
+  public void removeForward(int local, int remote) throws ShellCommandException {
+    ShellCommand.exec(device.adbCommand("forward", "--remove", "tcp:" + local), COMMAND_TIMEOUT);
+  }
+}
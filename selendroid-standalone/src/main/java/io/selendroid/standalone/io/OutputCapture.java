@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.standalone.io;
+
+import org.apache.commons.exec.LogOutputStream;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Collects the output of a command line by line as it is written. Only the last lines up to the
+ * length limit are kept, e.g. the result of an instrumentation that ran for the whole session. The
+ * lines can be passed on to a {@link ShellCommand.LineConsumer} that may stop the command.
+ */
+public class OutputCapture extends LogOutputStream {
+  private final int maxLength;
+  private final ShellCommand.LineConsumer consumer;
+  private final Deque<String> lines = new ArrayDeque<String>();
+  private int length = 0;
+  private long droppedLength = 0;
+  private volatile boolean stopped = false;
+
+  /**
+   * @param maxLength the number of characters kept, older lines are dropped
+   * @param consumer gets every line, may be {@code null}
+   */
+  public OutputCapture(int maxLength, ShellCommand.LineConsumer consumer) {
+    this.maxLength = maxLength;
+    this.consumer = consumer;
+  }
+
+  @Override
+  public synchronized void write(int b) throws IOException {
+    super.write(b);
+  }
+
+  @Override
+  public synchronized void write(byte[] b, int off, int len) throws IOException {
+    super.write(b, off, len);
+  }
+
+  @Override
+  public synchronized void flush() {
+    super.flush();
+  }
+
+  @Override
+  protected synchronized void processLine(String line, int level) {
+    if (consumer != null && !stopped && !consumer.onLine(line)) {
+      stopped = true;
+    }
+    if (line.length() > maxLength) {
+      droppedLength += line.length() - maxLength;
+      line = line.substring(line.length() - maxLength);
+    }
+    lines.addLast(line);
+    length += line.length() + 1;
+    while (length > maxLength && lines.size() > 1) {
+      int dropped = lines.removeFirst().length() + 1;
+      length -= dropped;
+      droppedLength += dropped;
+    }
+  }
+
+  /**
+   * @return whether the consumer asked to stop the command
+   */
+  public boolean isStopped() {
+    return stopped;
+  }
+
+  /**
+   * @return the number of characters that were dropped to stay within the length limit
+   */
+  public synchronized long getDroppedLength() {
+    return droppedLength;
+  }
+
+  /**
+   * @return the kept lines, preceded by a note if older ones were dropped
+   */
+  public synchronized String getOutput() {
+    // a last line without line break is only processed on flush
+    flush();
+    StringBuilder output = new StringBuilder(length + 64);
+    if (droppedLength > 0) {
+      output.append("[").append(droppedLength).append(" characters of output dropped]\n");
+    }
+    for (String line : lines) {
+      output.append(line).append('\n');
+    }
+    return output.toString().trim();
+  }
+}
@@ -16,8 +16,6 @@ package io.selendroid.standalone.io;
 import io.selendroid.standalone.exceptions.DeviceOfflineException;
 import io.selendroid.standalone.exceptions.ShellCommandException;
 
-import java.io.ByteArrayOutputStream;
-import java.io.OutputStream;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -27,6 +25,21 @@ import org.apache.commons.exec.environment.EnvironmentUtils;
 
 public class ShellCommand {
   private static final Logger log = Logger.getLogger(ShellCommand.class.getName());
+  /**
+   * Characters of output kept per command, the output before them is dropped.
+   */
+  private static volatile int maxOutputLength = 1024 * 1024;
+
+  /**
+   * Sets the number of characters of output kept per command, for commands started afterwards.
+   */
+  public static void setMaxOutputLength(int maxOutputLength) {
+    ShellCommand.maxOutputLength = maxOutputLength;
+  }
+
+  public static int getMaxOutputLength() {
+    return maxOutputLength;
+  }
 
   public static String exec(CommandLine commandLine) throws ShellCommandException {
     return exec(commandLine, 20000);
@@ -34,33 +47,47 @@ public class ShellCommand {
 
   public static String exec(CommandLine commandline, long timeoutInMillies)
       throws ShellCommandException {
-    OutputStream os = new ByteArrayOutputStream();
+    return exec(commandline, timeoutInMillies, null);
+  }
+
+  /**
+   * Runs the command and passes its output line by line to the consumer while the command runs.
+   * The command is stopped once the consumer returns {@code false}.
+   *
+   * @param consumer may be {@code null}
+   * @return the output, up to the configured limit, of the command or until it was stopped
+   */
+  public static String exec(CommandLine commandline, long timeoutInMillies, LineConsumer consumer)
+      throws ShellCommandException {
+    StoppableWatchdog watchdog = new StoppableWatchdog(timeoutInMillies);
+    OutputCapture os = new OutputCapture(maxOutputLength, stopWhenDone(consumer, watchdog));
     DefaultExecutor exec = new DefaultExecutor();
-    exec.setWatchdog(new ExecuteWatchdog(timeoutInMillies));
+    exec.setWatchdog(watchdog);
     exec.setStreamHandler(new PumpStreamHandler(os));
 
     try {
       exec.execute(commandline);
     } catch (Exception e) {
-      log.log(
-        Level.SEVERE,
-        String.format("Shell command execution failed: %s", commandline),
-        e);
-
-      if (e.getMessage().contains("device offline")) {
-        throw new DeviceOfflineException(e);
+      // A command stopped by the consumer ends with an error, but has the output that was wanted.
+      if (!os.isStopped()) {
+        String output = os.getOutput();
+        log.log(
+          Level.SEVERE,
+          String.format("Shell command execution failed: %s\n-->\n%s\n<--", commandline, output),
+          e);
+
+        if (e.getMessage() != null && e.getMessage().contains("device offline")) {
+          throw new DeviceOfflineException(e);
+        }
+        throw new ShellCommandException(
+            "Error executing shell command: " + commandline, new ShellCommandException(output));
       }
-      throw new ShellCommandException(
-          "Error executing shell command: " + commandline, new ShellCommandException(os.toString().trim()));
     }
 
-    String output = os.toString().trim();
-    log.log(
-      Level.INFO,
-      String.format(
-        "Shell command executed: %s\n-->\n%s\n<--",
-        commandline,
-        output));
+    String output = os.getOutput();
+    if (log.isLoggable(Level.FINE)) {
+      log.fine(String.format("Shell command executed: %s\n-->\n%s\n<--", commandline, output));
+    }
     return output;
   }
 
@@ -85,7 +112,7 @@ public class ShellCommand {
     String display,
     CommandLine commandLine,
     Listener listener) throws ShellCommandException {
-    final OutputStream os = new ByteArrayOutputStream();
+    final OutputCapture os = new OutputCapture(maxOutputLength, null);
     try {
       DefaultExecutor exec = new DefaultExecutor();
       exec.setStreamHandler(new PumpStreamHandler(os));
@@ -95,11 +122,7 @@ public class ShellCommand {
         EnvironmentUtils.addVariableToEnvironment(env, "DISPLAY=:" + display);
       }
 
-      log.log(
-        Level.INFO,
-        String.format(
-          "Executing shell command asynchronously: %s",
-          commandLine));
+      log.fine("Executing shell command asynchronously: " + commandLine);
 
       exec.execute(
         commandLine,
@@ -107,13 +130,13 @@ public class ShellCommand {
         new ExecuteResultHandler() {
           @Override
           public void onProcessComplete(int exitValue) {
-            String output = os.toString().trim();
-            log.log(
-              Level.INFO,
-              String.format(
+            String output = os.getOutput();
+            if (log.isLoggable(Level.FINE)) {
+              log.fine(String.format(
                 "Shell command executed: %s\n-->\n%s\n<--\n",
                 commandLine,
                 output));
+            }
 
             if (listener != null) {
               listener.onCommandExecutionFinished(exitValue, output);
@@ -122,7 +145,7 @@ public class ShellCommand {
 
           @Override
           public void onProcessFailed(ExecuteException e) {
-            String output = os.toString();
+            String output = os.getOutput();
             log.log(
               Level.SEVERE,
               String.format(
@@ -132,13 +155,13 @@ public class ShellCommand {
               e);
 
             if (listener != null) {
-              listener.onCommandExecutionFailed(e, os.toString());
+              listener.onCommandExecutionFailed(e, output);
             }
           }
         });
     } catch (Exception e) {
       String message = "Shell command execution failed: " + commandLine;
-      String output = os.toString();
+      String output = os.getOutput();
 
       if (output != null && !output.isEmpty()) {
         message += "\n-->" + output + "\n<--";
@@ -149,6 +172,66 @@ public class ShellCommand {
     }
   }
 
+  /**
+   * Wraps the consumer so that the process is destroyed once the consumer does not want more
+   * lines.
+   */
+  private static LineConsumer stopWhenDone(final LineConsumer consumer,
+      final StoppableWatchdog watchdog) {
+    if (consumer == null) {
+      return null;
+    }
+    return new LineConsumer() {
+      @Override
+      public boolean onLine(String line) {
+        if (consumer.onLine(line)) {
+          return true;
+        }
+        watchdog.stopProcess();
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Can stop the process even before the executor handed it over, which happens after the first
+   * output may have been read.
+   */
+  private static class StoppableWatchdog extends ExecuteWatchdog {
+    private Process process;
+    private boolean stopRequested = false;
+
+    StoppableWatchdog(long timeout) {
+      super(timeout);
+    }
+
+    @Override
+    public synchronized void start(Process process) {
+      this.process = process;
+      super.start(process);
+      if (stopRequested) {
+        process.destroy();
+      }
+    }
+
+    synchronized void stopProcess() {
+      stopRequested = true;
+      if (process != null) {
+        process.destroy();
+      }
+    }
+  }
+
+  /**
+   * Receives the output of a command line by line while the command runs.
+   */
+  public static interface LineConsumer {
+    /**
+     * @return {@code false} to stop the command, e.g. once the line that was looked for was seen
+     */
+    public boolean onLine(String line);
+  }
+
   // Listener for async shell command execution
   public static interface Listener {
     // Callback for when the command finished execution
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.standalone.server;
+
+import io.netty.util.concurrent.Future;
+import io.selendroid.server.common.Response;
+
+/**
+ * A response that is not known yet when the handler returns, e.g. because the command is still
+ * running on the device. The {@link SelendroidServlet} sends it once the future completes, without
+ * holding a thread while waiting.
+ */
+public class AsyncResponse implements Response {
+  private final String sessionId;
+  private final Future<Response> future;
+
+  public AsyncResponse(String sessionId, Future<Response> future) {
+    this.sessionId = sessionId;
+    this.future = future;
+  }
+
+  @Override
+  public String getSessionId() {
+    return sessionId;
+  }
+
+  public Future<Response> getFuture() {
+    return future;
+  }
+
+  /**
+   * Waits for the response, only meant for callers that can block.
+   */
+  @Override
+  public String render() {
+    return future.syncUninterruptibly().getNow().render();
+  }
+}
@@ -21,12 +21,21 @@ import io.selendroid.standalone.server.model.ActiveSession;
 import io.selendroid.standalone.server.model.SelendroidStandaloneDriver;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public abstract class BaseSelendroidStandaloneHandler extends BaseRequestHandler {
 
+  /**
+   * Bodies larger than this are parsed straight from the request bytes instead of being decoded
+   * into a String first.
+   */
+  private static final int STREAMING_PAYLOAD_THRESHOLD = 64 * 1024;
+
   private final Logger log = Logger.getLogger(this.getClass().getName());
 
   public BaseSelendroidStandaloneHandler(String mappedUri) {
@@ -35,16 +44,51 @@ public abstract class BaseSelendroidStandaloneHandler extends BaseRequestHandler
 
   /**
    * Implement this in subclasses to handle the request. Don't override {@link #handle(HttpRequest)} directly.
+   *
+   * @param payload the parsed request body, null if {@link #parsesPayload()} is false
    */
   protected abstract Response handleRequest(HttpRequest request, JSONObject payload) throws JSONException;
 
+  /**
+   * Whether the request body is parsed before {@link #handleRequest(HttpRequest, JSONObject)} is
+   * called. Handlers that don't read it return false, they can still call
+   * {@link #getPayload(HttpRequest)} if they need it after all.
+   */
+  protected boolean parsesPayload() {
+    return true;
+  }
+
   @Override
   public Response handle(HttpRequest request) throws JSONException {
-    JSONObject payload = getPayload(request);
+    JSONObject payload = parsesPayload() ? getPayload(request) : null;
     logHandlerCalled(payload);
     return handleRequest(request, payload);
   }
 
+  @Override
+  protected JSONObject parsePayload(HttpRequest request) throws JSONException {
+    if (contentLength(request) <= STREAMING_PAYLOAD_THRESHOLD) {
+      return super.parsePayload(request);
+    }
+    try {
+      return new JSONObject(new JSONTokener(new InputStreamReader(request.bodyStream(), "UTF-8")));
+    } catch (UnsupportedEncodingException e) {
+      throw new JSONException(e);
+    }
+  }
+
+  private static long contentLength(HttpRequest request) {
+    String contentLength = request.header("Content-Length");
+    if (contentLength == null) {
+      return 0;
+    }
+    try {
+      return Long.parseLong(contentLength.trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
   protected SelendroidStandaloneDriver getSelendroidDriver(HttpRequest request) {
     return (SelendroidStandaloneDriver) request.data().get(BaseServlet.DRIVER_KEY);
   }
@@ -59,6 +103,9 @@ public abstract class BaseSelendroidStandaloneHandler extends BaseRequestHandler
   }
 
   private void logHandlerCalled(JSONObject payload) {
+    if (!log.isLoggable(Level.FINE)) {
+      return;
+    }
     String message = "Selendroid standalone handler: " + this.getClass().getSimpleName();
     if (payload != null) {
       try {
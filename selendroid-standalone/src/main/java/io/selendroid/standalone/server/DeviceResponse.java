@@ -0,0 +1,100 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.standalone.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.selendroid.server.common.Response;
+
+import java.nio.charset.Charset;
+
+/**
+ * A JSON response of the selendroid-server on the device that is sent to the client byte for
+ * byte, without parsing and rendering it again on the standalone server. It holds a reference to
+ * the body buffer until {@link #release()} is called.
+ */
+public class DeviceResponse implements Response {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final String sessionId;
+  private final ByteBuf body;
+  private final int status;
+
+  private DeviceResponse(String sessionId, ByteBuf body, int status) {
+    this.sessionId = sessionId;
+    this.body = body;
+    this.status = status;
+  }
+
+  public static DeviceResponse passThrough(String sessionId, byte[] body) {
+    return passThrough(sessionId, Unpooled.wrappedBuffer(body));
+  }
+
+  /**
+   * Wraps the readable bytes of a device response if they can be passed through unchanged, which
+   * is the case if they start with the members the selendroid-server always renders first:
+   * <code>{"sessionId":"&lt;sessionId&gt;","status":&lt;status&gt;,</code>. Returns null for any
+   * other body, e.g. one carrying a different session id, which then has to be rewritten.
+   * <p>
+   * The returned response takes over the caller's reference to the buffer.
+   */
+  public static DeviceResponse passThrough(String sessionId, ByteBuf body) {
+    byte[] head = ("{\"sessionId\":\"" + sessionId + "\",\"status\":").getBytes(UTF_8);
+    int start = body.readerIndex();
+    int end = body.writerIndex();
+    if (end - start <= head.length) {
+      return null;
+    }
+    for (int i = 0; i < head.length; i++) {
+      if (body.getByte(start + i) != head[i]) {
+        return null;
+      }
+    }
+    int status = 0;
+    int digits = 0;
+    int i = start + head.length;
+    byte b;
+    while (i < end && (b = body.getByte(i)) >= '0' && b <= '9' && digits < 9) {
+      status = status * 10 + (b - '0');
+      digits++;
+      i++;
+    }
+    if (digits == 0 || i == end || (body.getByte(i) != ',' && body.getByte(i) != '}')) {
+      return null;
+    }
+    return new DeviceResponse(sessionId, body, status);
+  }
+
+  @Override
+  public String getSessionId() {
+    return sessionId;
+  }
+
+  public int getStatus() {
+    return status;
+  }
+
+  public ByteBuf getBody() {
+    return body;
+  }
+
+  public void release() {
+    body.release();
+  }
+
+  @Override
+  public String render() {
+    return body.toString(UTF_8);
+  }
+}
@@ -13,6 +13,9 @@
  */
 package io.selendroid.standalone.server;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
 import io.selendroid.server.common.BaseRequestHandler;
 import io.selendroid.server.common.BaseServlet;
 import io.selendroid.server.common.Response;
@@ -20,9 +23,14 @@ import io.selendroid.server.common.SelendroidResponse;
 import io.selendroid.server.common.UiResponse;
 import io.selendroid.server.common.http.HttpRequest;
 import io.selendroid.server.common.http.HttpResponse;
+import io.selendroid.server.common.http.TrafficMetrics;
 import io.selendroid.standalone.SelendroidConfiguration;
 import io.selendroid.standalone.server.handler.*;
+import io.selendroid.standalone.server.model.ActiveSession;
 import io.selendroid.standalone.server.model.SelendroidStandaloneDriver;
+import io.selendroid.standalone.server.util.BackoffProxyRetryPolicy;
+import io.selendroid.standalone.server.util.DeviceHttpClient;
+import io.selendroid.standalone.server.util.ProxyRetryPolicy;
 
 import java.nio.charset.Charset;
 import java.util.HashMap;
@@ -35,10 +43,31 @@ public class SelendroidServlet extends BaseServlet {
   protected Map<String, BaseRequestHandler> redirectHandler = new HashMap<String, BaseRequestHandler>();
   private SelendroidStandaloneDriver driver;
   private SelendroidConfiguration conf;
+  private DeviceHttpClient deviceClient;
+  private ProxyRetryPolicy retryPolicy;
 
   public SelendroidServlet(SelendroidStandaloneDriver driver, SelendroidConfiguration conf) {
+    this(driver, conf, null);
+  }
+
+  /**
+   * @param deviceClient proxies commands to the devices without blocking, if {@code null} they
+   *        are proxied with blocking requests
+   */
+  public SelendroidServlet(SelendroidStandaloneDriver driver, SelendroidConfiguration conf,
+      DeviceHttpClient deviceClient) {
+    this(driver, conf, deviceClient, new BackoffProxyRetryPolicy(new TrafficMetrics()));
+  }
+
+  /**
+   * @param retryPolicy decides which commands are sent to the device again after a failure
+   */
+  public SelendroidServlet(SelendroidStandaloneDriver driver, SelendroidConfiguration conf,
+      DeviceHttpClient deviceClient, ProxyRetryPolicy retryPolicy) {
     this.driver = driver;
     this.conf = conf;
+    this.deviceClient = deviceClient;
+    this.retryPolicy = retryPolicy;
     init();
   }
 
@@ -57,7 +86,7 @@ public class SelendroidServlet extends BaseServlet {
     register(getHandler, new InspectorScreenshotHandler("/inspector/session/:sessionId/screenshot"));
     register(getHandler, new InspectorUiHandler("/inspector/session/:sessionId"));
     register(deleteHandler, new DeleteSessionHandler("/wd/hub/session/:sessionId"));
-    register(redirectHandler, new ProxyToDeviceHandler("/wd/hub/session/"));
+    register(redirectHandler, new ProxyToDeviceHandler("/wd/hub/session/", deviceClient, retryPolicy));
 
     register(postHandler, new GetLogs("/wd/hub/session/:sessionId/log"));
     register(postHandler, new AdbSendKeyEvent("/wd/hub/session/:sessionId/selendroid/adb/sendKeyEvent"));
@@ -105,6 +134,7 @@ public class SelendroidServlet extends BaseServlet {
             String sessionId =
                 getParameter("/wd/hub/session/:sessionId", request.uri(), ":sessionId", false);
             handler = entry.getValue();
+            request.data().put(TrafficMetrics.ROUTE_KEY, entry.getKey() + "*");
             if (driver.isValidSession(sessionId)) {
               request.data().put(SESSION_ID_KEY, sessionId);
             }
@@ -120,11 +150,12 @@ public class SelendroidServlet extends BaseServlet {
       handler = foundHandler;
     }
 
-    String sessionId = getParameter(handler.getMappedUri(), request.uri(), ":sessionId");
-    if (sessionId != null) {
-      request.data().put(SESSION_ID_KEY, sessionId);
-    }
+    // The session id of registered handlers has already been stored by findMatcher().
     request.data().put(DRIVER_KEY, driver);
+    ActiveSession session = driver.getActiveSession((String) request.data().get(SESSION_ID_KEY));
+    if (session != null) {
+      session.touch();
+    }
 
     Response result;
     try {
@@ -134,8 +165,44 @@ public class SelendroidServlet extends BaseServlet {
       replyWithServerError(response);
       return;
     }
+    writeResult(request, response, result);
+  }
+
+  private void writeResult(final HttpRequest request, final HttpResponse response,
+      Response result) {
     if (result instanceof SelendroidResponse) {
       handleResponse(request, response, (SelendroidResponse) result);
+    } else if (result instanceof DeviceResponse) {
+      DeviceResponse deviceResponse = (DeviceResponse) result;
+      ByteBuf body = deviceResponse.getBody();
+      try {
+        response.setContentType("application/json");
+        response.content().writeBytes(body, body.readerIndex(), body.readableBytes());
+        response.setStatus(200);
+      } finally {
+        deviceResponse.release();
+      }
+      response.end();
+    } else if (result instanceof AsyncResponse) {
+      response.suspend();
+      ((AsyncResponse) result).getFuture().addListener(
+          new GenericFutureListener<Future<Response>>() {
+            @Override
+            public void operationComplete(Future<Response> future) {
+              try {
+                if (future.isSuccess()) {
+                  writeResult(request, response, future.getNow());
+                  return;
+                }
+                log.log(Level.SEVERE, "Error handling request", future.cause());
+              } catch (RuntimeException e) {
+                log.log(Level.SEVERE, "Error handling request", e);
+              }
+              if (!response.isClosed()) {
+                replyWithServerError(response);
+              }
+            }
+          });
     } else if (result instanceof JsResult) {
       JsResult js = (JsResult) result;
       response.setContentType("application/x-javascript");
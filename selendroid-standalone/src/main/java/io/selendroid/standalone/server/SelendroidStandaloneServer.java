@@ -13,14 +13,21 @@
  */
 package io.selendroid.standalone.server;
 
+import io.selendroid.server.common.MetricsServlet;
 import io.selendroid.server.common.StatusServlet;
 import io.selendroid.server.common.http.HttpServer;
+import io.selendroid.server.common.http.HttpServerConfig;
 import io.selendroid.standalone.SelendroidConfiguration;
 import io.selendroid.standalone.exceptions.AndroidDeviceException;
 import io.selendroid.standalone.exceptions.AndroidSdkException;
 import io.selendroid.standalone.server.grid.SelfRegisteringRemote;
 import io.selendroid.standalone.server.model.SelendroidStandaloneDriver;
+import io.selendroid.standalone.server.util.BackoffProxyRetryPolicy;
+import io.selendroid.standalone.server.util.DeviceHttpClient;
+import io.selendroid.standalone.server.util.HttpClientUtil;
+import io.selendroid.standalone.server.util.ProxyRetryPolicy;
 
+import java.io.File;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.logging.Level;
@@ -31,6 +38,7 @@ public class SelendroidStandaloneServer {
   private HttpServer webServer;
   private SelendroidConfiguration config;
   private SelendroidStandaloneDriver driver = null;
+  private DeviceHttpClient deviceClient;
 
   /**
    * for testing only
@@ -41,21 +49,54 @@ public class SelendroidStandaloneServer {
                                        SelendroidStandaloneDriver driver) throws AndroidSdkException {
     this.config = config;
     this.driver = driver;
-    webServer = new HttpServer(config.getPort());
+    webServer = new HttpServer(config.getPort(), createHttpServerConfig(config));
     init();
   }
 
   public SelendroidStandaloneServer(SelendroidConfiguration config)
       throws AndroidSdkException, AndroidDeviceException {
     this.config = config;
-    webServer = new HttpServer(config.getPort());
+    webServer = new HttpServer(config.getPort(), createHttpServerConfig(config));
     driver = initializeSelendroidServer();
     init();
   }
 
+  private static HttpServerConfig createHttpServerConfig(SelendroidConfiguration config) {
+    File spoolDirectory = config.getRequestSpoolDirectory() == null
+        ? null : new File(config.getRequestSpoolDirectory());
+    return new HttpServerConfig()
+        .setKeepAliveTimeoutSeconds(config.getKeepAliveTimeout())
+        .setMaxRequestsPerConnection(config.getMaxRequestsPerConnection())
+        .setCommandThreads(config.getCommandThreads())
+        .setMaxQueuedRequests(config.getMaxQueuedCommands())
+        .setCompressionLevel(config.getCompressionLevel())
+        .setCompressionMinSize(config.getCompressionMinSize())
+        .setMaxContentLength(config.getMaxRequestSize())
+        .setRequestSpoolThreshold(config.getRequestSpoolThreshold())
+        .setSpoolDirectory(spoolDirectory)
+        .setNativeTransport(config.isEpoll())
+        .setBossThreads(config.getBossThreads())
+        .setWorkerThreads(config.getWorkerThreads())
+        .setTcpNoDelay(config.isTcpNoDelay())
+        .setReusePort(config.isReusePort())
+        .setPooledBuffers(config.isPooledBuffers());
+  }
+
   protected void init() throws AndroidSdkException {
+    HttpClientUtil.configureDevicePools(
+        config.getDeviceConnectionPoolSize(), config.getDeviceConnectionIdleTimeout());
     webServer.addHandler(new StatusServlet(driver));
-    webServer.addHandler(new SelendroidServlet(driver, config));
+    webServer.addHandler(new MetricsServlet(webServer.getMetrics()));
+    driver.setTrafficMetrics(webServer.getMetrics());
+    deviceClient = new DeviceHttpClient(webServer);
+    driver.setDeviceClient(deviceClient);
+    ProxyRetryPolicy retryPolicy = new BackoffProxyRetryPolicy(webServer.getMetrics(),
+        config.getProxyRetryInitialDelay(),
+        config.getProxyRetryMaxDelay(),
+        config.getProxyRetryTimeout(),
+        config.getProxyRetryBudget(),
+        config.getProxyRetryBudgetRefill());
+    webServer.addHandler(new SelendroidServlet(driver, config, deviceClient, retryPolicy));
   }
 
   protected SelendroidStandaloneDriver initializeSelendroidServer() throws AndroidSdkException,
@@ -97,6 +138,7 @@ public class SelendroidStandaloneServer {
   public void stop() {
     log.info("Stopping selendroid-standalone server");
     driver.quitSelendroid();
+    deviceClient.shutdown();
     webServer.stop();
   }
 
@@ -34,10 +34,10 @@ public class NetworkConnectionHandler extends BaseSelendroidStandaloneHandler {
     String sessionId = getSessionId(request);
     ActiveSession session = getActiveSession(request);
     // the URL happens to be the same, except we need to use GET instead of POST
-    String url = "http://localhost:" + session.getSelendroidServerPort() + request.uri();
     Integer connectionType = getPayload(request).getJSONObject("parameters").getInt("type");
     try {
-      JSONObject r = HttpClientUtil.parseJsonResponse(HttpClientUtil.executeRequest(url, HttpMethod.GET));
+      JSONObject r = HttpClientUtil.parseJsonResponse(HttpClientUtil.executeDeviceRequest(
+          session.getSelendroidServerPort(), request.uri(), HttpMethod.GET));
       // Airplane mode is the first bit, so even is disabled, odd is disabled
       if (r.getInt("value") % 2 == connectionType % 2) {
         // airplane modes are the same
@@ -13,48 +13,92 @@
  */
 package io.selendroid.standalone.server.handler;
 
-import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
 import io.selendroid.server.common.Response;
 import io.selendroid.server.common.SelendroidResponse;
 import io.selendroid.server.common.StatusCode;
 import io.selendroid.server.common.exceptions.AppCrashedException;
 import io.selendroid.server.common.exceptions.SelendroidException;
 import io.selendroid.server.common.http.HttpRequest;
+import io.selendroid.server.common.http.TrafficMetrics;
 import io.selendroid.standalone.android.AndroidDevice;
+import io.selendroid.standalone.android.InstrumentationProcessListener;
 import io.selendroid.standalone.android.InstrumentationProcessOutput;
+import io.selendroid.standalone.server.AsyncResponse;
 import io.selendroid.standalone.server.BaseSelendroidStandaloneHandler;
+import io.selendroid.standalone.server.DeviceResponse;
 import io.selendroid.standalone.server.model.ActiveSession;
+import io.selendroid.standalone.server.util.BackoffProxyRetryPolicy;
+import io.selendroid.standalone.server.util.DeviceHttpClient;
 import io.selendroid.standalone.server.util.HttpClientUtil;
+import io.selendroid.standalone.server.util.ProxyRetryPolicy;
 
 import org.apache.http.HttpResponse;
-import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.util.EntityUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.openqa.selenium.TimeoutException;
 import org.openqa.selenium.logging.LogEntry;
-import org.openqa.selenium.support.ui.FluentWait;
-import org.openqa.selenium.support.ui.Wait;
 
-import java.net.SocketException;
+import java.io.IOException;
+import java.net.ConnectException;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Proxies the request as-is to the device.
+ * Proxies the request as-is to the device. The device response is passed through to the client
+ * without being parsed, unless it has to be rewritten or the request failed.
  */
 public class ProxyToDeviceHandler extends BaseSelendroidStandaloneHandler {
   private static final Logger log = Logger.getLogger(ProxyToDeviceHandler.class.getName());
 
-  private static final long PROXY_REQUEST_ATTEMPT_TIMEOUT_MS = 10000;
-  private static final long PROXY_REQUEST_ATTEMPT_INTERVAL_MS = 200;
+  private final DeviceHttpClient client;
+  private final ProxyRetryPolicy retryPolicy;
 
   public ProxyToDeviceHandler(String mappedUri) {
+    this(mappedUri, null);
+  }
+
+  public ProxyToDeviceHandler(String mappedUri, DeviceHttpClient client) {
+    this(mappedUri, client, new BackoffProxyRetryPolicy(new TrafficMetrics()));
+  }
+
+  /**
+   * @param client proxies the requests without blocking, if {@code null} they are sent with the
+   *        blocking {@link HttpClientUtil}
+   * @param retryPolicy decides which failed requests are sent again
+   */
+  public ProxyToDeviceHandler(String mappedUri, DeviceHttpClient client,
+      ProxyRetryPolicy retryPolicy) {
     super(mappedUri);
+    this.client = client;
+    this.retryPolicy = retryPolicy;
+  }
+
+  /**
+   * The body is forwarded to the device as it is, it is only parsed without a device client.
+   */
+  @Override
+  protected boolean parsesPayload() {
+    return false;
   }
 
   @Override
@@ -82,64 +126,274 @@ public class ProxyToDeviceHandler extends BaseSelendroidStandaloneHandler {
                   "This happens if a hardware device was disconnected but a " +
                   "test session was still active on the device."));
     }
+    if (client != null) {
+      return new AsyncResponse(sessionId, new AsyncProxyRequest(request, session).start());
+    }
     String url = "http://localhost:" + session.getSelendroidServerPort() + request.uri();
 
     String method = request.method();
 
-    final AndroidDevice device = session.getDevice();
+    long start = System.nanoTime();
+    Exception failure = null;
+    for (int attempt = 1; ; attempt++) {
+      // Check if the instrumentation process died in the middle of the request
+      if (session.instrumentationProcessFinished()) {
+        break;
+      }
+      ProxyRetryPolicy.Failure failed = ProxyRetryPolicy.Failure.SENT;
+      try {
+        HttpResponse response;
+        try {
+          response = proxyRequestToDevice(request, session, url, method);
+        } catch (IOException e) {
+          failed = failureOf(e);
+          throw e;
+        }
+        return toResponse(sessionId, response);
+      } catch (Exception e) {
+        failure = e;
+        long delay = retryPolicy.retryDelayMillis(
+            session, request, attempt, elapsedMillis(start), failed);
+        if (delay == ProxyRetryPolicy.GIVE_UP) {
+          log.log(Level.SEVERE, "Failed to proxy request to Selendroid Server.", e);
+          break;
+        }
+        log.log(Level.SEVERE, "Failed to proxy request to Selendroid Server, retrying.", e);
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+    }
+    // Check if we failed because of the instrumentation process dying
+    if (session.instrumentationProcessFinished()) {
+      return respondWithInstrumentationProcessFinished(
+        sessionId,
+        session.getInstrumentationProcessOutput(),
+        session.getInstrumentationProcessError(),
+        session.getDevice());
+    }
+    return respondWithUnreachable(sessionId, failure);
+  }
+
+  private Response toResponse(String sessionId, HttpResponse response) throws Exception {
+    if (response.getStatusLine().getStatusCode() == 404) { // Unknown command
+      // Consume the body so the pooled keep-alive connection can be reused.
+      EntityUtils.consumeQuietly(response.getEntity());
+      return new SelendroidResponse(sessionId, StatusCode.UNKNOWN_COMMAND, (Object) null);
+    }
+    byte[] body = EntityUtils.toByteArray(response.getEntity());
+
+    DeviceResponse passThrough = DeviceResponse.passThrough(sessionId, body);
+    if (passThrough != null) {
+      if (log.isLoggable(Level.FINE)) {
+        log.fine(
+          String.format(
+            "Response from selendroid-server, status %d:\n%s",
+            passThrough.getStatus(),
+            passThrough.render()));
+      }
+      return passThrough;
+    }
+
+    // The device answered in an unexpected shape, render it again with our session id.
+    JSONObject json = new JSONObject(new String(body, "UTF-8"));
+    Object value = json.opt("value");
+    int statusCode = json.getInt("status");
+    log.fine(
+      String.format(
+        "Response from selendroid-server, status %d:\n%s",
+        statusCode,
+        value));
+
+    return new SelendroidResponse(sessionId, StatusCode.fromInteger(statusCode), value);
+  }
+
+  /**
+   * Whether the failure happened while connecting, before anything was sent to the device.
+   */
+  private static boolean isConnectFailure(Throwable failure) {
+    return failure instanceof ConnectException || failure instanceof ConnectTimeoutException;
+  }
+
+  private static ProxyRetryPolicy.Failure failureOf(Throwable failure) {
+    if (isConnectFailure(failure)) {
+      return ProxyRetryPolicy.Failure.NOT_SENT;
+    }
+    if (failure instanceof DeviceHttpClient.StaleConnectionException) {
+      return ProxyRetryPolicy.Failure.STALE_CONNECTION;
+    }
+    return ProxyRetryPolicy.Failure.SENT;
+  }
+
+  private static long elapsedMillis(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Proxies one request through the {@link DeviceHttpClient}. Failed attempts are retried on the
+   * client's timer wheel as the {@link ProxyRetryPolicy} decides, and a crash of the
+   * instrumentation process completes the request right away.
+   */
+  private class AsyncProxyRequest implements TimerTask, InstrumentationProcessListener {
+    private final HttpRequest request;
+    private final ActiveSession session;
+    private final String sessionId;
+    private final Promise<Response> result = ImmediateEventExecutor.INSTANCE.newPromise();
+    private final long start = System.nanoTime();
+    private int attempt;
+    // Once a kept-alive connection was stale the others may be too, only new ones are used then.
+    private boolean newConnection;
+
+    AsyncProxyRequest(HttpRequest request, ActiveSession session) {
+      this.request = request;
+      this.session = session;
+      this.sessionId = session.getSessionId();
+    }
 
-    try {
-      Wait<AndroidDevice> wait =
-        new FluentWait<AndroidDevice>(device)
-          .withTimeout(PROXY_REQUEST_ATTEMPT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
-          .pollingEvery(PROXY_REQUEST_ATTEMPT_INTERVAL_MS, TimeUnit.MILLISECONDS);
-      return wait.until(new Function<AndroidDevice, Response>() {
+    Future<Response> start() {
+      session.addInstrumentationProcessListener(this);
+      result.addListener(new GenericFutureListener<Future<Response>>() {
         @Override
-        public Response apply(AndroidDevice device) {
-          try {
-            // Check if the instrumentation process died in the middle of the request
-            if (session.instrumentationProcessFinished()) {
-              return respondWithInstrumentationProcessFinished(
-                sessionId,
-                session.getInstrumentationProcessOutput(),
-                session.getInstrumentationProcessError(),
-                device);
-            }
+        public void operationComplete(Future<Response> future) {
+          session.removeInstrumentationProcessListener(AsyncProxyRequest.this);
+        }
+      });
+      attempt();
+      return result;
+    }
 
-            JSONObject response = proxyRequestToDevice(request, session, url, method);
-            if (response == null) { // Unknown command
-              return new SelendroidResponse(sessionId, StatusCode.UNKNOWN_COMMAND);
+    @Override
+    public void run(Timeout timeout) {
+      attempt();
+    }
+
+    private void attempt() {
+      if (result.isDone()) {
+        return;
+      }
+      // Check if the instrumentation process died before or in the middle of the request
+      if (session.instrumentationProcessFinished()) {
+        completeWithInstrumentationProcessFinished();
+        return;
+      }
+      attempt++;
+      log.fine("Proxy " + request.method() + " to the device: " + request.uri());
+      int port = session.getSelendroidServerPort();
+      client.execute(port, newDeviceRequest(), !newConnection).addListener(
+          new GenericFutureListener<Future<FullHttpResponse>>() {
+            @Override
+            public void operationComplete(Future<FullHttpResponse> future) {
+              if (!future.isSuccess()) {
+                ProxyRetryPolicy.Failure failed = failureOf(future.cause());
+                if (failed == ProxyRetryPolicy.Failure.STALE_CONNECTION) {
+                  newConnection = true;
+                }
+                retry(future.cause(), failed);
+                return;
+              }
+              FullHttpResponse response = future.getNow();
+              try {
+                complete(toResponse(response));
+              } catch (Exception e) {
+                retry(e, ProxyRetryPolicy.Failure.SENT);
+              } finally {
+                response.release();
+              }
             }
+          });
+    }
+
+    private FullHttpRequest newDeviceRequest() {
+      // The body of the client request stays valid until its response has been sent.
+      ByteBuf body = "POST".equalsIgnoreCase(request.method())
+          ? request.content().duplicate().retain() : Unpooled.EMPTY_BUFFER;
+      FullHttpRequest deviceRequest = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1,
+          HttpMethod.valueOf(request.method().toUpperCase()), request.uri(), body);
+      HttpHeaders headers = deviceRequest.headers();
+      headers.set(HttpHeaders.Names.HOST, "localhost:" + session.getSelendroidServerPort());
+      // No Accept-Encoding, compressing on the device costs more than it saves on the adb forward
+      // and the body can be passed through as is.
+      if (body.isReadable()) {
+        headers.set(HttpHeaders.Names.CONTENT_TYPE, "application/json; charset=UTF-8");
+      }
+      HttpHeaders.setContentLength(deviceRequest, body.readableBytes());
+      return deviceRequest;
+    }
 
-            Object value = response.opt("value");
-            int statusCode = response.getInt("status");
-            log.fine(
-              String.format(
-                "Response from selendroid-server, status %d:\n%s",
-                statusCode,
-                value));
-
-            return new SelendroidResponse(sessionId, StatusCode.fromInteger(statusCode), value);
-          } catch (Exception e) {
-            log.log(Level.SEVERE, "Failed to proxy request to Selendroid Server, retrying.", e);
-            return null;
-          }
+    private Response toResponse(FullHttpResponse response) throws JSONException {
+      if (response.getStatus().code() == 404) { // Unknown command
+        return new SelendroidResponse(sessionId, StatusCode.UNKNOWN_COMMAND, (Object) null);
+      }
+      DeviceResponse passThrough =
+          DeviceResponse.passThrough(sessionId, response.content().retain());
+      if (passThrough != null) {
+        if (log.isLoggable(Level.FINE)) {
+          log.fine(
+            String.format(
+              "Response from selendroid-server, status %d:\n%s",
+              passThrough.getStatus(),
+              passThrough.render()));
         }
-      });
-    } catch (TimeoutException e) {
-      // Check if we timed out because of the instrumentation process dying
+        return passThrough;
+      }
+      response.content().release();
+
+      // The device answered in an unexpected shape, render it again with our session id.
+      JSONObject json = new JSONObject(response.content().toString(CharsetUtil.UTF_8));
+      return new SelendroidResponse(
+          sessionId, StatusCode.fromInteger(json.getInt("status")), json.opt("value"));
+    }
+
+    private void retry(Throwable cause, ProxyRetryPolicy.Failure failed) {
+      long delay = retryPolicy.retryDelayMillis(
+          session, request, attempt, elapsedMillis(start), failed);
+      if (delay != ProxyRetryPolicy.GIVE_UP) {
+        log.log(Level.SEVERE, "Failed to proxy request to Selendroid Server, retrying.", cause);
+        client.schedule(this, delay, TimeUnit.MILLISECONDS);
+        return;
+      }
+      log.log(Level.SEVERE, "Failed to proxy request to Selendroid Server.", cause);
+      // Check if we failed because of the instrumentation process dying
       if (session.instrumentationProcessFinished()) {
-        return respondWithInstrumentationProcessFinished(
+        completeWithInstrumentationProcessFinished();
+        return;
+      }
+      try {
+        complete(respondWithUnreachable(sessionId, cause));
+      } catch (JSONException e) {
+        result.tryFailure(e);
+      }
+    }
+
+    private void completeWithInstrumentationProcessFinished() {
+      try {
+        complete(respondWithInstrumentationProcessFinished(
           sessionId,
           session.getInstrumentationProcessOutput(),
           session.getInstrumentationProcessError(),
-          device);
+          session.getDevice()));
+      } catch (Exception e) {
+        result.tryFailure(e);
       }
+    }
 
-      // Last resort, we really don't know what happened
-      return respondWithFailure(
-        sessionId,
-        new SelendroidException("Selendroid server on the device became unreachable"));
+    private void complete(Response response) {
+      if (!result.trySuccess(response) && response instanceof DeviceResponse) {
+        ((DeviceResponse) response).release();
+      }
+    }
+
+    @Override
+    public void onInstrumentationProcessComplete(String output) {
+      completeWithInstrumentationProcessFinished();
+    }
+
+    @Override
+    public void onInstrumentationProcessFailed(String output, Exception error) {
+      completeWithInstrumentationProcessFinished();
     }
   }
 
@@ -169,16 +423,26 @@ public class ProxyToDeviceHandler extends BaseSelendroidStandaloneHandler {
   }
 
 
+  /**
+   * Last resort, we really don't know what happened.
+   */
+  private SelendroidResponse respondWithUnreachable(String sessionId, Throwable cause)
+      throws JSONException {
+    return respondWithFailure(sessionId,
+        new SelendroidException("Selendroid server on the device became unreachable", cause));
+  }
+
   private SelendroidResponse respondWithFailure(String sessionId, Exception e) throws JSONException {
     return new SelendroidResponse(sessionId, StatusCode.UNKNOWN_ERROR, e);
   }
 
-  private JSONObject proxyRequestToDevice(HttpRequest request, ActiveSession session, String url, String method)
+  private HttpResponse proxyRequestToDevice(HttpRequest request, ActiveSession session, String url, String method)
       throws Exception {
     HttpResponse r;
     if ("get".equalsIgnoreCase(method)) {
       log.fine("Proxy GET to the device: " + url);
-      r = HttpClientUtil.executeRequest(url, HttpMethod.GET);
+      r = HttpClientUtil.executeDeviceRequest(
+          session.getSelendroidServerPort(), request.uri(), HttpMethod.GET);
     } else if ("post".equalsIgnoreCase(method)) {
       JSONObject payload = getPayload(request);
       log.fine("Proxy POST to the device: " + url + ", payload:\n" + payload);
@@ -186,13 +450,11 @@ public class ProxyToDeviceHandler extends BaseSelendroidStandaloneHandler {
           url, session.getSelendroidServerPort(), HttpMethod.POST, payload.toString());
     } else if ("delete".equalsIgnoreCase(method)) {
       log.fine("Proxy DELETE to the device: " + url);
-      r = HttpClientUtil.executeRequest(url, HttpMethod.DELETE);
+      r = HttpClientUtil.executeDeviceRequest(
+          session.getSelendroidServerPort(), request.uri(), HttpMethod.DELETE);
     } else {
       throw new SelendroidException("HTTP method not supported: " + method);
     }
-    if (r.getStatusLine().getStatusCode() == 404) { // Unknown command
-      return null;
-    }
-    return HttpClientUtil.parseJsonResponse(r);
+    return r;
   }
 }
@@ -18,8 +18,11 @@ import io.selendroid.standalone.android.AndroidApp;
 import io.selendroid.standalone.android.AndroidDevice;
 import io.selendroid.standalone.android.InstrumentationProcessListener;
 
-import java.util.Timer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ActiveSession {
   private final String sessionId;
@@ -27,40 +30,58 @@ public class ActiveSession {
   private AndroidDevice device;
   private SelendroidCapabilities desiredCapabilities;
   private final int selendroidServerPort;
-  private boolean invalid = false;
-  private final Timer stopSessionTimer = new Timer(true);
+  private volatile boolean invalid = false;
+  private volatile long lastAccessNanos = System.nanoTime();
+  private volatile Future<?> timeout;
+
+  private final AtomicInteger proxyRetries = new AtomicInteger();
+  private final Object proxyRetryLock = new Object();
+  /**
+   * Retries the session may still make, negative until the first retry, guarded by
+   * proxyRetryLock.
+   */
+  private double proxyRetryTokens = -1;
+  private long proxyRetryTokensNanos;
 
   private AtomicBoolean instrumentationProcessFinished = new AtomicBoolean(false);
-  private Exception instrumentationProcessError;
-  private String instrumentationProcessOutput;
+  private volatile Exception instrumentationProcessError;
+  private volatile String instrumentationProcessOutput;
+  private final List<InstrumentationProcessListener> instrumentationProcessListeners =
+      new CopyOnWriteArrayList<InstrumentationProcessListener>();
 
-  ActiveSession(String sessionId, SelendroidCapabilities desiredCapabilities, AndroidApp aut,
-      AndroidDevice device, int selendroidPort, SelendroidStandaloneDriver driver) {
-    this.selendroidServerPort = selendroidPort;
-    this.sessionId = sessionId;
-    this.aut = aut;
-    this.device = device;
-    this.desiredCapabilities = desiredCapabilities;
-    stopSessionTimer.schedule(new SessionTimeoutTask(driver, sessionId), driver
-        .getSelendroidConfiguration().getSessionTimeoutMillis());
-    this.device.addInstrumentationProcessListener(
+  private final InstrumentationProcessListener deviceListener =
       new InstrumentationProcessListener() {
         @Override
         public void onInstrumentationProcessComplete(String output) {
-          instrumentationProcessFinished.set(true);
           instrumentationProcessOutput = output;
           instrumentationProcessError = null;
+          instrumentationProcessFinished.set(true);
+          for (InstrumentationProcessListener listener : instrumentationProcessListeners) {
+            listener.onInstrumentationProcessComplete(output);
+          }
         }
 
         @Override
         public void onInstrumentationProcessFailed(
           String output,
           Exception error) {
-          instrumentationProcessFinished.set(true);
           instrumentationProcessOutput = output;
           instrumentationProcessError = error;
+          instrumentationProcessFinished.set(true);
+          for (InstrumentationProcessListener listener : instrumentationProcessListeners) {
+            listener.onInstrumentationProcessFailed(output, error);
+          }
         }
-      });
+      };
+
+  ActiveSession(String sessionId, SelendroidCapabilities desiredCapabilities, AndroidApp aut,
+      AndroidDevice device, int selendroidPort) {
+    this.selendroidServerPort = selendroidPort;
+    this.sessionId = sessionId;
+    this.aut = aut;
+    this.device = device;
+    this.desiredCapabilities = desiredCapabilities;
+    this.device.addInstrumentationProcessListener(deviceListener);
   }
 
   @Override
@@ -114,14 +135,84 @@ public class ActiveSession {
     this.invalid = true;
   }
 
+  /**
+   * Records that the session is in use, which restarts its idle timeout.
+   */
+  public void touch() {
+    lastAccessNanos = System.nanoTime();
+  }
+
+  long getIdleNanos() {
+    return System.nanoTime() - lastAccessNanos;
+  }
+
+  void setTimeout(Future<?> timeout) {
+    this.timeout = timeout;
+  }
+
+  /**
+   * Stops listening to the instrumentation process on the device, once the session is stopped.
+   */
+  void detachFromDevice() {
+    device.removeInstrumentationProcessListener(deviceListener);
+  }
+
   public void stopSessionTimer() {
-    stopSessionTimer.cancel();
+    Future<?> current = timeout;
+    if (current != null) {
+      current.cancel(false);
+    }
   }
 
   public boolean instrumentationProcessFinished() {
     return instrumentationProcessFinished.get();
   }
 
+  /**
+   * Notifies the listener when the instrumentation process of this session finishes. Callers
+   * should check {@link #instrumentationProcessFinished()} after adding it, the listener is not
+   * called for a process that had already finished.
+   */
+  public void addInstrumentationProcessListener(InstrumentationProcessListener listener) {
+    instrumentationProcessListeners.add(listener);
+  }
+
+  public void removeInstrumentationProcessListener(InstrumentationProcessListener listener) {
+    instrumentationProcessListeners.remove(listener);
+  }
+
+  /**
+   * Takes a retry of a command proxied to the device from the retry budget of the session. The
+   * budget is a token bucket: it starts with {@code budget} retries and one retry is given back
+   * every {@code refillMillis}, up to {@code budget}. A device that keeps failing runs it dry,
+   * while a long session with occasional failures doesn't.
+   *
+   * @param refillMillis milliseconds to give back one retry, 0 to never give any back
+   * @return whether the retry may be made
+   */
+  public boolean acquireProxyRetry(int budget, long refillMillis) {
+    long now = System.nanoTime();
+    synchronized (proxyRetryLock) {
+      if (proxyRetryTokens < 0) {
+        proxyRetryTokens = budget;
+      } else if (refillMillis > 0) {
+        double refilled = (now - proxyRetryTokensNanos) / (refillMillis * 1000000.0);
+        proxyRetryTokens = Math.min(budget, proxyRetryTokens + refilled);
+      }
+      proxyRetryTokensNanos = now;
+      if (proxyRetryTokens < 1) {
+        return false;
+      }
+      proxyRetryTokens--;
+    }
+    proxyRetries.incrementAndGet();
+    return true;
+  }
+
+  public int getProxyRetries() {
+    return proxyRetries.get();
+  }
+
   public String getInstrumentationProcessOutput() {
     return instrumentationProcessOutput;
   }
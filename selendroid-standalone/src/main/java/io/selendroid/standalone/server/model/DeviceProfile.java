@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.standalone.server.model;
+
+import io.selendroid.common.SelendroidCapabilities;
+import io.selendroid.common.device.DeviceTargetPlatform;
+import io.selendroid.standalone.android.AndroidDevice;
+import io.selendroid.standalone.android.impl.DefaultAndroidEmulator;
+import io.selendroid.standalone.android.impl.DefaultHardwareDevice;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openqa.selenium.Dimension;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The properties of a device that sessions are matched against, read once when the device is added
+ * to or updated in the {@link DeviceStore}. Reading them may need adb, matching a profile doesn't:
+ * the store matches requests by scanning the profiles of the devices of the requested platform.
+ */
+class DeviceProfile {
+  private static final Pattern SCREEN_SIZE = Pattern.compile("([0-9]+)x([0-9]+)");
+
+  private final AndroidDevice device;
+  private final DeviceTargetPlatform targetPlatform;
+  private final boolean emulator;
+  private final boolean hardwareDevice;
+  private final String model;
+  private final String apiTargetType;
+  /**
+   * The screen size, null if the device couldn't tell. Hardware devices fall back to the size of a
+   * screenshot, so this is resolved here and not while the store is locked.
+   */
+  private final Dimension screenSize;
+
+  DeviceProfile(AndroidDevice device) {
+    this.device = device;
+    this.targetPlatform = device.getTargetPlatform();
+    this.emulator = device instanceof DefaultAndroidEmulator;
+    this.hardwareDevice = device instanceof DefaultHardwareDevice;
+    this.model = device.getModel();
+    this.apiTargetType = device.getAPITargetType();
+    this.screenSize = device.getScreenSize();
+  }
+
+  DeviceTargetPlatform getTargetPlatform() {
+    return targetPlatform;
+  }
+
+  /**
+   * Whether the device satisfies the device capabilities: screen size, emulator, serial, model and
+   * API target type. The platform version is matched by the caller.
+   */
+  boolean matches(SelendroidCapabilities capabilities) {
+    Boolean wantsEmulator = capabilities.getEmulator();
+    if (wantsEmulator != null && (wantsEmulator ? !emulator : !hardwareDevice)) {
+      return false;
+    }
+    String serial = capabilities.getSerial();
+    // The serial of an emulator is only known once it is started, it is not part of the profile.
+    if (StringUtils.isNotBlank(serial) && !serial.equals(device.getSerial())) {
+      return false;
+    }
+    String requestedModel = capabilities.getModel();
+    if (StringUtils.isNotBlank(requestedModel)
+        && (model == null || !model.contains(requestedModel))) {
+      return false;
+    }
+    String requestedApiTargetType = capabilities.getAPITargetType();
+    if (StringUtils.isNotBlank(requestedApiTargetType)
+        && (apiTargetType == null || !apiTargetType.contains(requestedApiTargetType))) {
+      return false;
+    }
+    return screenSizeMatches(capabilities.getScreenSize());
+  }
+
+  private boolean screenSizeMatches(String requestedScreenSize) {
+    if (requestedScreenSize == null || requestedScreenSize.isEmpty()) {
+      return true;
+    }
+    if (screenSize == null) {
+      return false;
+    }
+    Matcher dimension = SCREEN_SIZE.matcher(requestedScreenSize);
+    return dimension.matches()
+        && screenSize.getWidth() == Integer.parseInt(dimension.group(1))
+        && screenSize.getHeight() == Integer.parseInt(dimension.group(2));
+  }
+}
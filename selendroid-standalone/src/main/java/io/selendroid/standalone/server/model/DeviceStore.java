@@ -16,15 +16,17 @@ package io.selendroid.standalone.server.model;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
-import com.google.common.base.Predicates;
 import com.google.common.base.Strings;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
 
+import io.netty.util.concurrent.DefaultThreadFactory;
 import io.selendroid.common.SelendroidCapabilities;
 import io.selendroid.common.device.DeviceTargetPlatform;
 import io.selendroid.server.common.exceptions.SelendroidException;
+import io.selendroid.server.common.http.TrafficMetrics;
 import io.selendroid.standalone.android.AndroidApp;
 import io.selendroid.standalone.android.AndroidDevice;
 import io.selendroid.standalone.android.AndroidEmulator;
@@ -35,23 +37,54 @@ import io.selendroid.standalone.android.impl.DefaultAndroidEmulator;
 import io.selendroid.standalone.android.impl.DefaultHardwareDevice;
 import io.selendroid.standalone.android.impl.InstalledAndroidApp;
 import io.selendroid.standalone.exceptions.AndroidDeviceException;
-import io.selendroid.standalone.exceptions.AndroidSdkException;
 import io.selendroid.standalone.exceptions.DeviceStoreException;
 import io.selendroid.standalone.server.model.impl.DefaultPortFinder;
 
-import org.apache.commons.lang3.StringUtils;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class DeviceStore {
   private static final Logger log = Logger.getLogger(DeviceStore.class.getName());
-  private List<AndroidDevice> devicesInUse = new ArrayList<AndroidDevice>();
+  /**
+   * Devices of running sessions, guarded by this. A set by identity like {@link #profiles}.
+   */
+  private final Set<AndroidDevice> devicesInUse =
+      Collections.newSetFromMap(new IdentityHashMap<AndroidDevice, Boolean>());
+  /**
+   * The profiles of all devices in the store, sessions are matched against them, guarded by this.
+   * Keyed by identity: the hash code of a device changes once an emulator is started.
+   */
+  private final Map<AndroidDevice, DeviceProfile> profiles =
+      new IdentityHashMap<AndroidDevice, DeviceProfile>();
+  /**
+   * Devices in use that are being released in the background, guarded by this, by identity.
+   */
+  private final Set<AndroidDevice> devicesReleasing =
+      Collections.newSetFromMap(new IdentityHashMap<AndroidDevice, Boolean>());
+  /**
+   * Session requests waiting for a device, by descending priority and in arrival order, guarded by
+   * this.
+   */
+  private final List<DeviceRequest> waitingRequests = new ArrayList<DeviceRequest>();
+  private int maxWaitingRequests = 20;
+  private Runnable requestQueuedListener;
+  private TrafficMetrics metrics = new TrafficMetrics();
+  private final ExecutorService deviceMaintenance =
+      Executors.newCachedThreadPool(new DefaultThreadFactory("selendroid-device-release", true));
   private Map<DeviceTargetPlatform, List<AndroidDevice>> androidDevices =
       new HashMap<DeviceTargetPlatform, List<AndroidDevice>>();
   private EmulatorPortFinder androidEmulatorPortFinder = null;
@@ -84,23 +117,15 @@ public class DeviceStore {
    */
   public void release(AndroidDevice device, AndroidApp aut) {
     log.info("Releasing device " + device);
-    if (devicesInUse.contains(device)) {
+    if (isInUse(device)) {
 
       if (aut != null) {
         // stop the app anyway - better in case people do use snapshots
         try {
-          device.kill(aut);
+          device.kill(aut, clearData);
         } catch (Exception e) {
           log.log(Level.WARNING, "Failed to kill android application when releasing device", e);
         }
-
-        if (clearData) {
-          try {
-            device.clearUserData(aut);
-          } catch (AndroidSdkException e) {
-            log.log(Level.WARNING, "Failed to clear user data of application", e);
-          }
-        }
       }
 
       if (device instanceof AndroidEmulator && !(aut instanceof InstalledAndroidApp) && !keepEmulator) {
@@ -112,8 +137,68 @@ public class DeviceStore {
         }
         androidEmulatorPortFinder.release(emulator.getPort());
       }
-      devicesInUse.remove(device);
+      synchronized (this) {
+        devicesInUse.remove(device);
+        grantWaitingRequests();
+      }
+    }
+  }
+
+  /**
+   * Like {@link #release(AndroidDevice, AndroidApp)}, but the device is released on a background
+   * thread. Until then it stays in use and {@link #isReleasing(AndroidDevice)}. Once the store is
+   * {@link #shutdown(long, TimeUnit) shut down}, the device is released on the calling thread.
+   *
+   * @param whenReleased is run after the device has been released, may be {@code null}
+   * @return completes once the device has been released
+   */
+  public Future<?> releaseAsync(final AndroidDevice device, final AndroidApp aut,
+      final Runnable whenReleased) {
+    synchronized (this) {
+      if (!devicesInUse.contains(device) || !devicesReleasing.add(device)) {
+        return Futures.immediateFuture(null);
+      }
     }
+    Runnable releaseTask = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release(device, aut);
+        } finally {
+          synchronized (DeviceStore.this) {
+            devicesReleasing.remove(device);
+          }
+        }
+        if (whenReleased != null) {
+          whenReleased.run();
+        }
+      }
+    };
+    try {
+      return deviceMaintenance.submit(releaseTask);
+    } catch (RejectedExecutionException e) {
+      // a session was stopped while shutting down
+      releaseTask.run();
+      return Futures.immediateFuture(null);
+    }
+  }
+
+  public synchronized boolean isReleasing(AndroidDevice device) {
+    return devicesReleasing.contains(device);
+  }
+
+  private synchronized boolean isInUse(AndroidDevice device) {
+    return devicesInUse.contains(device);
+  }
+
+  /**
+   * Waits for the devices being released in the background, no further releases are accepted.
+   *
+   * @return whether all devices were released in time
+   */
+  public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+    deviceMaintenance.shutdown();
+    return deviceMaintenance.awaitTermination(timeout, unit);
   }
 
   /* package */void initAndroidDevices(HardwareDeviceListener hardwareDeviceListener,
@@ -135,7 +220,7 @@ public class DeviceStore {
   }
 
 
-  public synchronized void addDevice(AndroidDevice androidDevice) throws AndroidDeviceException {
+  public void addDevice(AndroidDevice androidDevice) throws AndroidDeviceException {
     if (androidDevice == null) {
       log.info("No Android devices were found.");
       return;
@@ -150,17 +235,21 @@ public class DeviceStore {
     }
   }
 
-  public synchronized void updateDevice(AndroidDevice device) throws AndroidDeviceException {
+  public void updateDevice(AndroidDevice device) throws AndroidDeviceException {
+    DeviceProfile profile = new DeviceProfile(device);
     boolean deviceRemoved = false;
-    for (DeviceTargetPlatform targetPlatform : androidDevices.keySet()) {
-      List<AndroidDevice> platformDevices = androidDevices.get(targetPlatform);
-      // Attempt to remove the device from this target platform;
-      deviceRemoved |= platformDevices.remove(device);
-    }
+    synchronized (this) {
+      for (DeviceTargetPlatform targetPlatform : androidDevices.keySet()) {
+        List<AndroidDevice> platformDevices = androidDevices.get(targetPlatform);
+        // Attempt to remove the device from this target platform;
+        deviceRemoved |= platformDevices.remove(device);
+      }
 
-    if (deviceRemoved) {
-      addDeviceToStore(device);
-    } else {
+      if (deviceRemoved) {
+        addDeviceToStore(device, profile);
+      }
+    }
+    if (!deviceRemoved) {
       log.warning("Attempted to update device which did could not be found in the device store");
     }
   }
@@ -183,15 +272,23 @@ public class DeviceStore {
    * @param device The device to add.
    * @throws AndroidDeviceException
    */
-  protected synchronized void addDeviceToStore(AndroidDevice device) throws AndroidDeviceException {
-    if (androidDevices.containsKey(device.getTargetPlatform())) {
-      List<AndroidDevice> platformDevices = androidDevices.get(device.getTargetPlatform());
+  protected void addDeviceToStore(AndroidDevice device) throws AndroidDeviceException {
+    // Reading the profile may need adb, the store isn't locked meanwhile.
+    addDeviceToStore(device, new DeviceProfile(device));
+  }
+
+  private synchronized void addDeviceToStore(AndroidDevice device, DeviceProfile profile) {
+    profiles.put(device, profile);
+    DeviceTargetPlatform targetPlatform = profile.getTargetPlatform();
+    if (androidDevices.containsKey(targetPlatform)) {
+      List<AndroidDevice> platformDevices = androidDevices.get(targetPlatform);
       if (!platformDevices.contains(device)) {
         platformDevices.add(device);
       }
     } else {
-      androidDevices.put(device.getTargetPlatform(), Lists.newArrayList(device));
+      androidDevices.put(targetPlatform, Lists.newArrayList(device));
     }
+    grantWaitingRequests();
   }
 
   /**
@@ -203,7 +300,21 @@ public class DeviceStore {
    * @throws DeviceStoreException
    * @see {@link #release(AndroidDevice, AndroidApp)}
    */
-  public synchronized AndroidDevice findAndroidDevice(SelendroidCapabilities caps) throws DeviceStoreException {
+  public AndroidDevice findAndroidDevice(SelendroidCapabilities caps) throws DeviceStoreException {
+    return findAndroidDevice(caps, 0);
+  }
+
+  /**
+   * Like {@link #findAndroidDevice(SelendroidCapabilities)}, but if no matching device is free the
+   * request waits up to the timeout for one to be released or added. Waiting requests get devices
+   * by descending {@link SelendroidCapabilities#getDeviceWaitPriority()}, requests of the same
+   * priority in arrival order.
+   *
+   * @param timeoutMillis how long to wait for a device, 0 to not wait
+   * @throws DeviceStoreException if no device was found in time or too many requests are waiting
+   */
+  public synchronized AndroidDevice findAndroidDevice(SelendroidCapabilities caps,
+      long timeoutMillis) throws DeviceStoreException {
 
     Preconditions.checkArgument(caps != null, "Error: capabilities are null");
 
@@ -211,6 +322,71 @@ public class DeviceStore {
       throw new DeviceStoreException("Fatal Error: Device Store does not contain any Android Device.");
     }
 
+    AndroidDevice matchingDevice = findFreeDevice(caps);
+    if (matchingDevice != null) {
+      devicesInUse.add(matchingDevice);
+      return matchingDevice;
+    }
+    if (timeoutMillis <= 0) {
+      throw noDeviceFound(caps);
+    }
+    if (waitingRequests.size() >= maxWaitingRequests) {
+      metrics.counter("deviceQueue.rejected").incrementAndGet();
+      throw new DeviceStoreException("No devices are found and " + waitingRequests.size()
+          + " session requests are waiting for a device already.");
+    }
+
+    DeviceRequest request = new DeviceRequest(caps);
+    int index = 0;
+    while (index < waitingRequests.size()
+        && waitingRequests.get(index).priority >= request.priority) {
+      index++;
+    }
+    waitingRequests.add(index, request);
+    metrics.counter("deviceQueue.waiting").set(waitingRequests.size());
+    if (requestQueuedListener != null) {
+      try {
+        deviceMaintenance.execute(requestQueuedListener);
+      } catch (RejectedExecutionException e) {
+        // shutting down
+      }
+    }
+    long start = System.nanoTime();
+    long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    try {
+      long remaining;
+      while (request.device == null && (remaining = deadline - System.nanoTime()) > 0) {
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      waitingRequests.remove(request);
+      metrics.counter("deviceQueue.waiting").set(waitingRequests.size());
+    }
+
+    long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    metrics.counter("deviceQueue.waitMillis").addAndGet(waitedMillis);
+    AtomicLong maxWait = metrics.counter("deviceQueue.maxWaitMillis");
+    long max;
+    while ((max = maxWait.get()) < waitedMillis && !maxWait.compareAndSet(max, waitedMillis)) {
+      // retry
+    }
+    if (request.device == null) {
+      metrics.counter("deviceQueue.timedOut").incrementAndGet();
+      throw new DeviceStoreException("No devices are found within " + timeoutMillis + " ms. "
+          + "This can happen if the devices are in use or no device screen "
+          + "matches the required capabilities.");
+    }
+    metrics.counter("deviceQueue.granted").incrementAndGet();
+    log.info("Session request waited " + waitedMillis + " ms for " + request.device);
+    return request.device;
+  }
+
+  /**
+   * The free device that best matches the capabilities, preferring running devices, or null.
+   */
+  private AndroidDevice findFreeDevice(SelendroidCapabilities caps) {
     String platformVersion = caps.getPlatformVersion();
 
     Iterable<AndroidDevice> candidateDevices = Strings.isNullOrEmpty(platformVersion) ?
@@ -218,27 +394,120 @@ public class DeviceStore {
 
     candidateDevices = MoreObjects.firstNonNull(candidateDevices, Collections.EMPTY_LIST);
 
-    FluentIterable<AndroidDevice> allMatchingDevices = FluentIterable.from(candidateDevices)
-        .filter(deviceNotInUse())
-        .filter(deviceSatisfiesCapabilities(caps));
+    AndroidDevice firstMatch = null;
+    for (AndroidDevice candidate : candidateDevices) {
+      if (!devicesInUse.contains(candidate) && deviceSatisfiesCapabilities(candidate, caps)) {
+        if (deviceRunning().apply(candidate)) {
+          return candidate;
+        }
+        if (firstMatch == null) {
+          firstMatch = candidate;
+        }
+      }
+    }
+    if (firstMatch != null) {
+      log.info("Using potential match: " + firstMatch);
+    }
+    return firstMatch;
+  }
 
-    if (!allMatchingDevices.isEmpty()) {
+  private DeviceStoreException noDeviceFound(SelendroidCapabilities caps) {
+    if (FluentIterable.from(devicesReleasing).anyMatch(deviceSatisfiesCapabilities(caps))) {
+      return new DeviceStoreException("No devices are found. "
+          + "A device matching the required capabilities is being released.");
+    }
+    return new DeviceStoreException("No devices are found. "
+        + "This can happen if the devices are in use or no device screen "
+        + "matches the required capabilities.");
+  }
 
-      AndroidDevice matchingDevice = allMatchingDevices.filter(deviceRunning()).first()
-          .or(allMatchingDevices.first()).get();
+  /**
+   * Hands the free devices to the waiting requests in their order, called whenever a device gets
+   * free or is added. Afterwards no free device matches a waiting request.
+   */
+  private void grantWaitingRequests() {
+    boolean granted = false;
+    for (DeviceRequest request : waitingRequests) {
+      if (request.device == null) {
+        AndroidDevice device = findFreeDevice(request.capabilities);
+        if (device != null) {
+          devicesInUse.add(device);
+          request.device = device;
+          granted = true;
+        }
+      }
+    }
+    if (granted) {
+      notifyAll();
+    }
+  }
 
-      if (!deviceRunning().apply(matchingDevice)) {
-        log.info("Using potential match: " + matchingDevice);
+  /**
+   * Whether a waiting request would be given the device if it was free.
+   */
+  public synchronized boolean isWaitedFor(AndroidDevice device) {
+    for (DeviceRequest request : waitingRequests) {
+      if (request.device == null && matches(device, request.capabilities)) {
+        return true;
       }
+    }
+    return false;
+  }
 
-      devicesInUse.add(matchingDevice);
-      return matchingDevice;
+  /**
+   * Sets the listener that is run in the background whenever a request starts waiting for a
+   * device, e.g. to free a device that is held without being used.
+   */
+  public synchronized void setRequestQueuedListener(Runnable listener) {
+    this.requestQueuedListener = listener;
+  }
 
-    } else {
-      throw new DeviceStoreException("No devices are found. "
-          + "This can happen if the devices are in use or no device screen "
-          + "matches the required capabilities.");
+  public synchronized int getWaitingRequests() {
+    return waitingRequests.size();
+  }
+
+  public synchronized void setMaxWaitingRequests(int maxWaitingRequests) {
+    this.maxWaitingRequests = maxWaitingRequests;
+  }
+
+  /**
+   * The wait queue reports its depth and wait times to the given metrics.
+   */
+  public synchronized void setMetrics(TrafficMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Like {@link #findAndroidDevice(SelendroidCapabilities)}, but only takes a device that is
+   * running already, no emulator is started for it.
+   *
+   * @return the reserved device or {@code null} if no running device is idle
+   */
+  public synchronized AndroidDevice findRunningAndroidDevice(SelendroidCapabilities caps) {
+    for (AndroidDevice device : getDevices()) {
+      if (!devicesInUse.contains(device) && matches(device, caps)
+          && deviceRunning().apply(device)) {
+        devicesInUse.add(device);
+        return device;
+      }
     }
+    return null;
+  }
+
+  /**
+   * Whether the device satisfies the capabilities, regardless of it being in use.
+   */
+  public boolean matches(AndroidDevice device, SelendroidCapabilities caps) {
+    DeviceProfile profile = getProfile(device);
+    if (profile == null) {
+      return false;
+    }
+    String platformVersion = caps.getPlatformVersion();
+    if (!Strings.isNullOrEmpty(platformVersion)
+        && DeviceTargetPlatform.fromPlatformVersion(platformVersion) != profile.getTargetPlatform()) {
+      return false;
+    }
+    return profile.matches(caps);
   }
 
   private boolean isEmulatorSwitchedOff(AndroidDevice device) throws DeviceStoreException {
@@ -252,7 +521,7 @@ public class DeviceStore {
     return true;
   }
 
-  public List<AndroidDevice> getDevices() {
+  public synchronized List<AndroidDevice> getDevices() {
     List<AndroidDevice> devices = new ArrayList<AndroidDevice>();
     for (Map.Entry<DeviceTargetPlatform, List<AndroidDevice>> entry : androidDevices.entrySet()) {
       devices.addAll(entry.getValue());
@@ -263,7 +532,7 @@ public class DeviceStore {
   /**
    * For testing only
    */
-  /* package */List<AndroidDevice> getDevicesInUse() {
+  /* package */Set<AndroidDevice> getDevicesInUse() {
     return devicesInUse;
   }
 
@@ -290,23 +559,27 @@ public class DeviceStore {
       throw new DeviceStoreException("Only devices of type 'DefaultHardwareDevice' can be removed.");
     }
 
-    release(device, null);
-    DeviceTargetPlatform apiLevel = device.getTargetPlatform();
-    if (androidDevices.containsKey(apiLevel)) {
-      log.info("Removing: " + device);
-      androidDevices.get(apiLevel).remove(device);
-      if (androidDevices.get(apiLevel).isEmpty()) {
-        androidDevices.remove(apiLevel);
-      }
-    } else {
-      for (List<AndroidDevice> targetDevices : androidDevices.values()) {
-        if (targetDevices.contains(device)) {
-          log.warning("Device in devicestore");
+    // Removed before it is released, so it isn't handed to a waiting request.
+    synchronized (this) {
+      profiles.remove(device);
+      DeviceTargetPlatform apiLevel = device.getTargetPlatform();
+      if (androidDevices.containsKey(apiLevel)) {
+        log.info("Removing: " + device);
+        androidDevices.get(apiLevel).remove(device);
+        if (androidDevices.get(apiLevel).isEmpty()) {
+          androidDevices.remove(apiLevel);
+        }
+      } else {
+        for (List<AndroidDevice> targetDevices : androidDevices.values()) {
+          if (targetDevices.contains(device)) {
+            log.warning("Device in devicestore");
+          }
         }
+        log.warning("The target platform version of the device is not found in device store.");
+        log.warning("The device was propably already removed.");
       }
-      log.warning("The target platform version of the device is not found in device store.");
-      log.warning("The device was propably already removed.");
     }
+    release(device, null);
   }
 
   public void setClearData(boolean clearData) {
@@ -317,32 +590,24 @@ public class DeviceStore {
     this.keepEmulator = keepEmulator;
   }
 
-  private Predicate<AndroidDevice> deviceNotInUse() {
+  private Predicate<AndroidDevice> deviceSatisfiesCapabilities(
+      final SelendroidCapabilities capabilities) {
     return new Predicate<AndroidDevice>() {
       @Override
       public boolean apply(AndroidDevice candidate) {
-        return !devicesInUse.contains(candidate);
+        return deviceSatisfiesCapabilities(candidate, capabilities);
       }
     };
   }
 
-  private Predicate<AndroidDevice> deviceSatisfiesCapabilities(final SelendroidCapabilities capabilities) {
-    return new Predicate<AndroidDevice>() {
-      @Override
-      public boolean apply(AndroidDevice candidate) {
-        ArrayList<Boolean> booleanExpressions = Lists.newArrayList(
-            candidate.screenSizeMatches(capabilities.getScreenSize()),
-            capabilities.getEmulator() == null ? true : capabilities.getEmulator() ?
-                candidate instanceof DefaultAndroidEmulator : candidate instanceof DefaultHardwareDevice,
-            StringUtils.isNotBlank(capabilities.getSerial()) ? capabilities.getSerial().equals(candidate.getSerial()) : true,
-            StringUtils.isNotBlank(capabilities.getModel()) ? candidate.getModel().contains(capabilities.getModel()) : true,
-            StringUtils.isNotBlank(capabilities.getAPITargetType()) ? candidate.getAPITargetType() != null
-                && candidate.getAPITargetType().contains(capabilities.getAPITargetType()) : true
-        );
-
-        return Iterables.all(booleanExpressions, Predicates.equalTo(true));
-      }
-    };
+  private boolean deviceSatisfiesCapabilities(AndroidDevice candidate,
+      SelendroidCapabilities capabilities) {
+    DeviceProfile profile = getProfile(candidate);
+    return profile != null && profile.matches(capabilities);
+  }
+
+  private synchronized DeviceProfile getProfile(AndroidDevice device) {
+    return profiles.get(device);
   }
 
   private Predicate<AndroidDevice> deviceRunning() {
@@ -383,4 +648,19 @@ public class DeviceStore {
       // do nothing
     }
   }
+
+  /**
+   * A session request waiting for a device.
+   */
+  private static class DeviceRequest {
+    private final SelendroidCapabilities capabilities;
+    private final int priority;
+    // guarded by the store
+    private AndroidDevice device;
+
+    DeviceRequest(SelendroidCapabilities capabilities) {
+      this.capabilities = capabilities;
+      this.priority = capabilities.getDeviceWaitPriority();
+    }
+  }
 }
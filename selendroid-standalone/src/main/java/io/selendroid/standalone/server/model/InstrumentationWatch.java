@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.standalone.server.model;
+
+import io.selendroid.standalone.android.InstrumentationProcessListener;
+
+/**
+ * Tracks the instrumentation process of one selendroid-server start, so a server that dies is
+ * noticed while waiting for it.
+ */
+class InstrumentationWatch implements InstrumentationProcessListener {
+  private volatile String output;
+  private volatile Exception error;
+  private volatile boolean finished;
+
+  @Override
+  public void onInstrumentationProcessComplete(String output) {
+    this.output = output;
+    finished = true;
+  }
+
+  @Override
+  public void onInstrumentationProcessFailed(String output, Exception error) {
+    this.output = output;
+    this.error = error;
+    finished = true;
+  }
+
+  boolean isFinished() {
+    return finished;
+  }
+
+  String getOutput() {
+    return output;
+  }
+
+  Exception getError() {
+    return error;
+  }
+}
@@ -16,19 +16,21 @@ package io.selendroid.standalone.server.model;
 import com.beust.jcommander.internal.Lists;
 import com.google.common.base.Function;
 import io.netty.handler.codec.http.HttpMethod;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import io.selendroid.common.SelendroidCapabilities;
 import io.selendroid.server.common.ServerDetails;
 import io.selendroid.server.common.exceptions.AppCrashedException;
 import io.selendroid.server.common.exceptions.SelendroidException;
 import io.selendroid.server.common.exceptions.SessionNotCreatedException;
+import io.selendroid.server.common.http.TrafficMetrics;
 import io.selendroid.standalone.SelendroidConfiguration;
 import io.selendroid.standalone.android.AndroidApp;
 import io.selendroid.standalone.android.AndroidDevice;
 import io.selendroid.standalone.android.AndroidEmulator;
 import io.selendroid.standalone.android.AndroidSdk;
 import io.selendroid.standalone.android.DeviceManager;
-import io.selendroid.standalone.android.InstrumentationProcessListener;
 import io.selendroid.standalone.android.InstrumentationProcessOutput;
+import io.selendroid.standalone.android.ShellBatch;
 import io.selendroid.standalone.android.impl.DefaultAndroidEmulator;
 import io.selendroid.standalone.android.impl.DefaultDeviceManager;
 import io.selendroid.standalone.android.impl.DefaultHardwareDevice;
@@ -37,6 +39,9 @@ import io.selendroid.standalone.builder.AndroidDriverAPKBuilder;
 import io.selendroid.standalone.builder.SelendroidServerBuilder;
 import io.selendroid.standalone.exceptions.AndroidDeviceException;
 import io.selendroid.standalone.exceptions.AndroidSdkException;
+import io.selendroid.standalone.exceptions.DeviceStoreException;
+import io.selendroid.standalone.io.ShellCommand;
+import io.selendroid.standalone.server.util.DeviceHttpClient;
 import io.selendroid.standalone.server.util.FolderMonitor;
 import io.selendroid.standalone.server.util.HttpClientUtil;
 import io.selendroid.server.common.exceptions.AppCrashedException;
@@ -44,7 +49,9 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.apache.commons.io.FileUtils;
+import org.apache.http.util.EntityUtils;
 import org.openqa.selenium.By;
+import org.openqa.selenium.remote.BeanToJsonConverter;
 import org.openqa.selenium.remote.BrowserType;
 import org.openqa.selenium.remote.RemoteWebDriver;
 import org.openqa.selenium.support.ui.ExpectedConditions;
@@ -62,13 +69,21 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.concurrent.TimeUnit;
 
 public class SelendroidStandaloneDriver
-  implements ServerDetails, InstrumentationProcessListener {
+  implements ServerDetails {
   public static final String WD_RESP_KEY_VALUE = "value";
   public static final String WD_RESP_KEY_STATUS = "status";
   public static final String WD_RESP_KEY_SESSION_ID = "sessionId";
@@ -76,25 +91,55 @@ public class SelendroidStandaloneDriver
   public static final String APP_ID = "appId";
   private static int selendroidServerPort = 38080;
   private static final Logger log = Logger.getLogger(SelendroidStandaloneDriver.class.getName());
-  private Map<String, AndroidApp> appsStore = new HashMap<String, AndroidApp>();
-  private Map<String, AndroidApp> selendroidServers = new HashMap<String, AndroidApp>();
-  private Map<String, ActiveSession> sessions = new HashMap<String, ActiveSession>();
+  /**
+   * Connections opened to the selendroid-server of a new session before its first command.
+   */
+  private static final int WARM_CONNECTIONS = 2;
+  /**
+   * Time the shutdown waits for all sessions to be stopped and their devices to be released.
+   */
+  private static final long SHUTDOWN_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(1);
+  /**
+   * File in the external storage of the device with the extra arguments of the app under test.
+   */
+  private static final String EXTRA_ARGS_FILE = "extra_args.json";
+  private final ConcurrentMap<String, AndroidApp> appsStore =
+      new ConcurrentHashMap<String, AndroidApp>();
+  /**
+   * The selendroid-server APK built for each app id, every APK is built once even if sessions for
+   * the app are created concurrently.
+   */
+  private final ConcurrentMap<String, FutureTask<AndroidApp>> selendroidServers =
+      new ConcurrentHashMap<String, FutureTask<AndroidApp>>();
+  private final ConcurrentMap<String, ActiveSession> sessions =
+      new ConcurrentHashMap<String, ActiveSession>();
+  /**
+   * Runs the idle timeouts of all sessions on a single thread.
+   */
+  private final ScheduledExecutorService sessionTimeouts =
+      Executors.newSingleThreadScheduledExecutor(
+          new DefaultThreadFactory("selendroid-session-timeout", true));
+  /**
+   * Runs the steps of starting a session that don't depend on each other.
+   */
+  private final ExecutorService sessionBootstrap =
+      Executors.newCachedThreadPool(new DefaultThreadFactory("selendroid-session-start", true));
   private DeviceStore deviceStore = null;
   private SelendroidServerBuilder selendroidApkBuilder = null;
   private AndroidDriverAPKBuilder androidDriverAPKBuilder = null;
   private SelendroidConfiguration serverConfiguration = null;
   private DeviceManager deviceManager;
   private FolderMonitor folderMonitor = null;
+  private volatile DeviceHttpClient deviceClient = null;
   private SelendroidStandaloneDriverEventListener eventListener
       = new DummySelendroidStandaloneDriverEventListener();
-  private AtomicBoolean instrumentationProcessFinished = new AtomicBoolean(false);
-  private String instrumentationProcessOutput;
-  private Exception instrumentationProcessError;
+  private WarmSessionPool warmPool = newWarmSessionPool(0, Collections.<String>emptyList());
 
 
   public SelendroidStandaloneDriver(SelendroidConfiguration serverConfiguration)
       throws AndroidSdkException, AndroidDeviceException {
     this.serverConfiguration = serverConfiguration;
+    ShellCommand.setMaxOutputLength(serverConfiguration.getShellOutputLimit());
     selendroidApkBuilder = new SelendroidServerBuilder(serverConfiguration);
     androidDriverAPKBuilder = new AndroidDriverAPKBuilder();
 
@@ -106,7 +151,17 @@ public class SelendroidStandaloneDriver
     initApplicationsUnderTest(serverConfiguration);
     initAndroidDevices();
     deviceStore.setClearData(!serverConfiguration.isNoClearData());
+    deviceStore.setMaxWaitingRequests(serverConfiguration.getDeviceWaitQueueSize());
     deviceStore.setKeepEmulator(serverConfiguration.isKeepEmulator());
+    warmPool = newWarmSessionPool(
+        serverConfiguration.getWarmSessions(), serverConfiguration.getWarmSessionApps());
+    deviceStore.setRequestQueuedListener(new Runnable() {
+      @Override
+      public void run() {
+        warmPool.evictWanted();
+      }
+    });
+    warmPool.refill();
   }
 
   /**
@@ -144,8 +199,7 @@ public class SelendroidStandaloneDriver
           + file.getAbsolutePath());
       log.info(e.getMessage());
     }
-    if (appId != null && !appsStore.containsKey(appId)) {
-      appsStore.put(appId, app);
+    if (appId != null && appsStore.putIfAbsent(appId, app) == null) {
 
       log.info("App " + appId
           + " has been added to selendroid standalone server.");
@@ -230,95 +284,42 @@ public class SelendroidStandaloneDriver
     AndroidDevice device = null;
     AndroidApp app = null;
     Exception lastException = null;
+    boolean firstAttempt = true;
     while (retries >= 0) {
       try {
         SelendroidCapabilities desiredCapabilities = getSelendroidCapabilities(caps);
         String desiredAut = desiredCapabilities.getDefaultApp(appsStore.keySet());
         app = getAndroidApp(desiredCapabilities, desiredAut);
         log.info("'" + desiredAut + "' will be used as app under test.");
-        device = deviceStore.findAndroidDevice(desiredCapabilities);
-
-        // If we are using an emulator need to start it up
-        if (device instanceof AndroidEmulator) {
-          startAndroidEmulator(desiredCapabilities, (AndroidEmulator) device);
-          // If we are using an android device
-        } else {
-          device.unlockScreen();
+        if (firstAttempt) {
+          warmPool.recordRequest(desiredAut);
+          firstAttempt = false;
         }
-
-        boolean appInstalledOnDevice = device.isInstalled(app) || app instanceof InstalledAndroidApp;
-        if (!appInstalledOnDevice || serverConfiguration.isForceReinstall()) {
-          device.install(app);
+        SessionStartTimings timings = new SessionStartTimings();
+        long phaseStart = System.nanoTime();
+        int port;
+        WarmSessionPool.WarmServer warmServer = warmPool.take(desiredAut, desiredCapabilities);
+        if (warmServer != null) {
+          log.info("Using " + warmServer);
+          device = warmServer.getDevice();
+          app = warmServer.getApp();
+          port = warmServer.getPort();
+          device.removeInstrumentationProcessListener(warmServer.getInstrumentation());
+          timings.record("warm server", phaseStart);
         } else {
-          log.info("the app under test is already installed.");
-        }
-
-        if(!serverConfiguration.isNoClearData()) {
-          device.clearUserData(app);
-        }
-
-        int port = serverConfiguration.isReuseSelendroidServerPort()
-            ? serverConfiguration.getSelendroidServerPort()
-            : getNextSelendroidServerPort();
-
-        boolean serverInstalled = device.isInstalled("io.selendroid." + app.getBasePackage());
-        if (!serverInstalled || serverConfiguration.isForceReinstall()) {
+          device = findAndroidDevice(desiredCapabilities);
+          timings.record("device", phaseStart);
+          InstrumentationWatch instrumentation = new InstrumentationWatch();
           try {
-            device.install(createSelendroidServerApk(app));
-          } catch (AndroidSdkException e) {
-            throw new SessionNotCreatedException("Could not install selendroid-server on the device", e);
+            port = startSelendroidServer(device, app, desiredCapabilities, instrumentation, timings);
+          } finally {
+            device.removeInstrumentationProcessListener(instrumentation);
           }
-        } else {
-          log.info(
-              "Not creating and installing selendroid-server because it is already installed for this app under test.");
-        }
-
-        // Run any adb commands requested in the capabilities
-        List<String> preSessionAdbCommands = desiredCapabilities.getPreSessionAdbCommands();
-        runPreSessionCommands(device, preSessionAdbCommands);
-
-        // Push extension dex to device if specified
-        String extensionFile = desiredCapabilities.getSelendroidExtensions();
-        pushExtensionsToDevice(device, extensionFile);
-
-        pushExtraArgsToDevice(device, desiredCapabilities);
-
-        // Configure logging on the device
-        device.setLoggingEnabled(serverConfiguration.isDeviceLog());
-
-        // It's GO TIME!
-        // start the selendroid server on the device and make sure it's up
-        eventListener.onBeforeDeviceServerStart();
-        device.startSelendroid(app, port, desiredCapabilities);
-        device.addInstrumentationProcessListener(this);
-        waitForServerStart(device);
-        eventListener.onAfterDeviceServerStart();
-
-        // arbitrary sleeps? yay...
-        // looks like after the server starts responding
-        // we need to give it a moment before starting a session?
-        try {
-          Thread.sleep(500);
-        } catch (InterruptedException e1) {
-          Thread.currentThread().interrupt();
-        }
-
-        // create the new session on the device server
-        RemoteWebDriver driver =
-          new RemoteWebDriver(new URL("http://localhost:" + device.getSelendroidsPort() + "/wd/hub"), desiredCapabilities);
-        String sessionId = driver.getSessionId().toString();
-        SelendroidCapabilities requiredCapabilities =
-          new SelendroidCapabilities(driver.getCapabilities().asMap());
-        ActiveSession session =
-          new ActiveSession(sessionId, requiredCapabilities, app, device, port, this);
-
-        this.sessions.put(sessionId, session);
-
-        // We are requesting an "AndroidDriver" so automatically switch to the webview
-        if (BrowserType.ANDROID.equals(desiredCapabilities.getAut())) {
-          switchToWebView(driver);
         }
 
+        String sessionId = createSession(device, app, port, desiredCapabilities, timings);
+        log.info("Session " + sessionId + " started in " + timings);
+        warmPool.refill();
         return sessionId;
       } catch (Exception e) {
         lastException = e;
@@ -341,6 +342,327 @@ public class SelendroidStandaloneDriver
     }
   }
 
+  /**
+   * Reserves a device for the session, waiting for a device up to the configured time. While the
+   * request waits, the warm selendroid-servers on devices it could use are stopped, see
+   * {@link WarmSessionPool#evictWanted()}. Without a wait time a warm server is stopped right away.
+   */
+  private AndroidDevice findAndroidDevice(SelendroidCapabilities desiredCapabilities)
+      throws DeviceStoreException {
+    try {
+      return deviceStore.findAndroidDevice(desiredCapabilities);
+    } catch (DeviceStoreException e) {
+      int waitSeconds = serverConfiguration.getDeviceWaitTimeout();
+      if (waitSeconds > 0) {
+        return deviceStore.findAndroidDevice(
+            desiredCapabilities, TimeUnit.SECONDS.toMillis(waitSeconds));
+      }
+      // No request waits without a wait time, so nobody else can take the freed device.
+      if (warmPool.evict(desiredCapabilities)) {
+        return deviceStore.findAndroidDevice(desiredCapabilities);
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Prepares the device for the app and starts the selendroid-server on it.
+   *
+   * @param instrumentation is notified when the server's instrumentation process finishes, the
+   *        caller has to remove it from the device
+   * @return the port of the server on the device
+   */
+  private int startSelendroidServer(AndroidDevice device, AndroidApp app,
+      final SelendroidCapabilities desiredCapabilities, InstrumentationWatch instrumentation,
+      final SessionStartTimings timings) throws Exception {
+    long phaseStart = System.nanoTime();
+    // If we are using an emulator need to start it up
+    if (device instanceof AndroidEmulator) {
+      startAndroidEmulator(desiredCapabilities, (AndroidEmulator) device);
+      // If we are using an android device
+    } else {
+      device.unlockScreen();
+    }
+    timings.record("device start", phaseStart);
+
+    int port = serverConfiguration.isReuseSelendroidServerPort()
+        ? serverConfiguration.getSelendroidServerPort()
+        : getNextSelendroidServerPort();
+
+    // The selendroid-server is installed while the app under test is installed.
+    final AndroidDevice sessionDevice = device;
+    final AndroidApp aut = app;
+    Future<?> serverInstall = sessionBootstrap.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        long start = System.nanoTime();
+        installSelendroidServer(sessionDevice, aut);
+        timings.record("selendroid-server", start);
+        return null;
+      }
+    });
+    Exception failure = null;
+    try {
+      phaseStart = System.nanoTime();
+      installApp(device, app);
+      timings.record("app", phaseStart);
+    } catch (Exception e) {
+      failure = e;
+    }
+    // Wait for both installs, so that a retry doesn't overlap with them.
+    failure = await(serverInstall, failure);
+    if (failure != null) {
+      throw failure;
+    }
+
+    // Run any adb commands requested in the capabilities. They may refer to both apps, e.g. grant
+    // permissions to the selendroid-server, so they run once both are installed and before the
+    // files of the session are pushed.
+    phaseStart = System.nanoTime();
+    runPreSessionCommands(device, desiredCapabilities);
+    // Push extension dex to device if specified
+    pushExtensionsToDevice(device, desiredCapabilities.getSelendroidExtensions());
+    pushExtraArgsToDevice(device, desiredCapabilities);
+    timings.record("files", phaseStart);
+
+    // Configure logging on the device
+    device.setLoggingEnabled(serverConfiguration.isDeviceLog());
+
+    // It's GO TIME!
+    // start the selendroid server on the device and make sure it's up
+    phaseStart = System.nanoTime();
+    eventListener.onBeforeDeviceServerStart();
+    device.addInstrumentationProcessListener(instrumentation);
+    device.startSelendroid(app, port, desiredCapabilities);
+    waitForServerStart(device, instrumentation);
+    HttpClientUtil.warmUpDevicePool(device.getSelendroidsPort(), WARM_CONNECTIONS);
+    eventListener.onAfterDeviceServerStart();
+    timings.record("server start", phaseStart);
+    return port;
+  }
+
+  /**
+   * Creates the session on the started selendroid-server and registers it.
+   */
+  private String createSession(AndroidDevice device, AndroidApp app, int port,
+      SelendroidCapabilities desiredCapabilities, SessionStartTimings timings) throws Exception {
+    long phaseStart = System.nanoTime();
+    String sessionId;
+    SelendroidCapabilities requiredCapabilities;
+    RemoteWebDriver driver = null;
+    if (BrowserType.ANDROID.equals(desiredCapabilities.getAut())) {
+      // The android-driver app is driven through a RemoteWebDriver to switch to its webview.
+      driver = new RemoteWebDriver(
+          new URL("http://localhost:" + device.getSelendroidsPort() + "/wd/hub"),
+          desiredCapabilities);
+      sessionId = driver.getSessionId().toString();
+      requiredCapabilities = new SelendroidCapabilities(driver.getCapabilities().asMap());
+    } else {
+      JSONObject response = createDeviceSession(device, desiredCapabilities);
+      sessionId = response.getString("sessionId");
+      requiredCapabilities = new SelendroidCapabilities(response.getJSONObject("value"));
+    }
+    ActiveSession session =
+      new ActiveSession(sessionId, requiredCapabilities, app, device, port);
+
+    this.sessions.put(sessionId, session);
+    new SessionTimeoutTask(this, session, sessionTimeouts,
+        serverConfiguration.getSessionTimeoutMillis()).schedule();
+
+    // We are requesting an "AndroidDriver" so automatically switch to the webview
+    if (driver != null) {
+      switchToWebView(driver);
+    }
+    timings.record("session", phaseStart);
+    return sessionId;
+  }
+
+  /**
+   * Session requests waiting for a device report to the given metrics.
+   */
+  public void setTrafficMetrics(TrafficMetrics metrics) {
+    deviceStore.setMetrics(metrics);
+  }
+
+  /**
+   * The client proxying commands to the devices, its connections to a device are closed with the
+   * session.
+   */
+  public void setDeviceClient(DeviceHttpClient deviceClient) {
+    this.deviceClient = deviceClient;
+  }
+
+  /**
+   * Closes the pooled connections of both HTTP clients to the selendroid-server on the port, so
+   * the next server on it doesn't get stale connections.
+   */
+  private void closeDeviceConnections(int port) {
+    HttpClientUtil.closeDevicePool(port);
+    DeviceHttpClient client = deviceClient;
+    if (client != null) {
+      client.closeConnections(port);
+    }
+  }
+
+  /**
+   * Resets the app in the selendroid-server of the stopped session and keeps the server, its
+   * instrumentation and port forwarding for the next session of the app.
+   *
+   * @return false if hot reset is disabled or not possible for the session, which then has to be
+   *         stopped the usual way
+   */
+  private boolean hotReset(ActiveSession session) {
+    if (serverConfiguration == null || !serverConfiguration.isHotReset() || session.isInvalid()
+        || !WarmSessionPool.canUseWarmServer(session.getDesiredCapabilities())) {
+      return false;
+    }
+    AndroidDevice device = session.getDevice();
+    InstrumentationWatch instrumentation = new InstrumentationWatch();
+    device.addInstrumentationProcessListener(instrumentation);
+    try {
+      // Like a release, the app data is kept with -noClearData.
+      JSONObject payload = new JSONObject().put("clearData", !serverConfiguration.isNoClearData());
+      JSONObject response = HttpClientUtil.parseJsonResponse(
+          HttpClientUtil.executeRequestWithPayload(
+              "/wd/hub/session/" + session.getSessionId() + "/selendroid/reset",
+              session.getSelendroidServerPort(), HttpMethod.POST, payload.toString()));
+      if (response.optInt("status", -1) == 0 && !instrumentation.isFinished()) {
+        String appId = session.getDesiredCapabilities().getDefaultApp(appsStore.keySet());
+        warmPool.offer(new WarmSessionPool.WarmServer(appId, session.getAut(), device,
+            session.getSelendroidServerPort(), instrumentation));
+        log.info("Reset the app of session " + session.getSessionId() + " for the next session");
+        return true;
+      }
+      log.warning("Could not reset the app of session " + session.getSessionId() + ": " + response);
+    } catch (Exception e) {
+      log.log(Level.WARNING, "Could not reset the app of session " + session.getSessionId(), e);
+    }
+    device.removeInstrumentationProcessListener(instrumentation);
+    return false;
+  }
+
+  private WarmSessionPool newWarmSessionPool(int size, List<String> apps) {
+    return new WarmSessionPool(size, apps, new WarmSessionPool.Starter() {
+      @Override
+      public WarmSessionPool.WarmServer start(String appId) throws Exception {
+        AndroidApp app = appsStore.get(appId);
+        if (app == null) {
+          throw new SelendroidException("The app '" + appId + "' is not supported.");
+        }
+        SelendroidCapabilities capabilities = new SelendroidCapabilities(appId);
+        AndroidDevice device = deviceStore.findRunningAndroidDevice(capabilities);
+        if (device == null) {
+          throw new DeviceStoreException("No running device is idle.");
+        }
+        InstrumentationWatch instrumentation = new InstrumentationWatch();
+        try {
+          int port = startSelendroidServer(
+              device, app, capabilities, instrumentation, new SessionStartTimings());
+          return new WarmSessionPool.WarmServer(appId, app, device, port, instrumentation);
+        } catch (Exception e) {
+          device.removeInstrumentationProcessListener(instrumentation);
+          deviceStore.release(device, app);
+          throw e;
+        }
+      }
+
+      @Override
+      public void stop(WarmSessionPool.WarmServer server) {
+        server.getDevice().removeInstrumentationProcessListener(server.getInstrumentation());
+        closeDeviceConnections(server.getDevice().getSelendroidsPort());
+        deviceStore.release(server.getDevice(), server.getApp());
+      }
+
+      @Override
+      public boolean matches(AndroidDevice device, SelendroidCapabilities capabilities) {
+        return deviceStore.matches(device, capabilities);
+      }
+
+      @Override
+      public boolean isWanted(AndroidDevice device) {
+        return deviceStore.isWaitedFor(device);
+      }
+    }, sessionBootstrap);
+  }
+
+  private void installApp(AndroidDevice device, AndroidApp app) throws AndroidSdkException {
+    boolean appInstalledOnDevice = device.isInstalled(app) || app instanceof InstalledAndroidApp;
+    if (!appInstalledOnDevice || serverConfiguration.isForceReinstall()) {
+      device.install(app);
+    } else {
+      log.info("the app under test is already installed.");
+    }
+
+    if(!serverConfiguration.isNoClearData()) {
+      device.clearUserData(app);
+    }
+  }
+
+  private void installSelendroidServer(AndroidDevice device, AndroidApp app)
+      throws AndroidSdkException {
+    boolean serverInstalled = device.isInstalled("io.selendroid." + app.getBasePackage());
+    if (!serverInstalled || serverConfiguration.isForceReinstall()) {
+      try {
+        device.install(createSelendroidServerApk(app));
+      } catch (AndroidSdkException e) {
+        throw new SessionNotCreatedException("Could not install selendroid-server on the device", e);
+      }
+    } else {
+      log.info(
+          "Not creating and installing selendroid-server because it is already installed for this app under test.");
+    }
+  }
+
+  /**
+   * Waits for a step of the session start, returns the first failure of the steps.
+   */
+  private static Exception await(Future<?> step, Exception failure) {
+    try {
+      step.get();
+    } catch (ExecutionException e) {
+      if (failure == null) {
+        failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      step.cancel(true);
+      if (failure == null) {
+        failure = e;
+      }
+    }
+    return failure;
+  }
+
+  /**
+   * Creates the session on the selendroid-server of the device with a plain HTTP request. The
+   * server may not accept connections yet right after it reported its status, so connection
+   * failures are retried until the server start timeout.
+   */
+  private JSONObject createDeviceSession(AndroidDevice device, SelendroidCapabilities caps)
+      throws Exception {
+    String payload = new BeanToJsonConverter().convert(
+        Collections.singletonMap("desiredCapabilities", caps));
+    long deadline = System.currentTimeMillis() + serverConfiguration.getServerStartTimeout();
+    while (true) {
+      try {
+        JSONObject response = HttpClientUtil.parseJsonResponse(
+            HttpClientUtil.executeRequestWithPayload(
+                "/wd/hub/session", device.getSelendroidsPort(), HttpMethod.POST, payload));
+        if (response.optInt("status", -1) != 0) {
+          throw new SessionNotCreatedException(
+              "The selendroid-server could not create the session: " + response.opt("value"));
+        }
+        return response;
+      } catch (IOException e) {
+        if (System.currentTimeMillis() >= deadline) {
+          throw e;
+        }
+        log.log(Level.INFO, "Selendroid server is not ready yet, retrying to create the session", e);
+        Thread.sleep(serverConfiguration.getServerStartPollingInterval());
+      }
+    }
+  }
+
   private void switchToWebView(RemoteWebDriver driver) {
     // arbitrarily high wait time, will this cover our slowest possible device/emulator?
     WebDriverWait wait = new WebDriverWait(driver, 60);
@@ -351,7 +673,8 @@ public class SelendroidStandaloneDriver
     wait.until(ExpectedConditions.visibilityOfElementLocated(By.id("AndroidDriver")));
   }
 
-  private void waitForServerStart(final AndroidDevice device) {
+  private void waitForServerStart(final AndroidDevice device,
+      final InstrumentationWatch instrumentation) {
     log.info("Waiting for the Selendroid server to start.");
 
     Wait<AndroidDevice> wait = new FluentWait<AndroidDevice>(device)
@@ -365,14 +688,14 @@ public class SelendroidStandaloneDriver
       wait.until(new Function<AndroidDevice, Boolean>() {
         @Override
         public Boolean apply(AndroidDevice device) {
-          if (!instrumentationProcessFinished()) {
+          if (!instrumentation.isFinished()) {
             return device.isSelendroidRunning();
           }
 
           InstrumentationProcessOutput instrumentationOutput =
 	           InstrumentationProcessOutput.parse(
-              getInstrumentationProcessOutput());
-          final Exception instrumentationError = getInstrumentationProcessError();
+              instrumentation.getOutput());
+          final Exception instrumentationError = instrumentation.getError();
           if (instrumentationError != null) {
             throw new SelendroidException(
               "Failed to execute instrument command, full output:\n" +
@@ -399,18 +722,15 @@ public class SelendroidStandaloneDriver
     AndroidDevice device,
     SelendroidCapabilities caps
   ) {
-    String devicePath = new File(
-      device.getExternalStoragePath(),
-      "extra_args.json"
-    ).getAbsolutePath();
-
-    // Make sure we clean the file in case we don't push a new one
-    log.info("Clearing extra args file from device");
-    device.runAdbCommand(String.format("shell rm %s", devicePath));
-
+    // Without extra args the file is deleted by the pre-session commands, a pushed file replaces
+    // the one of the previous session.
     if (!caps.hasExtraAUTArgs()) {
       return;
     }
+    String devicePath = new File(
+      device.getExternalStoragePath(),
+      EXTRA_ARGS_FILE
+    ).getAbsolutePath();
 
     try {
       final String fileContents = caps.getExtraAUTArgs().toString();
@@ -434,13 +754,36 @@ public class SelendroidStandaloneDriver
     }
   }
 
-  private void runPreSessionCommands(AndroidDevice device, List<String> preSessionAdbCommands) {
-    List<String> adbCommands = new ArrayList<String>();
-    adbCommands.add("shell setprop log.tag.SELENDROID " + serverConfiguration.getLogLevel().name());
-    adbCommands.addAll(preSessionAdbCommands);
+  /**
+   * Runs the adb commands requested in the capabilities after setting up the device for the
+   * session. Consecutive shell commands are run with a single adb shell call.
+   */
+  private void runPreSessionCommands(AndroidDevice device, SelendroidCapabilities caps) {
+    ShellBatch batch = new ShellBatch()
+        .add("setprop log.tag.SELENDROID " + serverConfiguration.getLogLevel().name());
+    if (!caps.hasExtraAUTArgs()) {
+      log.info("Clearing extra args file from device");
+      batch.add("rm $EXTERNAL_STORAGE/" + EXTRA_ARGS_FILE);
+    }
+    for (String adbCommandParameter : caps.getPreSessionAdbCommands()) {
+      if (adbCommandParameter.startsWith("shell ")) {
+        batch.add(adbCommandParameter.substring("shell ".length()));
+      } else {
+        runShellBatch(device, batch);
+        batch = new ShellBatch();
+        device.runAdbCommand(adbCommandParameter);
+      }
+    }
+    runShellBatch(device, batch);
+  }
 
-    for (String adbCommandParameter : adbCommands) {
-      device.runAdbCommand(adbCommandParameter);
+  private void runShellBatch(AndroidDevice device, ShellBatch batch) {
+    for (ShellBatch.Result result : device.runShellBatch(batch)) {
+      if (result.getExitCode() == ShellBatch.Result.UNKNOWN_EXIT_CODE) {
+        log.warning("Could not run adb shell " + result.getCommand());
+      } else if (!result.isSuccess()) {
+        log.info("adb shell " + result);
+      }
     }
   }
 
@@ -466,7 +809,7 @@ public class SelendroidStandaloneDriver
   }
 
   private AndroidApp getAndroidApp(SelendroidCapabilities desiredCapabilities, String aut) {
-    AndroidApp app = appsStore.get(aut);
+    AndroidApp app = aut == null ? null : appsStore.get(aut);
     if (app == null) {
       if (desiredCapabilities.getLaunchActivity() != null) {
         String appInfo = String.format("%s/%s", aut, desiredCapabilities.getLaunchActivity());
@@ -507,18 +850,34 @@ public class SelendroidStandaloneDriver
     return app;
   }
 
-  private AndroidApp createSelendroidServerApk(AndroidApp aut) throws AndroidSdkException {
-    if (!selendroidServers.containsKey(aut.getAppId())) {
-      try {
-        AndroidApp selendroidServer = selendroidApkBuilder.createSelendroidServer(aut);
-        selendroidServers.put(aut.getAppId(), selendroidServer);
-      } catch (Exception e) {
-        log.log(Level.SEVERE, "Cannot build the Selendroid server APK", e);
-        throw new SessionNotCreatedException(
-            "Cannot build the Selendroid server APK for application '" + aut + "': " + e.getMessage());
+  private AndroidApp createSelendroidServerApk(final AndroidApp aut) throws AndroidSdkException {
+    FutureTask<AndroidApp> build = selendroidServers.get(aut.getAppId());
+    if (build == null) {
+      FutureTask<AndroidApp> created = new FutureTask<AndroidApp>(new Callable<AndroidApp>() {
+        @Override
+        public AndroidApp call() throws Exception {
+          return selendroidApkBuilder.createSelendroidServer(aut);
+        }
+      });
+      build = selendroidServers.putIfAbsent(aut.getAppId(), created);
+      if (build == null) {
+        build = created;
+        build.run();
+      }
+    }
+    try {
+      return build.get();
+    } catch (Exception e) {
+      if (e instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
       }
+      Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+      // Let the next session try again.
+      selendroidServers.remove(aut.getAppId(), build);
+      log.log(Level.SEVERE, "Cannot build the Selendroid server APK", cause);
+      throw new SessionNotCreatedException(
+          "Cannot build the Selendroid server APK for application '" + aut + "': " + cause.getMessage());
     }
-    return selendroidServers.get(aut.getAppId());
   }
 
   private Locale parseLocale(SelendroidCapabilities capa) {
@@ -574,48 +933,81 @@ public class SelendroidStandaloneDriver
   }
 
   public void stopSession(String sessionId) throws AndroidDeviceException {
-    if (isValidSession(sessionId)) {
-      ActiveSession session = sessions.get(sessionId);
+    // Only the caller that removes the session stops it, e.g. if a client deletes a session
+    // while it times out.
+    ActiveSession session = sessionId == null ? null : sessions.remove(sessionId);
+    if (session != null) {
       session.stopSessionTimer();
-      try {
-        HttpClientUtil.executeRequest(
-            "http://localhost:" + session.getSelendroidServerPort() + "/wd/hub/session/" + sessionId,
-            HttpMethod.DELETE);
-      } catch (Exception e) {
-        log.log(Level.WARNING, "Error stopping session, safe to ignore", e);
+      session.detachFromDevice();
+      if (!hotReset(session)) {
+        try {
+          EntityUtils.consumeQuietly(HttpClientUtil.executeDeviceRequest(
+              session.getSelendroidServerPort(), "/wd/hub/session/" + sessionId,
+              HttpMethod.DELETE).getEntity());
+        } catch (Exception e) {
+          log.log(Level.WARNING, "Error stopping session, safe to ignore", e);
+        }
+        closeDeviceConnections(session.getSelendroidServerPort());
+        // The client doesn't wait for the app to be cleared, the device can be used again then.
+        deviceStore.releaseAsync(session.getDevice(), session.getAut(), new Runnable() {
+          @Override
+          public void run() {
+            warmPool.refill();
+          }
+        });
+        return;
       }
-      deviceStore.release(session.getDevice(), session.getAut());
-      sessions.remove(sessionId);
+      warmPool.refill();
     }
   }
 
   public void quitSelendroid() {
-    List<String> sessionsToQuit = Lists.newArrayList(sessions.keySet());
-    if (!sessionsToQuit.isEmpty()) {
-      for (String sessionId : sessionsToQuit) {
-        try {
-          stopSession(sessionId);
-        } catch (AndroidDeviceException e) {
-          log.log(Level.SEVERE, "Error occurred while stopping session", e);
+    // The sessions and warm servers are stopped in parallel, the devices are released in the
+    // background by the device store.
+    ExecutorService shutdown =
+        Executors.newCachedThreadPool(new DefaultThreadFactory("selendroid-shutdown", true));
+    for (final String sessionId : Lists.newArrayList(sessions.keySet())) {
+      shutdown.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            stopSession(sessionId);
+          } catch (AndroidDeviceException e) {
+            log.log(Level.SEVERE, "Error occurred while stopping session", e);
+          }
         }
+      });
+    }
+    shutdown.execute(new Runnable() {
+      @Override
+      public void run() {
+        warmPool.shutdown();
       }
+    });
+    shutdown.shutdown();
+    long deadline = System.nanoTime() + SHUTDOWN_TIMEOUT_NANOS;
+    try {
+      if (!shutdown.awaitTermination(SHUTDOWN_TIMEOUT_NANOS, TimeUnit.NANOSECONDS)
+          || !deviceStore.shutdown(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+        log.warning("Not all devices were released within "
+            + TimeUnit.NANOSECONDS.toSeconds(SHUTDOWN_TIMEOUT_NANOS) + " seconds");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
+    sessionTimeouts.shutdownNow();
+    sessionBootstrap.shutdownNow();
     deviceManager.shutdown();
   }
 
+
   public SelendroidCapabilities getSessionCapabilities(String sessionId) {
-    if (sessions.containsKey(sessionId)) {
-      return sessions.get(sessionId).getDesiredCapabilities();
-    }
-    return null;
+    ActiveSession session = getActiveSession(sessionId);
+    return session == null ? null : session.getDesiredCapabilities();
   }
 
   public ActiveSession getActiveSession(String sessionId) {
-    if (sessionId != null && sessions.containsKey(sessionId)) {
-      return sessions.get(sessionId);
-    }
-
-    return null;
+    return sessionId == null ? null : sessions.get(sessionId);
   }
 
   @Override
@@ -673,38 +1065,14 @@ public class SelendroidStandaloneDriver
   }
 
   public byte[] takeScreenshot(String sessionId) throws AndroidDeviceException {
-    if (sessionId == null || !sessions.containsKey(sessionId)) {
+    ActiveSession session = getActiveSession(sessionId);
+    if (session == null) {
       throw new SelendroidException("The given session id '" + sessionId + "' was not found.");
     }
-    return sessions.get(sessionId).getDevice().takeScreenshot();
+    return session.getDevice().takeScreenshot();
   }
 
   public void setEventListener(SelendroidStandaloneDriverEventListener eventListener) {
     this.eventListener = eventListener;
   }
-
-  private boolean instrumentationProcessFinished() {
-    return instrumentationProcessFinished.get();
-  }
-
-  private String getInstrumentationProcessOutput() {
-    return instrumentationProcessOutput;
-  }
-
-  private Exception getInstrumentationProcessError() {
-    return instrumentationProcessError;
-  }
-
-  @Override
-  public void onInstrumentationProcessComplete(String output) {
-    instrumentationProcessFinished.set(true);
-    instrumentationProcessOutput = output;
-  }
-
-  @Override
-  public void onInstrumentationProcessFailed(String output, Exception error) {
-    instrumentationProcessFinished.set(true);
-    instrumentationProcessOutput = output;
-    instrumentationProcessError = error;
-  }
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.standalone.server.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durations of the phases of starting a session, phases running concurrently may overlap.
+ */
+class SessionStartTimings {
+  private final long start = System.nanoTime();
+  private final List<String> phases = new ArrayList<String>();
+
+  /**
+   * Records the phase as taking from {@code phaseStartNanos}, a {@link System#nanoTime()}, until
+   * now.
+   */
+  synchronized void record(String phase, long phaseStartNanos) {
+    phases.add(phase + " " + millisSince(phaseStartNanos) + " ms");
+  }
+
+  private static long millisSince(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder result = new StringBuilder().append(millisSince(start)).append(" ms");
+    if (!phases.isEmpty()) {
+      result.append(" (");
+      for (int i = 0; i < phases.size(); i++) {
+        result.append(i == 0 ? "" : ", ").append(phases.get(i));
+      }
+      result.append(")");
+    }
+    return result.toString();
+  }
+}
@@ -15,29 +15,61 @@ package io.selendroid.standalone.server.model;
 
 import io.selendroid.standalone.exceptions.AndroidDeviceException;
 
-import java.util.TimerTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
-public class SessionTimeoutTask extends TimerTask {
+/**
+ * Stops a session once it has been idle for the configured session timeout. The task runs on the
+ * scheduler shared by all sessions. Commands only record their time on the session, so when the
+ * task finds the session was used since it was scheduled, it schedules itself again for the rest
+ * of the timeout instead of stopping the session.
+ */
+public class SessionTimeoutTask implements Runnable {
   private static final Logger log = Logger.getLogger(SessionTimeoutTask.class.getName());
-  private String sessionId;
-  private SelendroidStandaloneDriver driver;
+  private final SelendroidStandaloneDriver driver;
+  private final ActiveSession session;
+  private final ScheduledExecutorService scheduler;
+  private final long timeoutNanos;
 
-  public SessionTimeoutTask(SelendroidStandaloneDriver driver, String sessionId) {
-    this.sessionId = sessionId;
+  public SessionTimeoutTask(SelendroidStandaloneDriver driver, ActiveSession session,
+      ScheduledExecutorService scheduler, long timeoutMillis) {
     this.driver = driver;
+    this.session = session;
+    this.scheduler = scheduler;
+    this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+  }
+
+  public void schedule() {
+    schedule(timeoutNanos);
+  }
+
+  private void schedule(long delayNanos) {
+    try {
+      session.setTimeout(scheduler.schedule(this, delayNanos, TimeUnit.NANOSECONDS));
+    } catch (RejectedExecutionException e) {
+      // the driver is shutting down and stops all sessions itself
+    }
   }
 
   @Override
   public void run() {
-    int sessionTimeout = driver.getSelendroidConfiguration().getSessionTimeoutMillis();
-    log.info("Stopping session after configured session timeout of " + (sessionTimeout / 1000)
-        + " seconds.");
+    if (driver.getActiveSession(session.getSessionId()) != session) {
+      return;
+    }
+    long remaining = timeoutNanos - session.getIdleNanos();
+    if (remaining > 0) {
+      schedule(remaining);
+      return;
+    }
+    log.info("Stopping session after configured session timeout of "
+        + TimeUnit.NANOSECONDS.toSeconds(timeoutNanos) + " seconds.");
     try {
-      driver.stopSession(sessionId);
+      driver.stopSession(session.getSessionId());
     } catch (AndroidDeviceException e) {
 
-      log.severe("While closing the session " + sessionId
+      log.severe("While closing the session " + session.getSessionId()
           + " after a session time out an error occurred: " + e.getMessage());
     }
   }
@@ -0,0 +1,408 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.standalone.server.model;
+
+import io.selendroid.common.SelendroidCapabilities;
+import io.selendroid.standalone.android.AndroidApp;
+import io.selendroid.standalone.android.AndroidDevice;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps selendroid-servers started on idle devices, so a new session for one of their apps only
+ * has to create the session on the device. The apps are either configured or the ones requested
+ * most often by the recent sessions.
+ */
+class WarmSessionPool {
+  private static final Logger log = Logger.getLogger(WarmSessionPool.class.getName());
+  /**
+   * Number of recent session requests the apps to keep warm are learned from.
+   */
+  static final int HISTORY_SIZE = 50;
+
+  /**
+   * Starts and stops the selendroid-servers of the pool.
+   */
+  interface Starter {
+    /**
+     * Reserves an idle device and starts the selendroid-server of the app on it.
+     */
+    WarmServer start(String appId) throws Exception;
+
+    /**
+     * Stops the selendroid-server and returns its device to the store.
+     */
+    void stop(WarmServer server);
+
+    /**
+     * Whether the device of a warm server satisfies the capabilities of a session.
+     */
+    boolean matches(AndroidDevice device, SelendroidCapabilities capabilities);
+
+    /**
+     * Whether a session request is waiting for a device that the device of a warm server would
+     * satisfy.
+     */
+    boolean isWanted(AndroidDevice device);
+  }
+
+  private final int size;
+  private final List<String> configuredApps;
+  private final Starter starter;
+  private final Executor executor;
+
+  // all guarded by this
+  private final LinkedList<String> history = new LinkedList<String>();
+  private final List<WarmServer> idle = new ArrayList<WarmServer>();
+  private final Map<String, Integer> starting = new HashMap<String, Integer>();
+  private boolean shutdown;
+
+  /**
+   * @param size the number of servers to keep started
+   * @param configuredApps the ids of the apps to start servers for, in turn. If empty, the apps
+   *        are learned from the recent sessions.
+   */
+  WarmSessionPool(int size, List<String> configuredApps, Starter starter, Executor executor) {
+    this.size = size;
+    this.configuredApps = new ArrayList<String>(configuredApps);
+    this.starter = starter;
+    this.executor = executor;
+  }
+
+  boolean isEnabled() {
+    return size > 0;
+  }
+
+  /**
+   * Counts a session request for the app towards the apps kept warm.
+   */
+  synchronized void recordRequest(String appId) {
+    if (appId == null) {
+      return;
+    }
+    history.addLast(appId);
+    if (history.size() > HISTORY_SIZE) {
+      history.removeFirst();
+    }
+  }
+
+  /**
+   * Takes a started server for the app whose device satisfies the capabilities, or returns null.
+   * Sessions that need to prepare the device before the server starts, e.g. with pre-session adb
+   * commands, extensions or extra arguments, can't use a warm server.
+   */
+  WarmServer take(String appId, SelendroidCapabilities capabilities) {
+    if (appId == null || !canUseWarmServer(capabilities)) {
+      return null;
+    }
+    List<WarmServer> dead = new ArrayList<WarmServer>();
+    WarmServer taken = null;
+    synchronized (this) {
+      for (Iterator<WarmServer> it = idle.iterator(); it.hasNext(); ) {
+        WarmServer server = it.next();
+        if (server.isInstrumentationFinished()) {
+          it.remove();
+          dead.add(server);
+        } else if (taken == null && server.getAppId().equals(appId)
+            && starter.matches(server.getDevice(), capabilities)) {
+          it.remove();
+          taken = server;
+        }
+      }
+    }
+    for (WarmServer server : dead) {
+      log.info("Dropping warm selendroid-server whose instrumentation finished: " + server);
+      starter.stop(server);
+    }
+    return taken;
+  }
+
+  /**
+   * Adds a server that is ready for the next session of its app, e.g. one whose app was reset after
+   * a session. The server is kept even if the pool is full or disabled, until a session takes it or
+   * its device is needed.
+   */
+  void offer(WarmServer server) {
+    synchronized (this) {
+      if (!shutdown) {
+        idle.add(server);
+        server = null;
+      }
+    }
+    if (server != null) {
+      starter.stop(server);
+      return;
+    }
+    evictWanted();
+  }
+
+  /**
+   * Stops the warm servers whose devices session requests are waiting for, one at a time so each
+   * freed device goes to a waiting request before the next server is checked. Called when a request
+   * starts waiting and whenever a server is added, so no request waits next to an idle server.
+   */
+  void evictWanted() {
+    WarmServer evicted;
+    while ((evicted = removeWanted()) != null) {
+      log.info("Stopping warm selendroid-server, a session waits for its device: " + evicted);
+      starter.stop(evicted);
+    }
+  }
+
+  private synchronized WarmServer removeWanted() {
+    for (Iterator<WarmServer> it = idle.iterator(); it.hasNext(); ) {
+      WarmServer server = it.next();
+      if (starter.isWanted(server.getDevice())) {
+        it.remove();
+        return server;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Stops one warm server whose device satisfies the capabilities, to give the device to a session
+   * that can't use the server.
+   *
+   * @return whether a device was freed
+   */
+  boolean evict(SelendroidCapabilities capabilities) {
+    WarmServer evicted = null;
+    synchronized (this) {
+      for (Iterator<WarmServer> it = idle.iterator(); it.hasNext(); ) {
+        WarmServer server = it.next();
+        if (starter.matches(server.getDevice(), capabilities)) {
+          it.remove();
+          evicted = server;
+          break;
+        }
+      }
+    }
+    if (evicted == null) {
+      return false;
+    }
+    log.info("Stopping warm selendroid-server to free its device: " + evicted);
+    starter.stop(evicted);
+    return true;
+  }
+
+  /**
+   * Starts servers in the background until the pool has its size, for the apps in demand. Servers
+   * that fail to start, e.g. because no device is idle, are retried on the next refill.
+   */
+  void refill() {
+    if (!isEnabled()) {
+      return;
+    }
+    List<String> missing;
+    synchronized (this) {
+      if (shutdown) {
+        return;
+      }
+      missing = missingApps();
+      for (String appId : missing) {
+        Integer count = starting.get(appId);
+        starting.put(appId, count == null ? 1 : count + 1);
+      }
+    }
+    for (final String appId : missing) {
+      try {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            start(appId);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        started(appId);
+      }
+    }
+  }
+
+  private void start(String appId) {
+    WarmServer server = null;
+    try {
+      server = starter.start(appId);
+      log.info("Started warm selendroid-server: " + server);
+    } catch (Exception e) {
+      log.log(Level.FINE, "Could not start a warm selendroid-server for " + appId, e);
+    }
+    boolean keep;
+    synchronized (this) {
+      started(appId);
+      keep = server != null && !shutdown;
+      if (keep) {
+        idle.add(server);
+      }
+    }
+    if (server != null && !keep) {
+      starter.stop(server);
+    } else if (keep) {
+      evictWanted();
+    }
+  }
+
+  private synchronized void started(String appId) {
+    Integer count = starting.get(appId);
+    if (count == null || count <= 1) {
+      starting.remove(appId);
+    } else {
+      starting.put(appId, count - 1);
+    }
+  }
+
+  /**
+   * Stops all warm servers.
+   */
+  void shutdown() {
+    List<WarmServer> servers;
+    synchronized (this) {
+      shutdown = true;
+      servers = new ArrayList<WarmServer>(idle);
+      idle.clear();
+    }
+    for (WarmServer server : servers) {
+      starter.stop(server);
+    }
+  }
+
+  synchronized List<WarmServer> getIdleServers() {
+    return new ArrayList<WarmServer>(idle);
+  }
+
+  /**
+   * The apps to start servers for, so that the started and starting servers match
+   * {@link #targetApps()}.
+   */
+  private List<String> missingApps() {
+    Map<String, Integer> available = new HashMap<String, Integer>(starting);
+    for (WarmServer server : idle) {
+      Integer count = available.get(server.getAppId());
+      available.put(server.getAppId(), count == null ? 1 : count + 1);
+    }
+    List<String> missing = new ArrayList<String>();
+    for (String appId : targetApps()) {
+      Integer count = available.get(appId);
+      if (count == null || count == 0) {
+        missing.add(appId);
+      } else {
+        available.put(appId, count - 1);
+      }
+    }
+    return missing;
+  }
+
+  /**
+   * One app per server of the pool, taking the configured or most requested apps in turn.
+   */
+  List<String> targetApps() {
+    List<String> apps = configuredApps.isEmpty() ? mostRequestedApps() : configuredApps;
+    List<String> targets = new ArrayList<String>();
+    if (apps.isEmpty()) {
+      return targets;
+    }
+    for (int i = 0; i < size; i++) {
+      targets.add(apps.get(i % apps.size()));
+    }
+    return targets;
+  }
+
+  private List<String> mostRequestedApps() {
+    final Map<String, Integer> requests = new HashMap<String, Integer>();
+    for (String appId : history) {
+      Integer count = requests.get(appId);
+      requests.put(appId, count == null ? 1 : count + 1);
+    }
+    List<String> apps = new ArrayList<String>(requests.keySet());
+    Collections.sort(apps, new Comparator<String>() {
+      @Override
+      public int compare(String a, String b) {
+        return requests.get(b) - requests.get(a);
+      }
+    });
+    return apps;
+  }
+
+  /**
+   * Whether the capabilities only need the selendroid-server of the app, without preparing the
+   * device or instrumentation for the session.
+   */
+  static boolean canUseWarmServer(SelendroidCapabilities capabilities) {
+    return capabilities.getPreSessionAdbCommands().isEmpty()
+        && capabilities.getSelendroidExtensions() == null
+        && !capabilities.hasExtraAUTArgs()
+        && capabilities.getLaunchActivity() == null
+        && !capabilities.getUseJUnitBootstrap();
+  }
+
+  /**
+   * A selendroid-server started on a reserved device, waiting for a session.
+   */
+  static class WarmServer {
+    private final String appId;
+    private final AndroidApp app;
+    private final AndroidDevice device;
+    private final int port;
+    private final InstrumentationWatch instrumentation;
+
+    WarmServer(String appId, AndroidApp app, AndroidDevice device, int port,
+        InstrumentationWatch instrumentation) {
+      this.appId = appId;
+      this.app = app;
+      this.device = device;
+      this.port = port;
+      this.instrumentation = instrumentation;
+    }
+
+    String getAppId() {
+      return appId;
+    }
+
+    AndroidApp getApp() {
+      return app;
+    }
+
+    AndroidDevice getDevice() {
+      return device;
+    }
+
+    int getPort() {
+      return port;
+    }
+
+    InstrumentationWatch getInstrumentation() {
+      return instrumentation;
+    }
+
+    boolean isInstrumentationFinished() {
+      return instrumentation != null && instrumentation.isFinished();
+    }
+
+    @Override
+    public String toString() {
+      return "WarmServer [appId=" + appId + ", device=" + device + ", port=" + port + "]";
+    }
+  }
+}
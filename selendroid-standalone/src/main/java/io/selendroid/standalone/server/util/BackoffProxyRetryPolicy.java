@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.standalone.server.util;
+
+import io.selendroid.server.common.http.HttpRequest;
+import io.selendroid.server.common.http.TrafficMetrics;
+import io.selendroid.standalone.server.model.ActiveSession;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Retries with jittered exponential backoff until a deadline. Commands that change the state of
+ * the app, like clicks or typing, are only sent again if they never reached the device, so a
+ * command is not executed twice. A command that could not be written to a kept-alive connection
+ * the device had closed is sent again right away. Each session has a budget of retries that is
+ * refilled over time, so a device that keeps failing is not hammered while it recovers.
+ * <p>
+ * The outcomes are counted in the {@link TrafficMetrics} given to the constructor as
+ * {@code proxy.retries}, {@code proxy.retries.staleConnection}, {@code proxy.retries.notIdempotent},
+ * {@code proxy.retries.budgetExhausted} and {@code proxy.retries.timedOut}.
+ */
+public class BackoffProxyRetryPolicy implements ProxyRetryPolicy {
+  public static final long DEFAULT_INITIAL_DELAY_MS = 100;
+  public static final long DEFAULT_MAX_DELAY_MS = 2000;
+  public static final long DEFAULT_TIMEOUT_MS = 10000;
+  public static final int DEFAULT_SESSION_BUDGET = 50;
+  public static final long DEFAULT_BUDGET_REFILL_MS = 1000;
+
+  /**
+   * POST commands that only read the state of the app and can be sent again safely.
+   */
+  private static final Pattern IDEMPOTENT_POST = Pattern.compile(
+      "/wd/hub/session/[^/]+(/element/[^/]+)?/(element|elements|timeouts(/[^/]+)?)/?");
+
+  private final long initialDelayMillis;
+  private final long maxDelayMillis;
+  private final long timeoutMillis;
+  private final int sessionBudget;
+  private final long budgetRefillMillis;
+  private final TrafficMetrics metrics;
+  private final Random random = new Random();
+
+  public BackoffProxyRetryPolicy(TrafficMetrics metrics) {
+    this(metrics, DEFAULT_INITIAL_DELAY_MS, DEFAULT_MAX_DELAY_MS, DEFAULT_TIMEOUT_MS,
+        DEFAULT_SESSION_BUDGET, DEFAULT_BUDGET_REFILL_MS);
+  }
+
+  /**
+   * @param timeoutMillis no attempt is started after this time since the first one
+   * @param sessionBudget the number of retries a session may make in a row
+   * @param budgetRefillMillis the time after which a session gets one retry back, see
+   *        {@link ActiveSession#acquireProxyRetry(int, long)}
+   */
+  public BackoffProxyRetryPolicy(TrafficMetrics metrics, long initialDelayMillis,
+      long maxDelayMillis, long timeoutMillis, int sessionBudget, long budgetRefillMillis) {
+    this.metrics = metrics;
+    this.initialDelayMillis = initialDelayMillis;
+    this.maxDelayMillis = maxDelayMillis;
+    this.timeoutMillis = timeoutMillis;
+    this.sessionBudget = sessionBudget;
+    this.budgetRefillMillis = budgetRefillMillis;
+  }
+
+  @Override
+  public long retryDelayMillis(ActiveSession session, HttpRequest request, int attempt,
+      long elapsedMillis, Failure failure) {
+    if (failure == Failure.SENT && !isIdempotent(request)) {
+      metrics.counter("proxy.retries.notIdempotent").incrementAndGet();
+      return GIVE_UP;
+    }
+    // The device is fine, only the connection was gone.
+    long delay = failure == Failure.STALE_CONNECTION ? 0 : delayMillis(attempt);
+    if (elapsedMillis + delay >= timeoutMillis) {
+      metrics.counter("proxy.retries.timedOut").incrementAndGet();
+      return GIVE_UP;
+    }
+    if (!session.acquireProxyRetry(sessionBudget, budgetRefillMillis)) {
+      metrics.counter("proxy.retries.budgetExhausted").incrementAndGet();
+      return GIVE_UP;
+    }
+    if (failure == Failure.STALE_CONNECTION) {
+      metrics.counter("proxy.retries.staleConnection").incrementAndGet();
+    }
+    metrics.counter("proxy.retries").incrementAndGet();
+    return delay;
+  }
+
+  /**
+   * Half of the exponentially growing delay plus a random part of up to the other half, so
+   * retries of concurrent commands spread out.
+   */
+  long delayMillis(int attempt) {
+    long delay = initialDelayMillis << Math.min(attempt - 1, 20);
+    if (delay <= 0 || delay > maxDelayMillis) {
+      delay = maxDelayMillis;
+    }
+    long half = delay / 2;
+    return half + (long) (random.nextDouble() * (delay - half));
+  }
+
+  static boolean isIdempotent(HttpRequest request) {
+    String method = request.method();
+    if ("GET".equalsIgnoreCase(method) || "DELETE".equalsIgnoreCase(method)) {
+      return true;
+    }
+    return "POST".equalsIgnoreCase(method) && IDEMPOTENT_POST.matcher(request.uri()).matches();
+  }
+}
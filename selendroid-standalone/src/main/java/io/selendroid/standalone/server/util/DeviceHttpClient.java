@@ -0,0 +1,305 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.standalone.server.util;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import io.netty.util.concurrent.Promise;
+import io.selendroid.server.common.http.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Non-blocking HTTP client for the selendroid-servers on the devices. The connections run on the
+ * event loops of the standalone server and are kept alive for further requests to the same port,
+ * so proxying a command needs no thread while the device works on it.
+ */
+public class DeviceHttpClient {
+  private static final Logger log = Logger.getLogger(DeviceHttpClient.class.getName());
+
+  /**
+   * Idle connections are closed before the selendroid-server would time them out (60 seconds).
+   */
+  private static final int IDLE_TIMEOUT_SECONDS = 30;
+
+  private final HttpServer server;
+  private final ConcurrentMap<Integer, Queue<Channel>> idleChannels =
+      new ConcurrentHashMap<Integer, Queue<Channel>>();
+  private final HashedWheelTimer timer = new HashedWheelTimer(
+      new DefaultThreadFactory("selendroid-proxy-timer", true), 20, TimeUnit.MILLISECONDS);
+  private volatile Bootstrap bootstrap;
+
+  /**
+   * @param server provides the event loops, the client can be used once the server has been
+   *        started
+   */
+  public DeviceHttpClient(HttpServer server) {
+    this.server = server;
+  }
+
+  /**
+   * Sends the request to the selendroid-server listening on the given local port, the request is
+   * released once it has been written. The future gets the aggregated response, which the caller
+   * has to release, or fails if the device could not be reached or closed the connection. It fails
+   * with a {@link StaleConnectionException} if a kept-alive connection was used that the device
+   * had closed.
+   */
+  public Future<FullHttpResponse> execute(int port, FullHttpRequest request) {
+    return execute(port, request, true);
+  }
+
+  /**
+   * @param reuseConnection {@code false} to send the request on a new connection, e.g. after a
+   *        kept-alive one turned out to be stale
+   * @see #execute(int, FullHttpRequest)
+   */
+  public Future<FullHttpResponse> execute(final int port, final FullHttpRequest request,
+      boolean reuseConnection) {
+    final Promise<FullHttpResponse> promise = ImmediateEventExecutor.INSTANCE.newPromise();
+    Channel channel = reuseConnection ? pollIdleChannel(port) : null;
+    if (channel != null) {
+      send(channel, request, promise, true);
+      return promise;
+    }
+    bootstrap().connect("localhost", port).addListener(new ChannelFutureListener() {
+      @Override
+      public void operationComplete(ChannelFuture future) {
+        if (future.isSuccess()) {
+          final Channel channel = future.channel();
+          channel.closeFuture().addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) {
+              Queue<Channel> channels = idleChannels.get(port);
+              if (channels != null) {
+                channels.remove(channel);
+              }
+            }
+          });
+          send(channel, request, promise, false);
+        } else {
+          ReferenceCountUtil.release(request);
+          promise.tryFailure(future.cause());
+        }
+      }
+    });
+    return promise;
+  }
+
+  /**
+   * Runs the task after the delay on the timer wheel of this client.
+   */
+  public Timeout schedule(TimerTask task, long delay, TimeUnit unit) {
+    return timer.newTimeout(task, delay, unit);
+  }
+
+  /**
+   * Closes the idle connections to the given port, e.g. once its session was stopped.
+   */
+  public void closeConnections(int port) {
+    Queue<Channel> channels = idleChannels.remove(port);
+    if (channels != null) {
+      for (Channel channel : channels) {
+        channel.close();
+      }
+    }
+  }
+
+  public void shutdown() {
+    timer.stop();
+    for (Integer port : idleChannels.keySet()) {
+      closeConnections(port);
+    }
+  }
+
+  private Bootstrap bootstrap() {
+    if (bootstrap == null) {
+      synchronized (this) {
+        if (bootstrap == null) {
+          bootstrap = server.newClientBootstrap().handler(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel channel) {
+              channel.pipeline()
+                  .addLast("idle", new IdleStateHandler(0, 0, IDLE_TIMEOUT_SECONDS))
+                  .addLast("codec", new HttpClientCodec())
+                  // The device is trusted, like the blocking client there is no size limit.
+                  .addLast("aggregator", new HttpObjectAggregator(Integer.MAX_VALUE))
+                  .addLast("handler", new ResponseHandler());
+            }
+          });
+        }
+      }
+    }
+    return bootstrap;
+  }
+
+  private Channel pollIdleChannel(int port) {
+    Queue<Channel> channels = idleChannels.get(port);
+    if (channels == null) {
+      return null;
+    }
+    Channel channel;
+    while ((channel = channels.poll()) != null) {
+      if (channel.isActive()) {
+        return channel;
+      }
+    }
+    return null;
+  }
+
+  private void release(Channel channel) {
+    int port = ((InetSocketAddress) channel.remoteAddress()).getPort();
+    Queue<Channel> channels = idleChannels.get(port);
+    if (channels == null) {
+      Queue<Channel> created = new ConcurrentLinkedQueue<Channel>();
+      channels = idleChannels.putIfAbsent(port, created);
+      if (channels == null) {
+        channels = created;
+      }
+    }
+    channels.add(channel);
+  }
+
+  private void send(Channel channel, FullHttpRequest request, Promise<FullHttpResponse> promise,
+      final boolean reused) {
+    if (reused && !channel.isActive()) {
+      ReferenceCountUtil.release(request);
+      promise.tryFailure(new StaleConnectionException(new ClosedChannelException()));
+      return;
+    }
+    final ResponseHandler handler = channel.pipeline().get(ResponseHandler.class);
+    handler.expect(promise);
+    channel.writeAndFlush(request).addListener(new ChannelFutureListener() {
+      @Override
+      public void operationComplete(ChannelFuture future) {
+        if (future.isSuccess()) {
+          handler.written();
+          return;
+        }
+        handler.fail(reused ? new StaleConnectionException(future.cause()) : future.cause());
+        future.channel().close();
+      }
+    });
+  }
+
+  /**
+   * The request could not be written to a kept-alive connection that the device had closed, so
+   * the device did not get it. Unlike other failures the request can be sent again safely.
+   * Once a request has been written, a closed connection may have been the device failing while
+   * executing it and is not reported this way.
+   */
+  public static class StaleConnectionException extends IOException {
+    public StaleConnectionException(Throwable cause) {
+      super("The device had closed the connection before the request was written", cause);
+    }
+  }
+
+  /**
+   * Completes the promise of the request in flight on its connection, there is at most one.
+   */
+  private class ResponseHandler extends ChannelInboundHandlerAdapter {
+    private volatile Promise<FullHttpResponse> promise;
+    private volatile boolean written;
+
+    void expect(Promise<FullHttpResponse> promise) {
+      this.written = false;
+      this.promise = promise;
+    }
+
+    void written() {
+      written = true;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+      Promise<FullHttpResponse> current = promise;
+      promise = null;
+      if (current == null || !(msg instanceof FullHttpResponse)) {
+        ReferenceCountUtil.release(msg);
+        return;
+      }
+      FullHttpResponse response = (FullHttpResponse) msg;
+      if (HttpHeaders.isKeepAlive(response)) {
+        release(ctx.channel());
+      } else {
+        ctx.close();
+      }
+      if (!current.trySuccess(response)) {
+        response.release();
+      }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+      // A request still being written is failed by its write, which tells whether it got out.
+      if (written) {
+        fail(new ClosedChannelException());
+      }
+      super.channelInactive(ctx);
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+      if (evt instanceof IdleStateEvent) {
+        if (promise == null) {
+          ctx.close();
+        }
+        return;
+      }
+      super.userEventTriggered(ctx, evt);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+      log.log(Level.FINE, "Error on connection to the device " + ctx.channel(), cause);
+      fail(cause);
+      ctx.close();
+    }
+
+    void fail(Throwable cause) {
+      Promise<FullHttpResponse> current = promise;
+      promise = null;
+      if (current != null) {
+        current.tryFailure(cause);
+      }
+    }
+  }
+}
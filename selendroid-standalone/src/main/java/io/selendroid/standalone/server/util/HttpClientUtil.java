@@ -15,11 +15,18 @@ package io.selendroid.standalone.server.util;
 
 import io.netty.handler.codec.http.HttpMethod;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import io.selendroid.server.common.exceptions.SelendroidException;
 import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpClientConnection;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
@@ -27,36 +34,158 @@ import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.message.BasicHttpEntityEnclosingRequest;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+/**
+ * Blocking HTTP requests of the standalone server. Requests to the selendroid-server of a device
+ * use a connection pool of their own, keyed by the local port forwarded to the device, so one
+ * busy or unreachable device doesn't exhaust the connections of the others.
+ */
 public class HttpClientUtil {
   private static final Logger log = Logger.getLogger(HttpClientUtil.class.getName());
-  private static HttpClient httpClient = null;
+  private static volatile HttpClient httpClient = null;
+
+  private static final ConcurrentMap<Integer, DevicePool> devicePools =
+      new ConcurrentHashMap<Integer, DevicePool>();
+  private static volatile int maxConnectionsPerDevice = 4;
+  private static volatile int idleConnectionTimeoutSeconds = 30;
+  private static ScheduledExecutorService idleConnectionEvictor;
 
   public static HttpClient getHttpClient() {
     if (httpClient == null) {
       synchronized (HttpClientUtil.class) {
-        httpClient = HttpClients.custom()
-          .setConnectionManager(new PoolingHttpClientConnectionManager())
-          .build();
+        if (httpClient == null) {
+          httpClient = HttpClients.custom()
+            .setConnectionManager(new PoolingHttpClientConnectionManager())
+            .build();
+        }
       }
     }
 
     return httpClient;
   }
 
+  /**
+   * Sets the size of the connection pools created for devices from now on and how long their
+   * connections may stay idle.
+   */
+  public static void configureDevicePools(int maxConnections, int idleTimeoutSeconds) {
+    maxConnectionsPerDevice = Math.max(1, maxConnections);
+    idleConnectionTimeoutSeconds = Math.max(1, idleTimeoutSeconds);
+  }
+
+  /**
+   * @return the client for the selendroid-server forwarded to the given local port
+   */
+  public static HttpClient getDeviceHttpClient(int port) {
+    return getDevicePool(port).client;
+  }
+
+  /**
+   * Opens connections to the selendroid-server forwarded to the given local port ahead of the
+   * first commands. Failures are only logged, the commands open connections themselves then.
+   */
+  public static void warmUpDevicePool(int port, int connections) {
+    DevicePool pool = getDevicePool(port);
+    HttpRoute route = new HttpRoute(new HttpHost("localhost", port));
+    HttpClientConnection[] opened =
+        new HttpClientConnection[Math.min(connections, maxConnectionsPerDevice)];
+    try {
+      for (int i = 0; i < opened.length; i++) {
+        HttpClientConnection connection =
+            pool.connectionManager.requestConnection(route, null).get(5, TimeUnit.SECONDS);
+        opened[i] = connection;
+        if (!connection.isOpen()) {
+          HttpClientContext context = HttpClientContext.create();
+          pool.connectionManager.connect(connection, route, 5000, context);
+          pool.connectionManager.routeComplete(connection, route, context);
+          // httpcore binds the socket streams on first use, the stale check of a connection
+          // that was never used fails otherwise
+          connection.flush();
+        }
+      }
+    } catch (Exception e) {
+      log.log(Level.FINE, "Could not warm up the connections to port " + port, e);
+    } finally {
+      for (HttpClientConnection connection : opened) {
+        if (connection != null) {
+          pool.connectionManager.releaseConnection(
+              connection, null, idleConnectionTimeoutSeconds, TimeUnit.SECONDS);
+        }
+      }
+    }
+  }
+
+  /**
+   * Closes all connections to the selendroid-server forwarded to the given local port, e.g. once
+   * its session has been stopped.
+   */
+  public static void closeDevicePool(int port) {
+    DevicePool pool = devicePools.remove(port);
+    if (pool != null) {
+      try {
+        pool.client.close();
+      } catch (Exception e) {
+        log.log(Level.FINE, "Error closing the connections to port " + port, e);
+      }
+    }
+  }
+
+  private static DevicePool getDevicePool(int port) {
+    DevicePool pool = devicePools.get(port);
+    if (pool == null) {
+      DevicePool created = new DevicePool(maxConnectionsPerDevice);
+      pool = devicePools.putIfAbsent(port, created);
+      if (pool == null) {
+        pool = created;
+        startIdleConnectionEvictor();
+      } else {
+        created.connectionManager.shutdown();
+      }
+    }
+    return pool;
+  }
+
+  private static synchronized void startIdleConnectionEvictor() {
+    if (idleConnectionEvictor != null) {
+      return;
+    }
+    idleConnectionEvictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "selendroid-idle-connection-evictor");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    long period = Math.max(1, idleConnectionTimeoutSeconds / 2);
+    idleConnectionEvictor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        for (DevicePool pool : devicePools.values()) {
+          pool.connectionManager.closeExpiredConnections();
+          pool.connectionManager.closeIdleConnections(
+              idleConnectionTimeoutSeconds, TimeUnit.SECONDS);
+        }
+      }
+    }, period, period, TimeUnit.SECONDS);
+  }
+
   public static HttpResponse executeRequestWithPayload(String uri, int port, HttpMethod method,
       String payload) throws Exception {
     BasicHttpEntityEnclosingRequest request =
         new BasicHttpEntityEnclosingRequest(method.name(), uri);
     request.setEntity(new StringEntity(payload, "UTF-8"));
 
-    return getHttpClient().execute(new HttpHost("localhost", port), request);
+    return getDeviceHttpClient(port).execute(new HttpHost("localhost", port), request);
   }
 
   public static JSONObject parseJsonResponse(HttpResponse response) throws Exception {
@@ -70,6 +199,19 @@ public class HttpClientUtil {
   }
 
   public static HttpResponse executeRequest(String url, HttpMethod method) throws Exception {
+    return getHttpClient().execute(newRequest(url, method));
+  }
+
+  /**
+   * Sends the request to the selendroid-server forwarded to the given local port, using the
+   * connection pool of that device.
+   */
+  public static HttpResponse executeDeviceRequest(int port, String uri, HttpMethod method)
+      throws Exception {
+    return getDeviceHttpClient(port).execute(newRequest("http://localhost:" + port + uri, method));
+  }
+
+  private static HttpRequestBase newRequest(String url, HttpMethod method) {
     HttpRequestBase request;
     if (HttpMethod.GET.equals(method)) {
       request = new HttpGet(url);
@@ -80,7 +222,7 @@ public class HttpClientUtil {
     } else {
       throw new RuntimeException("Provided HttpMethod not supported: " + method);
     }
-    return getHttpClient().execute(request);
+    return request;
   }
 
   public static boolean isServerStarted(int port) {
@@ -112,4 +254,16 @@ public class HttpClientUtil {
       }
     }
   }
+
+  private static class DevicePool {
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient client;
+
+    DevicePool(int maxConnections) {
+      connectionManager = new PoolingHttpClientConnectionManager();
+      connectionManager.setMaxTotal(maxConnections);
+      connectionManager.setDefaultMaxPerRoute(maxConnections);
+      client = HttpClients.custom().setConnectionManager(connectionManager).build();
+    }
+  }
 }
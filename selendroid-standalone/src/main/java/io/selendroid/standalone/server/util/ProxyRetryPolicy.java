@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.standalone.server.util;
+
+import io.selendroid.server.common.http.HttpRequest;
+import io.selendroid.standalone.server.model.ActiveSession;
+
+/**
+ * Decides whether and when a command that could not be proxied to the device is sent again.
+ */
+public interface ProxyRetryPolicy {
+  /**
+   * Returned by {@link #retryDelayMillis} to give up and answer the command with an error.
+   */
+  long GIVE_UP = -1;
+
+  /**
+   * How far an attempt got before it failed.
+   */
+  enum Failure {
+    /**
+     * No connection could be opened, the request did not reach the device.
+     */
+    NOT_SENT,
+    /**
+     * A kept-alive connection had been closed by the device before the request could be written
+     * to it, the device did not get the request.
+     */
+    STALE_CONNECTION,
+    /**
+     * The request may have been executed by the device.
+     */
+    SENT
+  }
+
+  /**
+   * @param session the session the command belongs to
+   * @param request the command from the client
+   * @param attempt the number of the attempt that failed, starting at 1
+   * @param elapsedMillis time since the first attempt was started
+   * @param failure how far the failed attempt got
+   * @return the delay before the next attempt in milliseconds, or {@link #GIVE_UP}
+   */
+  long retryDelayMillis(ActiveSession session, HttpRequest request, int attempt,
+      long elapsedMillis, Failure failure);
+}
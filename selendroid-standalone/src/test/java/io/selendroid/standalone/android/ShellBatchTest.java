@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.standalone.android;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ShellBatchTest {
+  @Test
+  public void shouldRunEveryCommandInItsOwnSubshell() {
+    ShellBatch batch = new ShellBatch().add("am force-stop a.b").add("pm clear a.b");
+
+    assertEquals("(am force-stop a.b) 2>&1; s=$?; echo; echo __selendroid_step__ 0 $s; "
+        + "(pm clear a.b) 2>&1; s=$?; echo; echo __selendroid_step__ 1 $s; ", batch.toScript());
+  }
+
+  @Test
+  public void shouldParseOutputAndExitCodeOfEveryCommand() {
+    ShellBatch batch = new ShellBatch().add("ls /sdcard").add("pm clear a.b").add("true");
+
+    List<ShellBatch.Result> results = batch.parse(
+        "extension.dex\r\nextra_args.json\r\n\r\n__selendroid_step__ 0 0\r\n"
+        + "Failed\r\n\r\n__selendroid_step__ 1 1\r\n"
+        + "\r\n__selendroid_step__ 2 0");
+
+    assertEquals(3, results.size());
+    assertEquals("extension.dex\nextra_args.json", results.get(0).getOutput());
+    assertTrue(results.get(0).isSuccess());
+    assertEquals("pm clear a.b", results.get(1).getCommand());
+    assertEquals("Failed", results.get(1).getOutput());
+    assertEquals(1, results.get(1).getExitCode());
+    assertEquals("", results.get(2).getOutput());
+    assertTrue(results.get(2).isSuccess());
+  }
+
+  @Test
+  public void shouldMarkCommandsWithoutExitCodeAsUnknown() {
+    ShellBatch batch = new ShellBatch().add("true").add("sleep 100").add("true");
+
+    List<ShellBatch.Result> results = batch.parse("\n__selendroid_step__ 0 0\npartial");
+
+    assertTrue(results.get(0).isSuccess());
+    assertEquals("partial", results.get(1).getOutput());
+    assertEquals(ShellBatch.Result.UNKNOWN_EXIT_CODE, results.get(1).getExitCode());
+    assertFalse(results.get(2).isSuccess());
+    assertEquals("", results.get(2).getOutput());
+  }
+
+  @Test
+  public void shouldPartitionLongBatches() {
+    ShellBatch batch = new ShellBatch().add("echo 1").add("echo 2").add("echo 3");
+    int stepLength = new ShellBatch().add("echo 1").toScript().length();
+
+    List<ShellBatch> parts = batch.partition(stepLength * 2);
+
+    assertEquals(2, parts.size());
+    assertEquals(Arrays.asList("echo 1", "echo 2"), parts.get(0).getCommands());
+    assertEquals(Arrays.asList("echo 3"), parts.get(1).getCommands());
+    assertEquals(1, batch.partition(stepLength * 3).size());
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.standalone.android.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.TimeoutException;
+import io.selendroid.standalone.exceptions.ShellCommandException;
+import io.selendroid.standalone.io.ShellCommand;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.concurrent.TimeUnit;
+
+public class DdmlibAdbTransportTest {
+  private final IDevice device = mock(IDevice.class);
+  private final AdbTransport fallback = mock(AdbTransport.class);
+  private final DdmlibAdbTransport transport = new DdmlibAdbTransport(device, fallback);
+
+  @Test
+  public void shouldCollectStreamedShellOutput() throws Exception {
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        IShellOutputReceiver receiver = (IShellOutputReceiver) invocation.getArguments()[1];
+        byte[] first = "package:io.selen".getBytes();
+        byte[] second = "droid\r\n".getBytes();
+        receiver.addOutput(first, 0, first.length);
+        receiver.addOutput(second, 0, second.length);
+        return null;
+      }
+    }).when(device).executeShellCommand(eq("pm list packages io.selendroid"),
+        any(IShellOutputReceiver.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+
+    assertEquals("package:io.selendroid", transport.shell("pm list packages io.selendroid", 1000));
+    verify(fallback, never())
+        .shell(anyString(), anyLong(), any(ShellCommand.LineConsumer.class));
+  }
+
+  @Test
+  public void shouldStopReadingOnceTheConsumerHasWhatItNeeds() throws Exception {
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        IShellOutputReceiver receiver = (IShellOutputReceiver) invocation.getArguments()[1];
+        byte[] output = "a\nmScreenOn=true\nb\n".getBytes();
+        receiver.addOutput(output, 0, output.length);
+        assertTrue(receiver.isCancelled());
+        return null;
+      }
+    }).when(device).executeShellCommand(eq("dumpsys power"), any(IShellOutputReceiver.class),
+        anyLong(), eq(TimeUnit.MILLISECONDS));
+
+    String output = transport.shell("dumpsys power", 1000, new ShellCommand.LineConsumer() {
+      @Override
+      public boolean onLine(String line) {
+        return !line.startsWith("mScreenOn=");
+      }
+    });
+    assertEquals("a\nmScreenOn=true\nb", output);
+  }
+
+  @Test
+  public void shouldStartAdbIfTheAdbServerDoesNotAnswer() throws Exception {
+    doThrow(new TimeoutException("no answer from adb")).when(device)
+        .executeShellCommand(eq("ps"), any(IShellOutputReceiver.class), anyLong(),
+            eq(TimeUnit.MILLISECONDS));
+    when(fallback.shell("ps", 1000, null)).thenReturn("PID NAME");
+
+    assertEquals("PID NAME", transport.shell("ps", 1000));
+  }
+
+  @Test(expected = ShellCommandException.class)
+  public void shouldNotRepeatCommandsThatTimedOut() throws Exception {
+    doThrow(new ShellCommandUnresponsiveException()).when(device)
+        .executeShellCommand(eq("ps"), any(IShellOutputReceiver.class), anyLong(),
+            eq(TimeUnit.MILLISECONDS));
+
+    transport.shell("ps", 1000);
+  }
+
+  @Test
+  public void shouldLetAdbChooseTheLocalPort() throws Exception {
+    when(fallback.forward(0, 8080)).thenReturn(38080);
+
+    assertEquals(38080, transport.forward(0, 8080));
+    assertEquals(4444, transport.forward(4444, 8080));
+    verify(device).createForward(4444, 8080);
+  }
+}
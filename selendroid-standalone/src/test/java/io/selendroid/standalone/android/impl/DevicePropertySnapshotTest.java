@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.standalone.android.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.openqa.selenium.Dimension;
+
+public class DevicePropertySnapshotTest {
+  private static final String SECTION = "--selendroid-section--\r\n";
+
+  @Test
+  public void shouldParseAllSections() {
+    DevicePropertySnapshot snapshot = DevicePropertySnapshot.parse(
+        "[ro.build.version.sdk]: [21]\r\n"
+        + "[ro.product.model]: [Nexus 5]\r\n"
+        + "[persist.sys.language]: []\r\n"
+        + SECTION + "Physical size: 1080x1920\r\n"
+        + SECTION + "Physical density: 480\r\n"
+        + SECTION + "/system/framework/com.google.android.maps.jar\r\n");
+
+    assertEquals("21", snapshot.getProperty("ro.build.version.sdk"));
+    assertEquals("Nexus 5", snapshot.getProperty("ro.product.model"));
+    assertEquals("", snapshot.getProperty("persist.sys.language"));
+    assertEquals("", snapshot.getProperty("persist.sys.country"));
+    assertEquals(new Dimension(1080, 1920), snapshot.getScreenSize());
+    assertEquals(480, snapshot.getDensity());
+    assertTrue(snapshot.hasGoogleApis());
+  }
+
+  @Test
+  public void shouldFallBackIfWmIsNotAvailable() {
+    DevicePropertySnapshot snapshot = DevicePropertySnapshot.parse(
+        "[ro.build.version.sdk]: [16]\r\n"
+        + "[ro.sf.lcd_density]: [240]\r\n"
+        + SECTION + "/system/bin/sh: wm: not found\r\n"
+        + SECTION + "/system/bin/sh: wm: not found\r\n"
+        + SECTION + "/system/framework/*map*: No such file or directory\r\n");
+
+    assertNull(snapshot.getScreenSize());
+    assertEquals(240, snapshot.getDensity());
+    assertFalse(snapshot.hasGoogleApis());
+  }
+
+  @Test
+  public void shouldReturnEmptySnapshotIfDeviceDidNotAnswer() {
+    DevicePropertySnapshot snapshot = DevicePropertySnapshot.parse("");
+
+    assertTrue(snapshot.getProperties().isEmpty());
+    assertNull(snapshot.getScreenSize());
+    assertFalse(snapshot.hasGoogleApis());
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.standalone.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class OutputCaptureTest {
+  @Test
+  public void shouldKeepTheLastLinesWithinTheLimit() throws Exception {
+    OutputCapture capture = new OutputCapture(12, null);
+    capture.write("first\r\nsecond\nthird\nlast".getBytes());
+
+    assertEquals("[13 characters of output dropped]\nthird\nlast", capture.getOutput());
+    assertEquals(13, capture.getDroppedLength());
+  }
+
+  @Test
+  public void shouldKeepTheEndOfAnOverlongLine() throws Exception {
+    OutputCapture capture = new OutputCapture(4, null);
+    capture.write("0123456789\n".getBytes());
+
+    assertEquals("[6 characters of output dropped]\n6789", capture.getOutput());
+  }
+
+  @Test
+  public void shouldPassLinesToTheConsumerUntilItStops() throws Exception {
+    final List<String> lines = new ArrayList<String>();
+    OutputCapture capture = new OutputCapture(1024, new ShellCommand.LineConsumer() {
+      @Override
+      public boolean onLine(String line) {
+        lines.add(line);
+        return !line.equals("found");
+      }
+    });
+    capture.write("a\n".getBytes());
+    assertFalse(capture.isStopped());
+    capture.write("found\nb\n".getBytes());
+
+    assertTrue(capture.isStopped());
+    assertEquals(2, lines.size());
+    assertEquals("a\nfound\nb", capture.getOutput());
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.standalone.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.selendroid.server.common.SelendroidResponse;
+import io.selendroid.server.common.StatusCode;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DeviceResponseTest {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  @Test
+  public void passesThroughResponsesRenderedByTheDevice() throws Exception {
+    ByteBuf buffer = Unpooled.buffer();
+    new SelendroidResponse("1234", StatusCode.NO_SUCH_ELEMENT, new JSONObject().put("a", "b"))
+        .render(buffer);
+    String body = buffer.toString(UTF_8);
+
+    DeviceResponse response = DeviceResponse.passThrough("1234", buffer);
+
+    assertEquals(body, response.render());
+    assertEquals(StatusCode.NO_SUCH_ELEMENT.getCode(), response.getStatus());
+    assertEquals("1234", response.getSessionId());
+  }
+
+  @Test
+  public void passesThroughResponsesWithoutValue() {
+    DeviceResponse response =
+        DeviceResponse.passThrough("1234", "{\"sessionId\":\"1234\",\"status\":0}".getBytes(UTF_8));
+
+    assertEquals(0, response.getStatus());
+  }
+
+  @Test
+  public void rejectsResponsesOfOtherSessions() {
+    assertNull(DeviceResponse.passThrough("1234",
+        "{\"sessionId\":\"5678\",\"status\":0,\"value\":1}".getBytes(UTF_8)));
+  }
+
+  @Test
+  public void rejectsResponsesInAnotherMemberOrder() {
+    assertNull(DeviceResponse.passThrough("1234",
+        "{\"status\":0,\"sessionId\":\"1234\",\"value\":1}".getBytes(UTF_8)));
+    assertNull(DeviceResponse.passThrough("1234",
+        "{\"sessionId\":\"1234\",\"status\":\"0\"}".getBytes(UTF_8)));
+    assertNull(DeviceResponse.passThrough("1234",
+        "{\"sessionId\":\"1234\",\"status\":".getBytes(UTF_8)));
+  }
+}
@@ -1,19 +1,42 @@
 package io.selendroid.standalone.server.handler;
 
+import io.netty.buffer.Unpooled;
+import io.netty.util.CharsetUtil;
+import io.selendroid.server.common.BaseServlet;
 import io.selendroid.server.common.Response;
 import io.selendroid.server.common.SelendroidResponse;
 import io.selendroid.server.common.StatusCode;
 import io.selendroid.server.common.http.HttpRequest;
+import io.selendroid.server.common.http.HttpResponse;
+import io.selendroid.server.common.http.HttpServer;
+import io.selendroid.server.common.http.HttpServlet;
+import io.selendroid.standalone.server.AsyncResponse;
+import io.selendroid.standalone.server.DeviceResponse;
+import io.selendroid.standalone.server.model.ActiveSession;
+import io.selendroid.standalone.server.model.SelendroidStandaloneDriver;
+import io.selendroid.standalone.server.util.DeviceHttpClient;
 
 import org.json.JSONException;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class ProxyToDeviceHandlerTest
@@ -40,6 +63,176 @@ public class ProxyToDeviceHandlerTest
         assertTrue(selendroidResponse.getValue().toString().contains("No session id passed"));
     }
 
+    @Test
+    public void testProxiesAsynchronouslyAndPassesTheDeviceResponseThrough() throws Exception {
+        HttpServer device = startDevice();
+        HttpServer standalone = new HttpServer(0);
+        standalone.start();
+        DeviceHttpClient client = new DeviceHttpClient(standalone);
+        try {
+            ProxyToDeviceHandler asyncHandler = new ProxyToDeviceHandler("/wd/hub/session/", client);
+
+            Response response = asyncHandler.handle(
+                createDeviceRequest(device.getPort(), "GET", "/wd/hub/session/1234/url"));
+            assertTrue(response instanceof AsyncResponse);
+            Response result = ((AsyncResponse) response).getFuture().get(5, TimeUnit.SECONDS);
+
+            assertTrue(result instanceof DeviceResponse);
+            assertEquals("{\"sessionId\":\"1234\",\"status\":0,\"value\":\"GET /wd/hub/session/1234/url\"}",
+                result.render());
+            ((DeviceResponse) result).release();
+
+            result = ((AsyncResponse) asyncHandler.handle(
+                createDeviceRequest(device.getPort(), "GET", "/wd/hub/session/1234/unknown")))
+                .getFuture().get(5, TimeUnit.SECONDS);
+            assertEquals(StatusCode.UNKNOWN_COMMAND.getCode(), ((SelendroidResponse) result).getStatus());
+        } finally {
+            client.shutdown();
+            standalone.stop();
+            device.stop();
+        }
+    }
+
+    @Test
+    public void testForwardsTheBodyWithoutParsingIt() throws Exception {
+        HttpServer device = startDevice();
+        HttpServer standalone = new HttpServer(0);
+        standalone.start();
+        DeviceHttpClient client = new DeviceHttpClient(standalone);
+        try {
+            ProxyToDeviceHandler asyncHandler = new ProxyToDeviceHandler("/wd/hub/session/", client);
+            HttpRequest request =
+                createDeviceRequest(device.getPort(), "POST", "/wd/hub/session/1234/element");
+            when(request.content()).thenReturn(
+                Unpooled.copiedBuffer("not parsed by the standalone", CharsetUtil.UTF_8));
+
+            Response result = ((AsyncResponse) asyncHandler.handle(request))
+                .getFuture().get(5, TimeUnit.SECONDS);
+            assertEquals(0, ((DeviceResponse) result).getStatus());
+            ((DeviceResponse) result).release();
+
+            verify(request, never()).body();
+            verify(request, never()).bodyStream();
+            assertFalse(request.data().containsKey(BaseServlet.PAYLOAD_KEY));
+        } finally {
+            client.shutdown();
+            standalone.stop();
+            device.stop();
+        }
+    }
+
+    @Test
+    public void testDoesNotSendMutatingCommandsAgainIfTheDeviceDroppedTheConnection()
+        throws Exception {
+        final ServerSocket device = new ServerSocket(0);
+        final AtomicInteger clicks = new AtomicInteger();
+        Thread deviceThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Socket first = device.accept();
+                    BufferedReader in = readRequest(first, null);
+                    clicks.incrementAndGet();
+                    respond(first);
+                    // The device reads the click on the kept-alive connection and drops it.
+                    readRequest(first, in);
+                    clicks.incrementAndGet();
+                    first.close();
+                    Socket second = device.accept();
+                    readRequest(second, null);
+                    clicks.incrementAndGet();
+                    respond(second);
+                    second.close();
+                } catch (IOException e) {
+                    // the device is stopped by the test
+                }
+            }
+        });
+        deviceThread.start();
+        HttpServer standalone = new HttpServer(0);
+        standalone.start();
+        DeviceHttpClient client = new DeviceHttpClient(standalone);
+        try {
+            ProxyToDeviceHandler asyncHandler = new ProxyToDeviceHandler("/wd/hub/session/", client);
+            String click = "/wd/hub/session/1234/element/1/click";
+
+            Response result = ((AsyncResponse) asyncHandler.handle(
+                createDeviceRequest(device.getLocalPort(), "POST", click)))
+                .getFuture().get(5, TimeUnit.SECONDS);
+            assertEquals(0, ((DeviceResponse) result).getStatus());
+            ((DeviceResponse) result).release();
+
+            result = ((AsyncResponse) asyncHandler.handle(
+                createDeviceRequest(device.getLocalPort(), "POST", click)))
+                .getFuture().get(5, TimeUnit.SECONDS);
+            assertTrue(result instanceof SelendroidResponse);
+            assertEquals(StatusCode.UNKNOWN_ERROR.getCode(), ((SelendroidResponse) result).getStatus());
+            assertEquals(2, clicks.get());
+        } finally {
+            client.shutdown();
+            standalone.stop();
+            device.close();
+            deviceThread.join(5000);
+        }
+    }
+
+    private static BufferedReader readRequest(Socket socket, BufferedReader in) throws IOException {
+        if (in == null) {
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+        }
+        String line;
+        while ((line = in.readLine()) != null && !line.isEmpty()) {
+            // the commands of the test have no body
+        }
+        return in;
+    }
+
+    private static void respond(Socket socket) throws IOException {
+        byte[] body = "{\"sessionId\":\"1234\",\"status\":0,\"value\":null}".getBytes("UTF-8");
+        OutputStream out = socket.getOutputStream();
+        out.write(("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: "
+            + body.length + "\r\n\r\n").getBytes("UTF-8"));
+        out.write(body);
+        out.flush();
+    }
+
+    private HttpServer startDevice() {
+        HttpServer device = new HttpServer(0);
+        device.addHandler(new HttpServlet() {
+            @Override
+            public void handleHttpRequest(HttpRequest request, HttpResponse response) {
+                if (request.uri().endsWith("/unknown")) {
+                    response.setStatus(404);
+                } else {
+                    response.setContentType("application/json");
+                    response.setContent("{\"sessionId\":\"1234\",\"status\":0,\"value\":\""
+                        + request.method() + " " + request.uri() + "\"}");
+                }
+                response.end();
+            }
+        });
+        device.start();
+        return device;
+    }
+
+    private HttpRequest createDeviceRequest(int port, String method, String uri) {
+        ActiveSession session = mock(ActiveSession.class);
+        when(session.getSessionId()).thenReturn("1234");
+        when(session.getSelendroidServerPort()).thenReturn(port);
+        when(session.acquireProxyRetry(anyInt(), anyLong())).thenReturn(true);
+        SelendroidStandaloneDriver driver = mock(SelendroidStandaloneDriver.class);
+        when(driver.getActiveSession("1234")).thenReturn(session);
+
+        Map<String, Object> data = new HashMap<String, Object>();
+        data.put(BaseServlet.SESSION_ID_KEY, "1234");
+        data.put(BaseServlet.DRIVER_KEY, driver);
+        HttpRequest request = createHttpRequestWithData(data);
+        when(request.method()).thenReturn(method);
+        when(request.uri()).thenReturn(uri);
+        when(request.content()).thenReturn(Unpooled.EMPTY_BUFFER);
+        return request;
+    }
+
     private HttpRequest createHttpRequestWithData(Map<String, Object> data) {
         HttpRequest request = mock(HttpRequest.class);
 
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.standalone.server.model;
+
+import io.selendroid.common.SelendroidCapabilities;
+import io.selendroid.standalone.android.AndroidDevice;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class ActiveSessionTest {
+
+  private static ActiveSession aSession() {
+    return new ActiveSession("1234", new SelendroidCapabilities(), null, mock(AndroidDevice.class),
+        8080);
+  }
+
+  @Test
+  public void shouldRefuseRetriesOnceTheBudgetIsSpent() {
+    ActiveSession session = aSession();
+
+    assertTrue(session.acquireProxyRetry(2, 0));
+    assertTrue(session.acquireProxyRetry(2, 0));
+    assertFalse(session.acquireProxyRetry(2, 0));
+    assertEquals(2, session.getProxyRetries());
+  }
+
+  @Test
+  public void shouldGiveRetriesBackOverTime() throws Exception {
+    ActiveSession session = aSession();
+    assertTrue(session.acquireProxyRetry(2, 20));
+    assertTrue(session.acquireProxyRetry(2, 20));
+    assertFalse(session.acquireProxyRetry(2, 20));
+
+    Thread.sleep(200);
+
+    // The budget refills up to its size only.
+    assertTrue(session.acquireProxyRetry(2, 20));
+    assertTrue(session.acquireProxyRetry(2, 20));
+    assertFalse(session.acquireProxyRetry(2, 20));
+    assertEquals(4, session.getProxyRetries());
+  }
+}
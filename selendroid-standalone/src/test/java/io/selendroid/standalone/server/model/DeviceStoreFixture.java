@@ -17,6 +17,8 @@ import com.android.ddmlib.IDevice;
 
 import java.util.Map;
 
+import org.openqa.selenium.Dimension;
+
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import io.selendroid.common.SelendroidCapabilities;
@@ -25,6 +27,7 @@ import io.selendroid.standalone.android.DeviceManager;
 import io.selendroid.standalone.android.impl.DefaultAndroidEmulator;
 import io.selendroid.standalone.android.impl.DefaultHardwareDevice;
 import io.selendroid.standalone.exceptions.AndroidDeviceException;
+import io.selendroid.standalone.io.ShellCommand;
 
 public class DeviceStoreFixture {
   protected static DefaultHardwareDevice anDevice(String name, DeviceTargetPlatform platform)
@@ -33,7 +36,7 @@ public class DeviceStoreFixture {
     when(device.getModel()).thenReturn(name);
     when(device.getTargetPlatform()).thenReturn(platform);
     when(device.isDeviceReady()).thenReturn(true);
-    when(device.screenSizeMatches("320x480")).thenReturn(true);
+    when(device.getScreenSize()).thenReturn(new Dimension(320, 480));
 
     return device;
   }
@@ -54,7 +57,7 @@ public class DeviceStoreFixture {
     when(emulator.getTargetPlatform()).thenReturn(platform);
     when(emulator.isEmulatorStarted()).thenReturn(isEmulatorStarted);
     when(emulator.isDeviceReady()).thenReturn(false);
-    when(emulator.screenSizeMatches("320x480")).thenReturn(true);
+    when(emulator.getScreenSize()).thenReturn(new Dimension(320, 480));
     when(emulator.getAPITargetType()).thenReturn(apiTargetType);
 
     return emulator;
@@ -108,5 +111,18 @@ public class DeviceStoreFixture {
     public String getProp(String name) {
       return prop.get(name);
     }
+
+    @Override
+    protected String shellQuietly(String command, ShellCommand.LineConsumer consumer) {
+      // answers the getprop part of the property snapshot, prop is null while constructing
+      StringBuilder output = new StringBuilder();
+      if (prop != null && command.startsWith("getprop")) {
+        for (Map.Entry<String, String> entry : prop.entrySet()) {
+          output.append('[').append(entry.getKey()).append("]: [").append(entry.getValue())
+              .append("]\n");
+        }
+      }
+      return output.toString();
+    }
   }
 }
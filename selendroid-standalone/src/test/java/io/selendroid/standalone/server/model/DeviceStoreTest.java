@@ -25,17 +25,23 @@ import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.android.ddmlib.IDevice;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 
 import io.selendroid.common.SelendroidCapabilities;
 import io.selendroid.common.device.DeviceTargetPlatform;
+import io.selendroid.server.common.http.TrafficMetrics;
+import io.selendroid.standalone.android.AndroidApp;
 import io.selendroid.standalone.android.AndroidDevice;
 import io.selendroid.standalone.android.AndroidEmulator;
 import io.selendroid.standalone.android.impl.DefaultAndroidEmulator;
@@ -51,9 +57,17 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.openqa.selenium.Dimension;
 
 /**
@@ -129,6 +143,203 @@ public class DeviceStoreTest {
     Assert.assertEquals(deviceStore.getDevicesInUse().size(), 0);
   }
 
+  @Test
+  public void shouldReleaseDeviceInBackground() throws Exception {
+    DefaultHardwareDevice device = anDevice("de", DeviceTargetPlatform.ANDROID16);
+    AndroidApp aut = mock(AndroidApp.class);
+    final CountDownLatch killing = new CountDownLatch(1);
+    final CountDownLatch killed = new CountDownLatch(1);
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        killing.countDown();
+        killed.await();
+        return null;
+      }
+    }).when(device).kill(aut, true);
+    Runnable whenReleased = mock(Runnable.class);
+
+    DeviceStore deviceStore = new DeviceStore(EMULATOR_PORT, anDeviceManager());
+    deviceStore.addDevice(device);
+    assertThat(deviceStore.findAndroidDevice(withDefaultCapabilities()),
+        equalTo((AndroidDevice) device));
+    Future<?> released = deviceStore.releaseAsync(device, aut, whenReleased);
+    killing.await();
+
+    // the device stays in use while it is released
+    assertThat(deviceStore.isReleasing(device), is(true));
+    try {
+      deviceStore.findAndroidDevice(withDefaultCapabilities());
+      Assert.fail("A device being released must not be found.");
+    } catch (DeviceStoreException e) {
+      assertThat(e.getMessage(), containsString("being released"));
+    }
+
+    killed.countDown();
+    released.get(5, TimeUnit.SECONDS);
+    verify(device).kill(aut, true);
+    verify(whenReleased).run();
+    assertThat(deviceStore.isReleasing(device), is(false));
+    assertThat(deviceStore.getDevicesInUse(), hasSize(0));
+    assertThat(deviceStore.shutdown(5, TimeUnit.SECONDS), is(true));
+  }
+
+  @Test
+  public void shouldReleaseDeviceOnCallingThreadAfterShutdown() throws Exception {
+    DefaultHardwareDevice device = anDevice("de", DeviceTargetPlatform.ANDROID16);
+    AndroidApp aut = mock(AndroidApp.class);
+    Runnable whenReleased = mock(Runnable.class);
+
+    DeviceStore deviceStore = new DeviceStore(EMULATOR_PORT, anDeviceManager());
+    deviceStore.addDevice(device);
+    deviceStore.findAndroidDevice(withDefaultCapabilities());
+    assertThat(deviceStore.shutdown(5, TimeUnit.SECONDS), is(true));
+
+    Future<?> released = deviceStore.releaseAsync(device, aut, whenReleased);
+    assertThat(released.isDone(), is(true));
+    verify(device).kill(aut, true);
+    verify(whenReleased).run();
+    assertThat(deviceStore.isReleasing(device), is(false));
+    assertThat(deviceStore.getDevicesInUse(), hasSize(0));
+  }
+
+  private static Future<AndroidDevice> findInBackground(final DeviceStore store,
+      final SelendroidCapabilities caps, final long timeoutMillis) throws InterruptedException {
+    final int waiting = store.getWaitingRequests();
+    FutureTask<AndroidDevice> request = new FutureTask<AndroidDevice>(new Callable<AndroidDevice>() {
+      @Override
+      public AndroidDevice call() throws Exception {
+        return store.findAndroidDevice(caps, timeoutMillis);
+      }
+    });
+    new Thread(request).start();
+    while (store.getWaitingRequests() == waiting) {
+      Thread.sleep(5);
+    }
+    return request;
+  }
+
+  @Test
+  public void shouldHandReleasedDeviceToWaitingRequest() throws Exception {
+    DefaultHardwareDevice device = anDevice("de", DeviceTargetPlatform.ANDROID16);
+    TrafficMetrics metrics = new TrafficMetrics();
+    DeviceStore deviceStore = new DeviceStore(EMULATOR_PORT, anDeviceManager());
+    deviceStore.setMetrics(metrics);
+    deviceStore.addDevice(device);
+    deviceStore.findAndroidDevice(withDefaultCapabilities());
+
+    Future<AndroidDevice> request = findInBackground(deviceStore, withDefaultCapabilities(), 5000);
+    assertThat(metrics.counter("deviceQueue.waiting").get(), is(1L));
+    deviceStore.release(device, null);
+
+    assertThat(request.get(5, TimeUnit.SECONDS), equalTo((AndroidDevice) device));
+    assertThat(deviceStore.getDevicesInUse(), contains((AndroidDevice) device));
+    assertThat(deviceStore.getWaitingRequests(), is(0));
+    assertThat(metrics.counter("deviceQueue.granted").get(), is(1L));
+    assertThat(metrics.counter("deviceQueue.waiting").get(), is(0L));
+  }
+
+  @Test
+  public void shouldHandDeviceToWaitingRequestWithHigherPriorityFirst() throws Exception {
+    DefaultHardwareDevice device = anDevice("de", DeviceTargetPlatform.ANDROID16);
+    DeviceStore deviceStore = new DeviceStore(EMULATOR_PORT, anDeviceManager());
+    deviceStore.addDevice(device);
+    deviceStore.findAndroidDevice(withDefaultCapabilities());
+
+    Future<AndroidDevice> first = findInBackground(deviceStore, withDefaultCapabilities(), 300);
+    SelendroidCapabilities urgent = withDefaultCapabilities();
+    urgent.setDeviceWaitPriority(1);
+    Future<AndroidDevice> second = findInBackground(deviceStore, urgent, 5000);
+    deviceStore.release(device, null);
+
+    assertThat(second.get(5, TimeUnit.SECONDS), equalTo((AndroidDevice) device));
+    try {
+      first.get(5, TimeUnit.SECONDS);
+      Assert.fail("The device must be given to the request with the higher priority.");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(DeviceStoreException.class));
+    }
+  }
+
+  @Test
+  public void shouldNotifyListenerWhenRequestWaits() throws Exception {
+    DefaultHardwareDevice device = anDevice("de", DeviceTargetPlatform.ANDROID16);
+    DeviceStore deviceStore = new DeviceStore(EMULATOR_PORT, anDeviceManager());
+    final CountDownLatch queued = new CountDownLatch(1);
+    deviceStore.setRequestQueuedListener(new Runnable() {
+      @Override
+      public void run() {
+        queued.countDown();
+      }
+    });
+    deviceStore.addDevice(device);
+    deviceStore.findAndroidDevice(withDefaultCapabilities());
+    assertThat(deviceStore.isWaitedFor(device), is(false));
+
+    Future<AndroidDevice> request = findInBackground(deviceStore, withDefaultCapabilities(), 5000);
+    assertThat(queued.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(deviceStore.isWaitedFor(device), is(true));
+
+    deviceStore.release(device, null);
+    assertThat(request.get(5, TimeUnit.SECONDS), equalTo((AndroidDevice) device));
+    assertThat(deviceStore.isWaitedFor(device), is(false));
+  }
+
+  @Test
+  public void shouldRejectRequestsIfTooManyAreWaiting() throws Exception {
+    DefaultHardwareDevice device = anDevice("de", DeviceTargetPlatform.ANDROID16);
+    TrafficMetrics metrics = new TrafficMetrics();
+    DeviceStore deviceStore = new DeviceStore(EMULATOR_PORT, anDeviceManager());
+    deviceStore.setMetrics(metrics);
+    deviceStore.setMaxWaitingRequests(1);
+    deviceStore.addDevice(device);
+    deviceStore.findAndroidDevice(withDefaultCapabilities());
+
+    Future<AndroidDevice> waiting = findInBackground(deviceStore, withDefaultCapabilities(), 5000);
+    try {
+      deviceStore.findAndroidDevice(withDefaultCapabilities(), 5000);
+      Assert.fail("The wait queue is full.");
+    } catch (DeviceStoreException e) {
+      assertThat(metrics.counter("deviceQueue.rejected").get(), is(1L));
+    }
+    deviceStore.release(device, null);
+    assertThat(waiting.get(5, TimeUnit.SECONDS), equalTo((AndroidDevice) device));
+  }
+
+  @Test
+  public void shouldMatchDevicesWithoutQueryingThem() throws Exception {
+    DefaultHardwareDevice device = anDevice("Nexus 5", DeviceTargetPlatform.ANDROID16);
+    DeviceStore deviceStore = new DeviceStore(EMULATOR_PORT, anDeviceManager());
+    deviceStore.addDevice(device);
+
+    for (int i = 0; i < 3; i++) {
+      AndroidDevice found = deviceStore.findAndroidDevice(withModelCapabilities());
+      assertThat(found, equalTo((AndroidDevice) device));
+      deviceStore.release(found, null);
+    }
+    assertThat(deviceStore.matches(device, withWrongModelCapabilities()), is(false));
+
+    verify(device, times(1)).getModel();
+    verify(device, times(1)).getScreenSize();
+    verify(device, times(0)).screenSizeMatches("320x480");
+  }
+
+  @Test
+  public void shouldOnlyMatchUnknownScreenSizeIfNoneIsRequested() throws Exception {
+    DefaultHardwareDevice device = anDevice("Nexus 5", DeviceTargetPlatform.ANDROID16);
+    when(device.getScreenSize()).thenReturn(null);
+    DeviceStore deviceStore = new DeviceStore(EMULATOR_PORT, anDeviceManager());
+    deviceStore.addDevice(device);
+
+    assertThat(deviceStore.matches(device, withModelCapabilities()), is(false));
+    SelendroidCapabilities anyScreenSize = withModelCapabilities();
+    anyScreenSize.setScreenSize(null);
+    assertThat(deviceStore.matches(device, anyScreenSize), is(true));
+
+    verify(device, times(1)).getScreenSize();
+    verify(device, times(0)).screenSizeMatches(anyString());
+  }
+
   @Test
   public void shouldRegisterMultipleNotStatedEmulators() throws Exception {
     AndroidEmulator deEmulator10 = anEmulator("de", DeviceTargetPlatform.ANDROID10, false, null);
@@ -223,22 +434,15 @@ public class DeviceStoreTest {
   }
 
   @Test
-  public void shouldThrowAnExceptionIfTargetPlatformIsMissingInCapabilities() throws Exception {
+  public void shouldFindDeviceOfAnyPlatformIfTargetPlatformIsMissingInCapabilities()
+      throws Exception {
     // prepare device store
     DefaultAndroidEmulator deEmulator16 = anEmulator("de", DeviceTargetPlatform.ANDROID16, false, null);
     DeviceStore deviceStore = new DeviceStore(EMULATOR_PORT, anDeviceManager());
     deviceStore.addEmulators(Arrays.asList(new AndroidEmulator[] {deEmulator16}));
 
     SelendroidCapabilities capa = new SelendroidCapabilities();
-    try {
-      deviceStore.findAndroidDevice(capa);
-      Assert.fail();
-    } catch (DeviceStoreException e) {
-      Assert
-          .assertEquals(
-              "No devices are found. This can happen if the devices are in use or no device screen matches the required capabilities.",
-              e.getMessage());
-    }
+    assertThat(deviceStore.findAndroidDevice(capa), equalTo((AndroidDevice) deEmulator16));
   }
 
   @Test
@@ -315,8 +519,10 @@ public class DeviceStoreTest {
     assertThat(store.getDevicesList().get(null), contains(device));
 
     // After phone properties are available, HardwareDeviceListener#onDeviceChanged is called
+    // once the device manager has read them again
     prop.put("ro.build.version.sdk", "16");
     prop.put("ro.product.model", "en");
+    ((DefaultHardwareDevice) device).refreshProperties();
     store.updateDevice(device);
 
     assertThat(store.getDevicesList().get(null), hasSize(0));
@@ -324,6 +530,24 @@ public class DeviceStoreTest {
     assertThat(store.getDevicesList().get(DeviceTargetPlatform.ANDROID16), contains(device));
   }
 
+  @Test
+  public void shouldAddEmulatorsThatAreNotStarted() throws Exception {
+    DefaultAndroidEmulator emulator = new DefaultAndroidEmulator("Name: de\n"
+        + "Device: Nexus 5\n"
+        + "Path: /no/such/avd/de.avd\n"
+        + "Target: Android 4.1.2 (API level 16)\n"
+        + "Skin: 320x480\n");
+
+    DeviceStore store = new DeviceStore(EMULATOR_PORT, anDeviceManager());
+    store.addEmulators(Arrays.asList(new AndroidEmulator[] {emulator}));
+    assertThat(store.matches(emulator, withDefaultCapabilities()), is(true));
+
+    // Once the emulator is started it gets an IDevice, and with it another hash code.
+    emulator.setIDevice(mock(IDevice.class));
+    assertThat(store.matches(emulator, withDefaultCapabilities()), is(true));
+    assertThat(store.findAndroidDevice(withDefaultCapabilities()), is((AndroidDevice) emulator));
+  }
+
   @Test
   public void testShouldBeAbleToRemoveDevices() throws Exception {
     DefaultAndroidEmulator emulator = anEmulator("de", DeviceTargetPlatform.ANDROID10, false, null);
@@ -356,7 +580,6 @@ public class DeviceStoreTest {
     when(device.getTargetPlatform()).thenReturn(DeviceTargetPlatform.ANDROID16);
     when(device.isDeviceReady()).thenReturn(Boolean.TRUE);
     when(device.getScreenSize()).thenReturn(new Dimension(320, 480));
-    when(device.screenSizeMatches("320x480")).thenReturn(Boolean.TRUE);
 
     DeviceStore store = new DeviceStore(EMULATOR_PORT, anDeviceManager());
     store.addDevice(device);
@@ -375,7 +598,6 @@ public class DeviceStoreTest {
     when(device.getTargetPlatform()).thenReturn(DeviceTargetPlatform.ANDROID16);
     when(device.isDeviceReady()).thenReturn(Boolean.TRUE);
     when(device.getScreenSize()).thenReturn(new Dimension(320, 500));
-    when(device.screenSizeMatches("320x500")).thenReturn(Boolean.FALSE);
 
     DeviceStore store = new DeviceStore(EMULATOR_PORT, anDeviceManager());
     store.addDevice(device);
@@ -402,7 +624,6 @@ public class DeviceStoreTest {
           when(device.getTargetPlatform()).thenReturn(DeviceTargetPlatform.ANDROID16);
           when(device.isDeviceReady()).thenReturn(Boolean.TRUE);
           when(device.getScreenSize()).thenReturn(new Dimension(320, 480));
-          when(device.screenSizeMatches("320x480")).thenReturn(Boolean.TRUE);
       }
 
       when(device1.getSerial()).thenReturn(device1Serial);
@@ -432,7 +653,6 @@ public class DeviceStoreTest {
       when(device.getTargetPlatform()).thenReturn(DeviceTargetPlatform.ANDROID16);
       when(device.isDeviceReady()).thenReturn(Boolean.TRUE);
       when(device.getScreenSize()).thenReturn(new Dimension(320, 480));
-      when(device.screenSizeMatches("320x480")).thenReturn(Boolean.TRUE);
       when(device.getSerial()).thenReturn(serial);
 
       DeviceStore store = new DeviceStore(EMULATOR_PORT, anDeviceManager());
@@ -469,6 +689,25 @@ public class DeviceStoreTest {
     assertThat(store.getDevicesList().values(), hasSize(0));
   }
 
+  @Test
+  public void shouldNotHandRemovedDeviceToWaitingRequest() throws Exception {
+    DefaultHardwareDevice device = anDevice("de", DeviceTargetPlatform.ANDROID16);
+    DeviceStore store = new DeviceStore(EMULATOR_PORT, anDeviceManager());
+    store.addDevice(device);
+    store.findAndroidDevice(withDefaultCapabilities());
+
+    Future<AndroidDevice> request = findInBackground(store, withDefaultCapabilities(), 300);
+    store.removeAndroidDevice(device);
+
+    try {
+      request.get(5, TimeUnit.SECONDS);
+      Assert.fail("The removed device must not be handed to the waiting request.");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(DeviceStoreException.class));
+    }
+    assertThat(store.getDevicesInUse(), hasSize(0));
+  }
+
   @Test
   public void shouldNotRemoveAnEmulator() throws Exception {
     DefaultAndroidEmulator deEmulator10 = anEmulator("de", DeviceTargetPlatform.ANDROID16, false, null);
@@ -32,8 +32,13 @@ import io.selendroid.standalone.server.model.DeviceStore;
 import io.selendroid.standalone.server.model.SelendroidStandaloneDriver;
 import io.selendroid.standalone.server.support.DeviceForTest;
 import io.selendroid.standalone.server.support.TestSessionListener;
+import io.selendroid.standalone.server.util.DeviceHttpClient;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
@@ -122,13 +127,78 @@ public class SelendroidStandaloneDriverTest {
     createTestSession(new SelendroidConfiguration(), caps);
   }
 
+  @Test
+  public void shouldCloseDeviceConnectionsWhenStoppingSession() throws Exception {
+    SelendroidStandaloneDriver driver = getSelendroidStandaloneDriver();
+    DeviceHttpClient deviceClient = mock(DeviceHttpClient.class);
+    driver.setDeviceClient(deviceClient);
+    SelendroidCapabilities caps = new SelendroidCapabilities();
+    caps.setAut(TEST_APP_ID);
+    caps.setLaunchActivity(TEST_APP_LAUNCH_ACTIVITY);
+
+    int port = createTestSession(driver, new SelendroidConfiguration(), caps, true);
+
+    verify(deviceClient).closeConnections(port);
+  }
+
+  @Test
+  public void shouldRunPreSessionCommandsOnceBothAppsAreInstalled() throws Exception {
+    final List<String> steps = Collections.synchronizedList(new ArrayList<String>());
+    DeviceForTest emulator = new DeviceForTest(DeviceTargetPlatform.ANDROID16) {
+      @Override
+      public void install(AndroidApp app) {
+        try {
+          // A slow install would overlap with the commands if they didn't wait for it
+          Thread.sleep(100);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        steps.add("install");
+      }
+
+      @Override
+      public String runAdbCommand(String parameter) {
+        if (!parameter.startsWith("shell echo")) {
+          steps.add(parameter);
+        }
+        return "";
+      }
+    };
+    SelendroidCapabilities caps = new SelendroidCapabilities();
+    caps.setAut(TEST_APP_ID);
+    caps.setLaunchActivity(TEST_APP_LAUNCH_ACTIVITY);
+    caps.setPreSessionAdbCommands(Arrays.asList("forward tcp:1234 tcp:1234"));
+    caps.setSelendroidExtensions("extension.dex");
+
+    createTestSession(getSelendroidStandaloneDriver(), new SelendroidConfiguration(), caps,
+        emulator, false);
+
+    int lastInstall = steps.lastIndexOf("install");
+    int command = steps.indexOf("forward tcp:1234 tcp:1234");
+    Assert.assertTrue(steps.toString(), lastInstall >= 0 && command > lastInstall);
+    Assert.assertEquals(command + 1, steps.size() - 1);
+    Assert.assertTrue(steps.get(command + 1).startsWith("push extension.dex "));
+  }
+
   private void createTestSession(SelendroidConfiguration conf, SelendroidCapabilities caps) throws Exception{
+    createTestSession(getSelendroidStandaloneDriver(), conf, caps, false);
+  }
+
+  /**
+   * @return the port of the selendroid-server of the session
+   */
+  private int createTestSession(SelendroidStandaloneDriver driver, SelendroidConfiguration conf,
+      SelendroidCapabilities caps, boolean stopSession) throws Exception {
+    return createTestSession(driver, conf, caps, new DeviceForTest(DeviceTargetPlatform.ANDROID16),
+        stopSession);
+  }
+
+  private int createTestSession(SelendroidStandaloneDriver driver, SelendroidConfiguration conf,
+      SelendroidCapabilities caps, DeviceForTest emulator, boolean stopSession) throws Exception {
     // Setting up driver with test app and device stub
-    SelendroidStandaloneDriver driver = getSelendroidStandaloneDriver();
     driver.initApplicationsUnderTest(conf);
     DeviceStore store = new DeviceStore(EMULATOR_PORT, getDeviceManager());
 
-    DeviceForTest emulator = new DeviceForTest(DeviceTargetPlatform.ANDROID16);
     Random random = new Random();
     final UUID definedSessionId = new UUID(random.nextLong(), random.nextLong());
 
@@ -146,6 +216,11 @@ public class SelendroidStandaloneDriverTest {
     try {
       String sessionId = driver.createNewTestSession(new JSONObject(caps.asMap()), 0);
       Assert.assertNotNull(UUID.fromString(sessionId));
+      int port = driver.getActiveSession(sessionId).getSelendroidServerPort();
+      if (stopSession) {
+        driver.stopSession(sessionId);
+      }
+      return port;
     } finally {
       // this will also stop the http server
       emulator.stop();
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.standalone.server.model;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import io.selendroid.standalone.android.AndroidDevice;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SessionTimeoutTaskTest {
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+  @After
+  public void shutdownScheduler() {
+    scheduler.shutdownNow();
+  }
+
+  private static ActiveSession newSession(SelendroidStandaloneDriver driver) {
+    ActiveSession session = new ActiveSession("1", null, null, mock(AndroidDevice.class), 8080);
+    when(driver.getActiveSession("1")).thenReturn(session);
+    return session;
+  }
+
+  @Test
+  public void stopsIdleSession() throws Exception {
+    SelendroidStandaloneDriver driver = mock(SelendroidStandaloneDriver.class);
+    newSession(driver);
+    new SessionTimeoutTask(driver, driver.getActiveSession("1"), scheduler, 50).schedule();
+
+    verify(driver, timeout(2000)).stopSession("1");
+  }
+
+  @Test
+  public void commandsRestartTheTimeout() throws Exception {
+    SelendroidStandaloneDriver driver = mock(SelendroidStandaloneDriver.class);
+    ActiveSession session = newSession(driver);
+    new SessionTimeoutTask(driver, session, scheduler, 300).schedule();
+
+    for (int i = 0; i < 6; i++) {
+      Thread.sleep(100);
+      session.touch();
+    }
+    verify(driver, never()).stopSession("1");
+    verify(driver, timeout(2000)).stopSession("1");
+  }
+
+  @Test
+  public void cancelledWithTheSession() throws Exception {
+    SelendroidStandaloneDriver driver = mock(SelendroidStandaloneDriver.class);
+    ActiveSession session = newSession(driver);
+    new SessionTimeoutTask(driver, session, scheduler, 100).schedule();
+    session.stopSessionTimer();
+
+    Thread.sleep(300);
+    verify(driver, never()).stopSession("1");
+  }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2014 eBay Software Foundation and selendroid committers.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package io.selendroid.standalone.server.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import io.selendroid.common.SelendroidCapabilities;
+import io.selendroid.standalone.android.AndroidDevice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+public class WarmSessionPoolTest {
+  private static final Executor DIRECT = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  private static class FakeStarter implements WarmSessionPool.Starter {
+    final List<String> started = new ArrayList<String>();
+    final List<WarmSessionPool.WarmServer> stopped = new ArrayList<WarmSessionPool.WarmServer>();
+    boolean devicesAvailable = true;
+    boolean matches = true;
+    // the number of waiting session requests, each stopped server satisfies one
+    int waiting = 0;
+
+    @Override
+    public WarmSessionPool.WarmServer start(String appId) throws Exception {
+      if (!devicesAvailable) {
+        throw new Exception("no idle device");
+      }
+      started.add(appId);
+      return new WarmSessionPool.WarmServer(appId, null, mock(AndroidDevice.class),
+          38080 + started.size(), new InstrumentationWatch());
+    }
+
+    @Override
+    public void stop(WarmSessionPool.WarmServer server) {
+      stopped.add(server);
+      if (waiting > 0) {
+        waiting--;
+      }
+    }
+
+    @Override
+    public boolean matches(AndroidDevice device, SelendroidCapabilities capabilities) {
+      return matches;
+    }
+
+    @Override
+    public boolean isWanted(AndroidDevice device) {
+      return waiting > 0;
+    }
+  }
+
+  @Test
+  public void shouldKeepTheMostRequestedAppsWarm() {
+    WarmSessionPool pool =
+        new WarmSessionPool(3, Collections.<String>emptyList(), new FakeStarter(), DIRECT);
+    pool.recordRequest("b:1");
+    pool.recordRequest("a:1");
+    pool.recordRequest("a:1");
+
+    assertEquals(Arrays.asList("a:1", "b:1", "a:1"), pool.targetApps());
+  }
+
+  @Test
+  public void shouldPreferConfiguredApps() {
+    WarmSessionPool pool = new WarmSessionPool(2, Arrays.asList("c:1"), new FakeStarter(), DIRECT);
+    pool.recordRequest("a:1");
+
+    assertEquals(Arrays.asList("c:1", "c:1"), pool.targetApps());
+  }
+
+  @Test
+  public void shouldRefillOnlyMissingServers() {
+    FakeStarter starter = new FakeStarter();
+    WarmSessionPool pool = new WarmSessionPool(2, Arrays.asList("a:1", "b:1"), starter, DIRECT);
+    pool.refill();
+    pool.refill();
+
+    assertEquals(Arrays.asList("a:1", "b:1"), starter.started);
+    assertEquals(2, pool.getIdleServers().size());
+  }
+
+  @Test
+  public void shouldRetryFailedStartsOnNextRefill() {
+    FakeStarter starter = new FakeStarter();
+    starter.devicesAvailable = false;
+    WarmSessionPool pool = new WarmSessionPool(1, Arrays.asList("a:1"), starter, DIRECT);
+    pool.refill();
+    assertTrue(pool.getIdleServers().isEmpty());
+
+    starter.devicesAvailable = true;
+    pool.refill();
+    assertEquals(1, pool.getIdleServers().size());
+  }
+
+  @Test
+  public void shouldTakeServerOfRequestedApp() {
+    FakeStarter starter = new FakeStarter();
+    WarmSessionPool pool = new WarmSessionPool(2, Arrays.asList("a:1", "b:1"), starter, DIRECT);
+    pool.refill();
+
+    WarmSessionPool.WarmServer server = pool.take("b:1", new SelendroidCapabilities("b:1"));
+    assertEquals("b:1", server.getAppId());
+    assertNull(pool.take("b:1", new SelendroidCapabilities("b:1")));
+    assertEquals(1, pool.getIdleServers().size());
+  }
+
+  @Test
+  public void shouldNotTakeServerIfDeviceDoesNotMatch() {
+    FakeStarter starter = new FakeStarter();
+    WarmSessionPool pool = new WarmSessionPool(1, Arrays.asList("a:1"), starter, DIRECT);
+    pool.refill();
+    starter.matches = false;
+
+    assertNull(pool.take("a:1", new SelendroidCapabilities("a:1")));
+    assertEquals(1, pool.getIdleServers().size());
+  }
+
+  @Test
+  public void shouldNotTakeServerForSessionsPreparingTheDevice() {
+    WarmSessionPool pool = new WarmSessionPool(1, Arrays.asList("a:1"), new FakeStarter(), DIRECT);
+    pool.refill();
+    SelendroidCapabilities capabilities = new SelendroidCapabilities("a:1");
+    capabilities.setPreSessionAdbCommands(Arrays.asList("shell setprop a b"));
+
+    assertNull(pool.take("a:1", capabilities));
+  }
+
+  @Test
+  public void shouldDropServersWhoseInstrumentationFinished() {
+    FakeStarter starter = new FakeStarter();
+    WarmSessionPool pool = new WarmSessionPool(1, Arrays.asList("a:1"), starter, DIRECT);
+    pool.refill();
+    WarmSessionPool.WarmServer server = pool.getIdleServers().get(0);
+    server.getInstrumentation().onInstrumentationProcessComplete("INSTRUMENTATION_CODE: 0");
+
+    assertNull(pool.take("a:1", new SelendroidCapabilities("a:1")));
+    assertEquals(Arrays.asList(server), starter.stopped);
+  }
+
+  @Test
+  public void shouldEvictServerToFreeDevice() {
+    FakeStarter starter = new FakeStarter();
+    WarmSessionPool pool = new WarmSessionPool(1, Arrays.asList("a:1"), starter, DIRECT);
+    pool.refill();
+    WarmSessionPool.WarmServer server = pool.getIdleServers().get(0);
+
+    assertTrue(pool.evict(new SelendroidCapabilities("b:1")));
+    assertSame(server, starter.stopped.get(0));
+    assertFalse(pool.evict(new SelendroidCapabilities("b:1")));
+  }
+
+  @Test
+  public void shouldKeepOfferedServersEvenIfDisabled() {
+    FakeStarter starter = new FakeStarter();
+    WarmSessionPool pool = new WarmSessionPool(0, Collections.<String>emptyList(), starter, DIRECT);
+    WarmSessionPool.WarmServer server = new WarmSessionPool.WarmServer("a:1", null,
+        mock(AndroidDevice.class), 38080, new InstrumentationWatch());
+    pool.offer(server);
+    pool.refill();
+
+    assertTrue(starter.started.isEmpty());
+    assertSame(server, pool.take("a:1", new SelendroidCapabilities("a:1")));
+  }
+
+  @Test
+  public void shouldStopServersOfferedAfterShutdown() {
+    FakeStarter starter = new FakeStarter();
+    WarmSessionPool pool = new WarmSessionPool(1, Arrays.asList("a:1"), starter, DIRECT);
+    pool.shutdown();
+    WarmSessionPool.WarmServer server = new WarmSessionPool.WarmServer("a:1", null,
+        mock(AndroidDevice.class), 38080, new InstrumentationWatch());
+    pool.offer(server);
+
+    assertEquals(Arrays.asList(server), starter.stopped);
+    assertTrue(pool.getIdleServers().isEmpty());
+  }
+
+  @Test
+  public void shouldStopServersOnShutdown() {
+    FakeStarter starter = new FakeStarter();
+    WarmSessionPool pool = new WarmSessionPool(2, Arrays.asList("a:1"), starter, DIRECT);
+    pool.refill();
+    pool.shutdown();
+    pool.refill();
+
+    assertEquals(2, starter.stopped.size());
+    assertTrue(pool.getIdleServers().isEmpty());
+  }
+
+  @Test
+  public void shouldStopOfferedServerIfASessionWaitsForItsDevice() {
+    FakeStarter starter = new FakeStarter();
+    starter.waiting = 1;
+    WarmSessionPool pool = new WarmSessionPool(0, Collections.<String>emptyList(), starter, DIRECT);
+    WarmSessionPool.WarmServer server = new WarmSessionPool.WarmServer("a:1", null,
+        mock(AndroidDevice.class), 38080, new InstrumentationWatch());
+    pool.offer(server);
+
+    assertEquals(Arrays.asList(server), starter.stopped);
+    assertTrue(pool.getIdleServers().isEmpty());
+  }
+
+  @Test
+  public void shouldEvictOneServerPerWaitingSession() {
+    FakeStarter starter = new FakeStarter();
+    WarmSessionPool pool = new WarmSessionPool(2, Arrays.asList("a:1", "b:1"), starter, DIRECT);
+    pool.refill();
+    starter.waiting = 1;
+
+    pool.evictWanted();
+
+    assertEquals(1, starter.stopped.size());
+    assertEquals(1, pool.getIdleServers().size());
+  }
+}
@@ -19,6 +19,7 @@ import io.netty.handler.codec.http.HttpMethod;
 import io.selendroid.common.SelendroidCapabilities;
 import io.selendroid.common.device.DeviceTargetPlatform;
 import io.selendroid.standalone.android.AndroidApp;
+import io.selendroid.standalone.android.ShellBatch;
 import io.selendroid.standalone.android.impl.DefaultAndroidEmulator;
 import io.selendroid.standalone.exceptions.AndroidDeviceException;
 import io.selendroid.standalone.exceptions.AndroidSdkException;
@@ -31,6 +32,7 @@ import org.openqa.selenium.logging.LogEntry;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -41,6 +43,15 @@ public class DeviceForTest extends DefaultAndroidEmulator {
     return "";
   }
 
+  @Override
+  public List<ShellBatch.Result> runShellBatch(ShellBatch batch) {
+    List<ShellBatch.Result> results = new ArrayList<ShellBatch.Result>();
+    for (String command : batch.getCommands()) {
+      results.add(new ShellBatch.Result(command, "", 0));
+    }
+    return results;
+  }
+
   @Override
   public Locale getLocale() {
     return null;
@@ -173,6 +184,10 @@ public class DeviceForTest extends DefaultAndroidEmulator {
   @Override
   public void kill(AndroidApp app) throws AndroidDeviceException, AndroidSdkException {}
 
+  @Override
+  public void kill(AndroidApp app, boolean clearUserData)
+      throws AndroidDeviceException, AndroidSdkException {}
+
   public boolean screenSizeMatches(String requestedScreenSize) {
     // if screen size is not requested, just ignore it
     if (requestedScreenSize == null || requestedScreenSize.isEmpty()) {
@@ -0,0 +1,96 @@
+package io.selendroid.standalone.server.util;
+
+import io.selendroid.server.common.http.HttpRequest;
+import io.selendroid.server.common.http.TrafficMetrics;
+import io.selendroid.standalone.server.model.ActiveSession;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static io.selendroid.standalone.server.util.ProxyRetryPolicy.Failure.*;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BackoffProxyRetryPolicyTest {
+    private TrafficMetrics metrics;
+    private BackoffProxyRetryPolicy policy;
+    private ActiveSession session;
+
+    @Before
+    public void setUp() {
+        metrics = new TrafficMetrics();
+        policy = new BackoffProxyRetryPolicy(metrics, 100, 1000, 10000, 5, 1000);
+        session = mock(ActiveSession.class);
+        when(session.acquireProxyRetry(anyInt(), anyLong())).thenReturn(true);
+    }
+
+    private static HttpRequest request(String method, String uri) {
+        HttpRequest request = mock(HttpRequest.class);
+        when(request.method()).thenReturn(method);
+        when(request.uri()).thenReturn(uri);
+        return request;
+    }
+
+    @Test
+    public void retriesIdempotentCommandsThatReachedTheDevice() {
+        assertTrue(policy.retryDelayMillis(
+            session, request("GET", "/wd/hub/session/1/url"), 1, 0, SENT) >= 0);
+        assertTrue(policy.retryDelayMillis(
+            session, request("POST", "/wd/hub/session/1/element"), 1, 0, SENT) >= 0);
+        assertTrue(policy.retryDelayMillis(
+            session, request("POST", "/wd/hub/session/1/element/2/elements"), 1, 0, SENT) >= 0);
+        assertEquals(3, metrics.counter("proxy.retries").get());
+    }
+
+    @Test
+    public void retriesMutatingCommandsOnlyIfTheyWereNotSent() {
+        HttpRequest click = request("POST", "/wd/hub/session/1/element/2/click");
+
+        assertEquals(ProxyRetryPolicy.GIVE_UP, policy.retryDelayMillis(session, click, 1, 0, SENT));
+        assertEquals(1, metrics.counter("proxy.retries.notIdempotent").get());
+        assertTrue(policy.retryDelayMillis(session, click, 1, 0, NOT_SENT) >= 0);
+    }
+
+    @Test
+    public void retriesMutatingCommandsRightAwayIfTheConnectionWasStale() {
+        HttpRequest click = request("POST", "/wd/hub/session/1/element/2/click");
+
+        assertEquals(0, policy.retryDelayMillis(
+            session, click, 1, 0, STALE_CONNECTION));
+        assertEquals(1, metrics.counter("proxy.retries.staleConnection").get());
+        assertEquals(1, metrics.counter("proxy.retries").get());
+        assertEquals(ProxyRetryPolicy.GIVE_UP, policy.retryDelayMillis(
+            session, click, 1, 10000, STALE_CONNECTION));
+    }
+
+    @Test
+    public void backsOffExponentiallyWithJitter() {
+        for (int i = 0; i < 20; i++) {
+            long first = policy.delayMillis(1);
+            assertTrue(first >= 50 && first <= 100);
+            long third = policy.delayMillis(3);
+            assertTrue(third >= 200 && third <= 400);
+            long capped = policy.delayMillis(30);
+            assertTrue(capped >= 500 && capped <= 1000);
+        }
+    }
+
+    @Test
+    public void givesUpAfterTheTimeout() {
+        assertEquals(ProxyRetryPolicy.GIVE_UP,
+            policy.retryDelayMillis(session, request("GET", "/wd/hub/session/1/url"), 8, 9999, SENT));
+        assertEquals(1, metrics.counter("proxy.retries.timedOut").get());
+    }
+
+    @Test
+    public void givesUpOnceTheSessionBudgetIsSpent() {
+        when(session.acquireProxyRetry(5, 1000)).thenReturn(false);
+
+        assertEquals(ProxyRetryPolicy.GIVE_UP,
+            policy.retryDelayMillis(session, request("GET", "/wd/hub/session/1/url"), 1, 0, SENT));
+        assertEquals(1, metrics.counter("proxy.retries.budgetExhausted").get());
+    }
+}
@@ -10,7 +10,12 @@ import org.json.JSONObject;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import java.io.BufferedReader;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -70,4 +75,41 @@ public class HttpClientUtilTest extends TestCase {
         assertTrue(e instanceof RuntimeException);
         assertEquals(e.getMessage(), "Provided HttpMethod not supported: DOESNOTEXIST");
     }
+
+    public void testWarmedUpConnectionsCanBeUsed() throws Exception {
+        final ServerSocket server = new ServerSocket(0);
+        Thread responder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // the only connection is opened by the warm-up and then used for the request
+                    Socket socket = server.accept();
+                    BufferedReader in =
+                        new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                    String line;
+                    while ((line = in.readLine()) != null && !line.isEmpty()) {
+                        // skip the request headers
+                    }
+                    OutputStream out = socket.getOutputStream();
+                    out.write("HTTP/1.1 200 OK\r\nContent-Length: 12\r\n\r\n{\"status\":0}"
+                        .getBytes("US-ASCII"));
+                    out.flush();
+                } catch (Exception e) {
+                    // the request fails then
+                }
+            }
+        });
+        responder.start();
+        int port = server.getLocalPort();
+        try {
+            HttpClientUtil.warmUpDevicePool(port, 1);
+
+            HttpResponse response =
+                HttpClientUtil.executeRequestWithPayload("/wd/hub/session", port, HttpMethod.POST, "{}");
+            assertEquals(0, HttpClientUtil.parseJsonResponse(response).getInt("status"));
+        } finally {
+            HttpClientUtil.closeDevicePool(port);
+            server.close();
+        }
+    }
 }